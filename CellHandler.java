@@ -0,0 +1,14 @@
+
+import org.apache.hadoop.hbase.Cell;
+
+import java.io.IOException;
+
+/**
+ * 扫描单元格回调
+ * cell直接引用scanner返回的字节数组，通过getXxxArray/getXxxOffset/getXxxLength读取，
+ * 不要用CellUtil.cloneXxx复制；需要跨回调保留时再自行复制。
+ */
+public interface CellHandler {
+
+    void handle(Cell cell) throws IOException;
+}
@@ -1,5 +1,4 @@
 
-import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -12,10 +11,10 @@ public class HdfsWriter {
 
 	private FSDataOutputStream hdfsOutStream;
 
-	private BufferedOutputStream bufferOutStream;
-
 	private FileSystem fSystem;
 	private String fileFullName;
+	private HdfsCompression compression = HdfsCompression.NONE;
+	private long partSize;
 
 	public HdfsWriter(FileSystem fSystem, String fileFullName) throws ParameterException {
 		if ((null == fSystem) || (null == fileFullName)) {
@@ -26,6 +25,24 @@ public class HdfsWriter {
 		this.fileFullName = fileFullName;
 	}
 
+	/**
+	 * compressed output: fileFullName is used as the prefix of independently compressed
+	 * parts (see HdfsCompressedWriter), each at most partSize bytes so downstream jobs can split by part
+	 * 
+	 * @param compression codec, NONE writes a single raw file
+	 * @param partSize max compressed bytes per part, <= 0 for the HDFS block size
+	 */
+	public HdfsWriter(FileSystem fSystem, String fileFullName, HdfsCompression compression, long partSize)
+			throws ParameterException {
+		this(fSystem, fileFullName);
+		if (null == compression) {
+			throw new ParameterException("some of input parameters are null.");
+		}
+
+		this.compression = compression;
+		this.partSize = partSize;
+	}
+
 	/**
 	 * append the inputStream to a file in HDFS
 	 * 
@@ -38,6 +55,11 @@ public class HdfsWriter {
 			throw new ParameterException("some of input parameters are null.");
 		}
 
+		if (compression != HdfsCompression.NONE) {
+			outputCompressed(inputStream, true);
+			return;
+		}
+
 		setWriteResource();
 		try {
 			outputToHDFS(inputStream);
@@ -58,6 +80,12 @@ public class HdfsWriter {
 			throw new ParameterException("some of input parameters are null.");
 		}
 
+		if (compression != HdfsCompression.NONE) {
+			// compressed streams can't be reopened for append, append new parts instead
+			outputCompressed(inputStream, false);
+			return;
+		}
+
 		setAppendResource();
 		try {
 			outputToHDFS(inputStream);
@@ -66,29 +94,39 @@ public class HdfsWriter {
 		}
 	}
 
+	private void outputCompressed(InputStream inputStream, boolean overwrite) throws IOException {
+		HdfsCompressedWriter writer = new HdfsCompressedWriter(fSystem, fileFullName, compression, partSize, overwrite);
+		try {
+			writer.writeLines(inputStream);
+			writer.close();
+		} catch (IOException | RuntimeException e) {
+			// drop the parts written so far, existing data stays untouched
+			writer.abort();
+			throw e;
+		}
+	}
+
 	private void outputToHDFS(InputStream inputStream) throws IOException {
-		final int countForOneRead = 10240; // 10240 Bytes each time
+		// DFSOutputStream already buffers into packets, write straight to it
+		final int countForOneRead = 64 * 1024; // 64 KB each time
 		final byte buff[] = new byte[countForOneRead];
 		int count;
 
 		while ((count = inputStream.read(buff, 0, countForOneRead)) > 0) {
-			bufferOutStream.write(buff, 0, count);
+			hdfsOutStream.write(buff, 0, count);
 		}
 
-		bufferOutStream.flush();
 		hdfsOutStream.hflush();
 	}
 
 	private void setWriteResource() throws IOException {
 		Path filepath = new Path(fileFullName);
 		hdfsOutStream = fSystem.create(filepath);
-		bufferOutStream = new BufferedOutputStream(hdfsOutStream);
 	}
 
 	private void setAppendResource() throws IOException {
 		Path filepath = new Path(fileFullName);
 		hdfsOutStream = fSystem.append(filepath);
-		bufferOutStream = new BufferedOutputStream(hdfsOutStream);
 	}
 
 	private void closeResource() {
@@ -100,14 +138,5 @@ public class HdfsWriter {
 				System.out.println(e);
 			}
 		}
-
-		// close bufferOutStream
-		if (bufferOutStream != null) {
-			try {
-				bufferOutStream.close();
-			} catch (IOException e) {
-				System.out.println(e);
-			}
-		}
 	}
 }
@@ -0,0 +1,74 @@
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.util.Arrays;
+
+/**
+ * 按rowkey哈希取模分桶的加盐策略
+ * 二进制前缀: 1个字节的桶号，最多256个桶
+ * 文本前缀: 定长十进制桶号加下划线，如 "07_13800000000"，便于在hbase shell中查看
+ */
+public class HashPrefixSalter implements RowKeySalter {
+
+    private final int buckets;
+
+    private final byte[][] prefixes;
+
+    /**
+     * 二进制前缀
+     *
+     * @param buckets 分桶数 1~256
+     */
+    public HashPrefixSalter(int buckets) {
+        this(buckets, false);
+    }
+
+    /**
+     * @param buckets 分桶数，二进制前缀时 1~256
+     * @param text    是否使用文本前缀
+     */
+    public HashPrefixSalter(int buckets, boolean text) {
+        if (buckets <= 0 || (!text && buckets > 256)) {
+            throw new IllegalArgumentException("Invalid bucket count " + buckets);
+        }
+        this.buckets = buckets;
+        this.prefixes = new byte[buckets][];
+        int width = String.valueOf(buckets - 1).length();
+        for (int i = 0; i < buckets; i++) {
+            prefixes[i] = text ? Bytes.toBytes(String.format("%0" + width + "d_", i)) : new byte[]{(byte) i};
+        }
+    }
+
+    @Override
+    public int getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public int getBucket(byte[] rowkey) {
+        return (Bytes.hashCode(rowkey) & Integer.MAX_VALUE) % buckets;
+    }
+
+    @Override
+    public byte[] getPrefix(int bucket) {
+        return prefixes[bucket];
+    }
+
+    @Override
+    public byte[] salt(byte[] rowkey) {
+        return Bytes.add(prefixes[getBucket(rowkey)], rowkey);
+    }
+
+    @Override
+    public byte[] unsalt(byte[] saltedRowkey) {
+        // 所有桶前缀等长
+        int prefixLength = prefixes[0].length;
+        return Arrays.copyOfRange(saltedRowkey, prefixLength, saltedRowkey.length);
+    }
+
+    @Override
+    public byte[][] getSplitKeys() {
+        // 第一个桶从表的起始位置开始
+        return Arrays.copyOfRange(prefixes, 1, buckets);
+    }
+}
@@ -0,0 +1,617 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import com.google.protobuf.ByteString;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.AggregationClient;
+import org.apache.hadoop.hbase.client.coprocessor.LongColumnInterpreter;
+import org.apache.hadoop.hbase.coprocessor.ColumnInterpreter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.DoubleMsg;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.LongMsg;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.NameBytesPair;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 表聚合
+ * 表加载了AggregateImplementation协处理器时，所有聚合都在RegionServer上计算，每个Region只返回一个很小的部分结果：
+ * 行数用自带的rowCount；数值列统计和近似去重借用getSum，用自定义ColumnInterpreter把"求和类型"换成
+ * ColumnStats(count/sum/min/max)或HyperLogLog寄存器，一次扇出得到结果。自定义ColumnInterpreter需要和协处理器一样
+ * 部署到RegionServer的classpath(本工具jar放入hbase lib目录)。
+ * 未加载协处理器时退化为按Region并行扫描，值需要传输到客户端，可用HbaseUtils.enableAggregation开启。
+ * 字符串编码的数值(HbaseUtils写入的格式)按double解析，无法解析的值跳过。
+ */
+public class HbaseAggregator {
+
+    private final static Log LOG = LogFactory.getLog(HbaseAggregator.class.getName());
+
+    public static final String AGGREGATE_COPROCESSOR = "org.apache.hadoop.hbase.coprocessor.AggregateImplementation";
+
+    private final Connection conn;
+
+    private final Configuration conf;
+
+    private final String tableName;
+
+    private final int parallelism;
+
+    /**
+     * @param conn        HBase连接
+     * @param conf        HBase配置
+     * @param tableName   表名
+     * @param parallelism 客户端并行扫描线程数
+     */
+    public HbaseAggregator(Connection conn, Configuration conf, String tableName, int parallelism) {
+        this.conn = conn;
+        this.conf = conf;
+        this.tableName = tableName;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 表是否加载了聚合协处理器
+     */
+    public boolean isCoprocessorEnabled() throws IOException {
+        Admin admin = conn.getAdmin();
+        try {
+            HTableDescriptor htd = admin.getTableDescriptor(TableName.valueOf(tableName));
+            return htd.hasCoprocessor(AGGREGATE_COPROCESSOR);
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * 行数
+     *
+     * @param familyName 统计包含该列簇的行
+     * @param scan       扫描范围和过滤条件
+     */
+    public long rowCount(String familyName, Scan scan) throws IOException {
+        Scan countScan = new Scan(scan);
+        countScan.addFamily(Bytes.toBytes(familyName));
+        if (isCoprocessorEnabled()) {
+            try {
+                return new AggregationClient(conf).rowCount(TableName.valueOf(tableName),
+                        new LongColumnInterpreter(), countScan);
+            } catch (Throwable e) {
+                throw toIOException(e);
+            }
+        }
+
+        // 每行只返回第一个单元格的key
+        Filter keyOnly = new FilterList(FilterList.Operator.MUST_PASS_ALL,
+                new FirstKeyOnlyFilter(), new KeyOnlyFilter());
+        countScan.setFilter(scan.getFilter() == null ? keyOnly
+                : new FilterList(FilterList.Operator.MUST_PASS_ALL, scan.getFilter(), keyOnly));
+        countScan.setCacheBlocks(false);
+        final Partials<long[]> partials = new Partials<long[]>() {
+            @Override
+            long[] create() {
+                return new long[1];
+            }
+        };
+        new HbaseParallelScanner(conn, tableName, countScan, parallelism).scan(new ResultHandler() {
+            @Override
+            public void handle(Result result) {
+                partials.get()[0]++;
+            }
+        });
+        long rows = 0;
+        for (long[] partial : partials.all()) {
+            rows += partial[0];
+        }
+        return rows;
+    }
+
+    /**
+     * 数值列的count/sum/min/max/avg，加载了协处理器时一次扇出在服务端计算
+     *
+     * @param familyName  列簇
+     * @param qualifier   列名
+     * @param scan        扫描范围和过滤条件
+     * @param binaryLong  值是否为Bytes.toBytes(long)编码，否则按字符串解析为double
+     */
+    public ColumnStats stats(String familyName, String qualifier, Scan scan, boolean binaryLong) throws IOException {
+        final byte[] family = Bytes.toBytes(familyName);
+        final byte[] column = Bytes.toBytes(qualifier);
+        Scan statsScan = new Scan(scan);
+        statsScan.addColumn(family, column);
+
+        if (isCoprocessorEnabled()) {
+            try {
+                ColumnStats stats = new AggregationClient(conf).sum(TableName.valueOf(tableName),
+                        new StatsInterpreter(binaryLong), statsScan);
+                return stats == null ? new ColumnStats() : stats;
+            } catch (Throwable e) {
+                throw toIOException(e);
+            }
+        }
+
+        LOG.warn("Aggregation coprocessor not enabled on " + tableName + ", streaming values to the client");
+        statsScan.setCacheBlocks(false);
+        final boolean binary = binaryLong;
+        final Partials<ColumnStats> partials = new Partials<ColumnStats>() {
+            @Override
+            ColumnStats create() {
+                return new ColumnStats();
+            }
+        };
+        new HbaseParallelScanner(conn, tableName, statsScan, parallelism).scan(new ResultHandler() {
+            @Override
+            public void handle(Result result) {
+                Cell cell = result.getColumnLatestCell(family, column);
+                if (cell == null) {
+                    return;
+                }
+                double value;
+                if (binary) {
+                    if (cell.getValueLength() != Bytes.SIZEOF_LONG) {
+                        return;
+                    }
+                    value = Bytes.toLong(cell.getValueArray(), cell.getValueOffset());
+                } else {
+                    try {
+                        value = Double.parseDouble(Bytes.toString(cell.getValueArray(), cell.getValueOffset(),
+                                cell.getValueLength()).trim());
+                    } catch (NumberFormatException e) {
+                        return;
+                    }
+                }
+                partials.get().add(value);
+            }
+        });
+        ColumnStats stats = new ColumnStats();
+        for (ColumnStats partial : partials.all()) {
+            stats.merge(partial);
+        }
+        return stats;
+    }
+
+    /**
+     * 列的近似不同值个数
+     *
+     * @param familyName 列簇
+     * @param qualifier  列名
+     * @param scan       扫描范围和过滤条件
+     */
+    public long approxDistinct(String familyName, String qualifier, Scan scan) throws IOException {
+        final byte[] family = Bytes.toBytes(familyName);
+        final byte[] column = Bytes.toBytes(qualifier);
+        Scan distinctScan = new Scan(scan);
+        distinctScan.addColumn(family, column);
+        distinctScan.setCacheBlocks(false);
+
+        if (isCoprocessorEnabled()) {
+            DistinctState state;
+            try {
+                state = new AggregationClient(conf).sum(TableName.valueOf(tableName),
+                        new DistinctInterpreter(HyperLogLog.DEFAULT_PRECISION), distinctScan);
+            } catch (Throwable e) {
+                throw toIOException(e);
+            }
+            long distinct = state == null ? 0 : state.toHyperLogLog().cardinality();
+            LOG.info("Approximate distinct count of " + familyName + ":" + qualifier + " in " + tableName + " is "
+                    + distinct);
+            return distinct;
+        }
+
+        LOG.warn("Aggregation coprocessor not enabled on " + tableName + ", streaming values to the client");
+        final Partials<HyperLogLog> partials = new Partials<HyperLogLog>() {
+            @Override
+            HyperLogLog create() {
+                return new HyperLogLog();
+            }
+        };
+        new HbaseParallelScanner(conn, tableName, distinctScan, parallelism).scan(new ResultHandler() {
+            @Override
+            public void handle(Result result) {
+                Cell cell = result.getColumnLatestCell(family, column);
+                if (cell != null) {
+                    partials.get().add(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+                }
+            }
+        });
+        HyperLogLog merged = new HyperLogLog();
+        for (HyperLogLog partial : partials.all()) {
+            merged.merge(partial);
+        }
+        long distinct = merged.cardinality();
+        LOG.info("Approximate distinct count of " + familyName + ":" + qualifier + " in " + tableName + " is " + distinct);
+        return distinct;
+    }
+
+    private static IOException toIOException(Throwable e) {
+        return e instanceof IOException ? (IOException) e : new IOException("Aggregation failed", e);
+    }
+
+    /**
+     * 数值列统计结果
+     */
+    public static class ColumnStats {
+        private long count;
+        private double sum;
+        private double min = Double.NaN;
+        private double max = Double.NaN;
+
+        void add(double value) {
+            if (count == 0 || value < min) {
+                min = value;
+            }
+            if (count == 0 || value > max) {
+                max = value;
+            }
+            sum += value;
+            count++;
+        }
+
+        void merge(ColumnStats other) {
+            if (other.count == 0) {
+                return;
+            }
+            min = count == 0 ? other.min : Math.min(min, other.min);
+            max = count == 0 ? other.max : Math.max(max, other.max);
+            sum += other.sum;
+            count += other.count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getAvg() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        @Override
+        public String toString() {
+            return "ColumnStats{count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max
+                    + ", avg=" + getAvg() + "}";
+        }
+    }
+
+    /**
+     * 数值列统计的ColumnInterpreter，由RegionServer上的AggregateImplementation.getSum调用
+     * 每个Region的部分结果是一个ColumnStats，序列化为32字节，客户端用add合并
+     */
+    public static class StatsInterpreter
+            extends ColumnInterpreter<Double, ColumnStats, LongMsg, DoubleMsg, NameBytesPair> {
+
+        private boolean binaryLong;
+
+        /**
+         * RegionServer反射创建，参数由initialize传入
+         */
+        public StatsInterpreter() {
+        }
+
+        StatsInterpreter(boolean binaryLong) {
+            this.binaryLong = binaryLong;
+        }
+
+        @Override
+        public Double getValue(byte[] family, byte[] qualifier, Cell cell) {
+            if (cell == null) {
+                return null;
+            }
+            if (binaryLong) {
+                if (cell.getValueLength() != Bytes.SIZEOF_LONG) {
+                    return null;
+                }
+                return (double) Bytes.toLong(cell.getValueArray(), cell.getValueOffset());
+            }
+            try {
+                return Double.parseDouble(Bytes.toString(cell.getValueArray(), cell.getValueOffset(),
+                        cell.getValueLength()).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public ColumnStats add(ColumnStats l1, ColumnStats l2) {
+            if (l1 == null) {
+                return l2;
+            }
+            if (l2 != null) {
+                l1.merge(l2);
+            }
+            return l1;
+        }
+
+        @Override
+        public Double getMaxValue() {
+            return Double.MAX_VALUE;
+        }
+
+        @Override
+        public Double getMinValue() {
+            return -Double.MAX_VALUE;
+        }
+
+        // 与LongColumnInterpreter一样作用于部分和，结果是只含一个值的统计；getSum不会调用
+        @Override
+        public ColumnStats multiply(ColumnStats o1, ColumnStats o2) {
+            if (o1 == null || o2 == null) {
+                return null;
+            }
+            return castToReturnType(o1.getSum() * o2.getSum());
+        }
+
+        @Override
+        public ColumnStats increment(ColumnStats o) {
+            return o == null ? null : castToReturnType(o.getSum() + 1);
+        }
+
+        @Override
+        public ColumnStats castToReturnType(Double o) {
+            if (o == null) {
+                return null;
+            }
+            ColumnStats stats = new ColumnStats();
+            stats.add(o);
+            return stats;
+        }
+
+        @Override
+        public int compare(Double l1, Double l2) {
+            if (l1 == null || l2 == null) {
+                return l1 == null ? (l2 == null ? 0 : -1) : 1;
+            }
+            return Double.compare(l1, l2);
+        }
+
+        @Override
+        public double divideForAvg(ColumnStats o, Long l) {
+            return o == null ? Double.NaN : o.getSum() / l;
+        }
+
+        @Override
+        public LongMsg getRequestData() {
+            return LongMsg.newBuilder().setLongMsg(binaryLong ? 1 : 0).build();
+        }
+
+        @Override
+        public void initialize(LongMsg msg) {
+            binaryLong = msg.getLongMsg() != 0;
+        }
+
+        @Override
+        public DoubleMsg getProtoForCellType(Double t) {
+            return DoubleMsg.newBuilder().setDoubleMsg(t).build();
+        }
+
+        @Override
+        public Double getCellValueFromProto(DoubleMsg q) {
+            return q.getDoubleMsg();
+        }
+
+        @Override
+        public NameBytesPair getProtoForPromotedType(ColumnStats s) {
+            byte[] bytes = Bytes.add(Bytes.add(Bytes.toBytes(s.count), Bytes.toBytes(s.sum)),
+                    Bytes.add(Bytes.toBytes(s.min), Bytes.toBytes(s.max)));
+            return NameBytesPair.newBuilder().setName("stats").setValue(ByteString.copyFrom(bytes)).build();
+        }
+
+        @Override
+        public ColumnStats getPromotedValueFromProto(NameBytesPair r) {
+            byte[] bytes = r.getValue().toByteArray();
+            ColumnStats stats = new ColumnStats();
+            stats.count = Bytes.toLong(bytes, 0);
+            stats.sum = Bytes.toDouble(bytes, 8);
+            stats.min = Bytes.toDouble(bytes, 16);
+            stats.max = Bytes.toDouble(bytes, 24);
+            return stats;
+        }
+
+        @Override
+        public Double castToCellType(ColumnStats response) {
+            return response == null ? null : response.getSum();
+        }
+    }
+
+    /**
+     * 近似去重的部分结果：只有一个值时不分配寄存器数组，第二个值到来时才升级为HyperLogLog，
+     * 每个Region只分配一个HyperLogLog
+     */
+    public static class DistinctState {
+        private final int precision;
+        private HyperLogLog hll;
+        private byte[] single;
+
+        DistinctState(int precision, byte[] single) {
+            this.precision = precision;
+            this.single = single;
+        }
+
+        DistinctState(HyperLogLog hll) {
+            this.precision = hll.getPrecision();
+            this.hll = hll;
+        }
+
+        void merge(DistinctState other) {
+            HyperLogLog merged = toHyperLogLog();
+            if (other.hll != null) {
+                merged.merge(other.hll);
+            } else {
+                merged.add(other.single);
+            }
+        }
+
+        HyperLogLog toHyperLogLog() {
+            if (hll == null) {
+                hll = new HyperLogLog(precision);
+                hll.add(single);
+                single = null;
+            }
+            return hll;
+        }
+    }
+
+    /**
+     * 近似去重的ColumnInterpreter，由RegionServer上的AggregateImplementation.getSum调用
+     * 每个Region的部分结果是HyperLogLog寄存器数组(precision=14时16KB)，客户端用add合并
+     */
+    public static class DistinctInterpreter
+            extends ColumnInterpreter<byte[], DistinctState, LongMsg, NameBytesPair, NameBytesPair> {
+
+        private int precision = HyperLogLog.DEFAULT_PRECISION;
+
+        /**
+         * RegionServer反射创建，参数由initialize传入
+         */
+        public DistinctInterpreter() {
+        }
+
+        DistinctInterpreter(int precision) {
+            this.precision = precision;
+        }
+
+        @Override
+        public byte[] getValue(byte[] family, byte[] qualifier, Cell cell) {
+            return cell == null ? null : CellUtil.cloneValue(cell);
+        }
+
+        @Override
+        public DistinctState add(DistinctState l1, DistinctState l2) {
+            if (l1 == null) {
+                return l2;
+            }
+            if (l2 != null) {
+                l1.merge(l2);
+            }
+            return l1;
+        }
+
+        // 按Bytes.compareTo排序，空数组最小；没有最大值，返回null，compare中null排在最后
+        @Override
+        public byte[] getMaxValue() {
+            return null;
+        }
+
+        @Override
+        public byte[] getMinValue() {
+            return HConstants.EMPTY_BYTE_ARRAY;
+        }
+
+        // HyperLogLog只能求并集，multiply按add合并；increment不增加新值，原样返回。getSum不会调用这两个方法
+        @Override
+        public DistinctState multiply(DistinctState o1, DistinctState o2) {
+            return add(o1, o2);
+        }
+
+        @Override
+        public DistinctState increment(DistinctState o) {
+            return o;
+        }
+
+        @Override
+        public DistinctState castToReturnType(byte[] o) {
+            return o == null ? null : new DistinctState(precision, o);
+        }
+
+        @Override
+        public int compare(byte[] l1, byte[] l2) {
+            if (l1 == null || l2 == null) {
+                return l1 == null ? (l2 == null ? 0 : 1) : -1;
+            }
+            return Bytes.compareTo(l1, l2);
+        }
+
+        // 去重数估计值除以行数
+        @Override
+        public double divideForAvg(DistinctState o, Long l) {
+            return o == null ? Double.NaN : (double) o.toHyperLogLog().cardinality() / l;
+        }
+
+        @Override
+        public LongMsg getRequestData() {
+            return LongMsg.newBuilder().setLongMsg(precision).build();
+        }
+
+        @Override
+        public void initialize(LongMsg msg) {
+            precision = (int) msg.getLongMsg();
+        }
+
+        @Override
+        public NameBytesPair getProtoForCellType(byte[] t) {
+            return NameBytesPair.newBuilder().setName("value").setValue(ByteString.copyFrom(t)).build();
+        }
+
+        @Override
+        public byte[] getCellValueFromProto(NameBytesPair q) {
+            return q.getValue().toByteArray();
+        }
+
+        @Override
+        public NameBytesPair getProtoForPromotedType(DistinctState s) {
+            return NameBytesPair.newBuilder().setName("hll")
+                    .setValue(ByteString.copyFrom(s.toHyperLogLog().toBytes())).build();
+        }
+
+        @Override
+        public DistinctState getPromotedValueFromProto(NameBytesPair r) {
+            return new DistinctState(HyperLogLog.fromBytes(r.getValue().toByteArray()));
+        }
+
+        // 部分结果的序列化形式，与getProtoForPromotedType一致
+        @Override
+        public byte[] castToCellType(DistinctState response) {
+            return response == null ? null : response.toHyperLogLog().toBytes();
+        }
+    }
+
+    /**
+     * 每个扫描线程一个部分结果，扫描结束后合并
+     */
+    private abstract static class Partials<T> {
+        private final List<T> all = new CopyOnWriteArrayList<T>();
+        private final ThreadLocal<T> local = new ThreadLocal<T>() {
+            @Override
+            protected T initialValue() {
+                T partial = create();
+                all.add(partial);
+                return partial;
+            }
+        };
+
+        abstract T create();
+
+        T get() {
+            return local.get();
+        }
+
+        List<T> all() {
+            return all;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * 异步HBase客户端
+ * put/get/delete/分页扫描返回CompletableFuture，调用线程不阻塞。
+ * 同时执行的请求数受信号量限制，超过上限时等待acquireTimeoutMs，仍拿不到许可则以RejectedExecutionException失败；
+ * 每个请求有超时时间(从开始执行时计时)，超时后future以TimeoutException失败并中断执行中的请求，
+ * 执行线程退出后才归还许可。
+ * HBase 1.x客户端只有同步接口，每个执行中的请求占用执行线程池的一个线程，线程数上限等于并发上限。
+ * 设置索引维护后put/delete同步维护客户端索引，见setIndexMaintainer。
+ */
+public class HbaseAsyncClient implements Closeable {
+
+    private final static Log LOG = LogFactory.getLog(HbaseAsyncClient.class.getName());
+
+    private final Connection conn;
+
+    private final ExecutorService executor;
+
+    // 是否由本类创建并负责关闭
+    private final boolean ownExecutor;
+
+    private final ScheduledExecutorService timer;
+
+    private final Semaphore inFlight;
+
+    private final int maxInFlight;
+
+    private final long defaultTimeoutMs;
+
+    private volatile long acquireTimeoutMs = 0;
+
+    // 客户端索引维护，为null时不维护
+    private volatile HbaseUtils indexMaintainer;
+
+    /**
+     * 使用内部线程池，线程数等于并发上限
+     *
+     * @param conn             HBase连接
+     * @param maxInFlight      最大并发请求数
+     * @param defaultTimeoutMs 默认超时时间(毫秒)
+     */
+    public HbaseAsyncClient(Connection conn, int maxInFlight, long defaultTimeoutMs) {
+        this(conn, Executors.newFixedThreadPool(maxInFlight, daemonThreads("hbase-async-")), true,
+                maxInFlight, defaultTimeoutMs);
+    }
+
+    /**
+     * 使用外部线程池，关闭客户端时不关闭该线程池
+     *
+     * @param conn             HBase连接
+     * @param executor         执行线程池
+     * @param maxInFlight      最大并发请求数
+     * @param defaultTimeoutMs 默认超时时间(毫秒)
+     */
+    public HbaseAsyncClient(Connection conn, ExecutorService executor, int maxInFlight, long defaultTimeoutMs) {
+        this(conn, executor, false, maxInFlight, defaultTimeoutMs);
+    }
+
+    private HbaseAsyncClient(Connection conn, ExecutorService executor, boolean ownExecutor, int maxInFlight,
+                             long defaultTimeoutMs) {
+        this.conn = conn;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.defaultTimeoutMs = defaultTimeoutMs;
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("hbase-async-timer-"));
+    }
+
+    /**
+     * 并发达到上限时等待许可的时间，0表示立即失败
+     */
+    public HbaseAsyncClient setAcquireTimeoutMs(long acquireTimeoutMs) {
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        return this;
+    }
+
+    /**
+     * 设置客户端索引维护，为null时不维护；HbaseUtils.getAsyncClient返回的客户端已设置
+     */
+    public HbaseAsyncClient setIndexMaintainer(HbaseUtils indexMaintainer) {
+        this.indexMaintainer = indexMaintainer;
+        return this;
+    }
+
+    public CompletableFuture<Void> put(String tableName, Put put) {
+        return put(tableName, put, defaultTimeoutMs);
+    }
+
+    public CompletableFuture<Void> put(final String tableName, final Put put, long timeoutMs) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                HbaseUtils indexer = indexMaintainer;
+                if (indexer != null) {
+                    indexer.indexPuts(tableName, Collections.singletonList(put), true);
+                }
+                Table table = conn.getTable(TableName.valueOf(tableName));
+                try {
+                    table.put(put);
+                } finally {
+                    table.close();
+                }
+                HbaseUtils.invalidateRow(tableName, put.getRow());
+                return null;
+            }
+        }, timeoutMs);
+    }
+
+    /**
+     * 插入一个单元格，加盐表自动加盐
+     */
+    public CompletableFuture<Void> put(String tableName, String rowkey, String familyName, String qualifier,
+                                       String content) {
+        Put put = new Put(HbaseUtils.toRowKey(tableName, rowkey));
+        put.addColumn(Bytes.toBytes(familyName), Bytes.toBytes(qualifier), Bytes.toBytes(content));
+        return put(tableName, put, defaultTimeoutMs);
+    }
+
+    public CompletableFuture<Result> get(String tableName, Get get) {
+        return get(tableName, get, defaultTimeoutMs);
+    }
+
+    public CompletableFuture<Result> get(final String tableName, final Get get, long timeoutMs) {
+        return submit(new Callable<Result>() {
+            @Override
+            public Result call() throws IOException {
+                Table table = conn.getTable(TableName.valueOf(tableName));
+                try {
+                    return table.get(get);
+                } finally {
+                    table.close();
+                }
+            }
+        }, timeoutMs);
+    }
+
+    /**
+     * 按rowkey读取整行，加盐表自动加盐
+     */
+    public CompletableFuture<Result> get(String tableName, String rowkey) {
+        return get(tableName, new Get(HbaseUtils.toRowKey(tableName, rowkey)), defaultTimeoutMs);
+    }
+
+    public CompletableFuture<Void> delete(String tableName, Delete delete) {
+        return delete(tableName, delete, defaultTimeoutMs);
+    }
+
+    public CompletableFuture<Void> delete(final String tableName, final Delete delete, long timeoutMs) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                HbaseUtils indexer = indexMaintainer;
+                Map<HbaseClientIndex, List<Mutation>> staleEntries = indexer == null ? null
+                        : indexer.staleIndexEntries(tableName, Collections.singletonList(delete));
+                Table table = conn.getTable(TableName.valueOf(tableName));
+                try {
+                    table.delete(delete);
+                } finally {
+                    table.close();
+                }
+                HbaseUtils.invalidateRow(tableName, delete.getRow());
+                // 数据删除成功后再删除索引条目
+                if (staleEntries != null) {
+                    indexer.writeIndexEntries(staleEntries, true);
+                }
+                return null;
+            }
+        }, timeoutMs);
+    }
+
+    /**
+     * 按rowkey删除整行，加盐表自动加盐
+     */
+    public CompletableFuture<Void> delete(String tableName, String rowkey) {
+        return delete(tableName, new Delete(HbaseUtils.toRowKey(tableName, rowkey)), defaultTimeoutMs);
+    }
+
+    public CompletableFuture<List<Result>> scanPage(String tableName, Scan scan, int pageSize) {
+        return scanPage(tableName, scan, pageSize, defaultTimeoutMs);
+    }
+
+    /**
+     * 扫描一页，scanner在返回前关闭，不在请求之间保留
+     *
+     * @param tableName 表名
+     * @param scan      扫描条件，下一页从上一页最后一行之后开始
+     * @param pageSize  每页行数
+     * @param timeoutMs 超时时间(毫秒)
+     */
+    public CompletableFuture<List<Result>> scanPage(final String tableName, final Scan scan, final int pageSize,
+                                                    long timeoutMs) {
+        return submit(new Callable<List<Result>>() {
+            @Override
+            public List<Result> call() throws IOException {
+                Scan pageScan = new Scan(scan);
+                pageScan.setCaching(pageSize);
+                Table table = conn.getTable(TableName.valueOf(tableName));
+                ResultScanner scanner = null;
+                try {
+                    scanner = table.getScanner(pageScan);
+                    return Arrays.asList(scanner.next(pageSize));
+                } finally {
+                    if (scanner != null) {
+                        scanner.close();
+                    }
+                    table.close();
+                }
+            }
+        }, timeoutMs);
+    }
+
+    /**
+     * 当前执行中的请求数
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(final Callable<T> call, long timeoutMs) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            if (!inFlight.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new RejectedExecutionException(
+                        "Too many in-flight HBase requests, limit " + maxInFlight));
+                return future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        Request<T> request = new Request<T>(call, future, timeoutMs);
+        // 超时或调用方取消时中断执行中的请求
+        future.whenComplete(request);
+        try {
+            executor.execute(request);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 一个请求的执行
+     * 许可在执行线程退出run时归还，不在future完成时归还：超时或取消后线程可能仍阻塞在RPC中，
+     * 提前归还会让排队的任务超过线程数，并发上限失效。超时从开始执行时计时，不包括排队时间。
+     */
+    private class Request<T> implements Runnable, BiConsumer<T, Throwable> {
+        private final Callable<T> call;
+        private final CompletableFuture<T> future;
+        private final long timeoutMs;
+
+        // 以下字段只在持有this锁时读写
+        private Thread runner;
+        private ScheduledFuture<?> timeoutTask;
+
+        Request(Callable<T> call, CompletableFuture<T> future, long timeoutMs) {
+            this.call = call;
+            this.future = future;
+            this.timeoutMs = timeoutMs;
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (this) {
+                    // 排队期间已被取消
+                    if (future.isDone()) {
+                        return;
+                    }
+                    runner = Thread.currentThread();
+                    if (timeoutMs > 0 && !timer.isShutdown()) {
+                        timeoutTask = timer.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (future.completeExceptionally(new TimeoutException(
+                                        "HBase request timed out after " + timeoutMs + "ms"))) {
+                                    LOG.warn("HBase request timed out after " + timeoutMs + "ms");
+                                }
+                            }
+                        }, timeoutMs, TimeUnit.MILLISECONDS);
+                    }
+                }
+                try {
+                    future.complete(call.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    if (timeoutTask != null) {
+                        timeoutTask.cancel(false);
+                    }
+                }
+                // 清除超时/取消留下的中断状态，避免影响线程池中的下一个任务
+                Thread.interrupted();
+                inFlight.release();
+            }
+        }
+
+        @Override
+        public synchronized void accept(T t, Throwable throwable) {
+            if (runner != null && runner != Thread.currentThread()) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger seq = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
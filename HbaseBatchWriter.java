@@ -0,0 +1,301 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量写入器
+ * 基于长期持有的BufferedMutator，按写缓冲大小和时间间隔两个条件刷写，
+ * 刷写时客户端按RegionServer分组，一次multi-put提交一批数据。
+ * 线程安全，可在Spark分区内多线程共享。
+ * 设置索引维护后，提交的Put/Delete先维护客户端索引，见setIndexMaintainer。
+ */
+public class HbaseBatchWriter implements Closeable {
+
+    private final static Log LOG = LogFactory.getLog(HbaseBatchWriter.class.getName());
+
+    // 默认写缓冲 8MB
+    public static final long DEFAULT_WRITE_BUFFER_SIZE = 8 * 1024 * 1024L;
+
+    // 默认定时刷写间隔 1s, <=0 表示只按缓冲大小刷写
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000L;
+
+    private final String tableName;
+
+    private final BufferedMutator mutator;
+
+    private final ScheduledExecutorService flusher;
+
+    // 自上次刷写后提交的mutation数
+    private final AtomicLong pending = new AtomicLong();
+
+    // 异步写失败的行数
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    // 行缓存，写入的行在提交和刷写后失效
+    private volatile HbaseRowCache rowCache;
+
+    // rowkey加盐策略，为null时不加盐
+    private volatile RowKeySalter salter;
+
+    // 客户端索引维护，为null时不维护
+    private volatile HbaseUtils indexMaintainer;
+
+    // 自上次刷写后写入的逻辑rowkey(按字节比较)，刷写后再失效一次，防止刷写前读回旧数据；也用于判断读取前是否需要刷写
+    private final Set<ImmutableBytesWritable> unflushedRows =
+            Collections.newSetFromMap(new ConcurrentHashMap<ImmutableBytesWritable, Boolean>());
+
+    /**
+     * @param conn            HBase连接
+     * @param tableName       表名
+     * @param writeBufferSize 写缓冲大小(字节)，达到后自动刷写
+     * @param flushIntervalMs 定时刷写间隔(毫秒)，<=0 不启用
+     * @param listener        异步写失败回调，为null时只记录日志
+     */
+    public HbaseBatchWriter(Connection conn, String tableName, long writeBufferSize, long flushIntervalMs,
+                            final BufferedMutator.ExceptionListener listener) throws IOException {
+        this.tableName = tableName;
+
+        BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(tableName))
+                .writeBufferSize(writeBufferSize)
+                .listener(new BufferedMutator.ExceptionListener() {
+                    @Override
+                    public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator mutator)
+                            throws RetriesExhaustedWithDetailsException {
+                        failed.addAndGet(e.getNumExceptions());
+                        for (int i = 0; i < e.getNumExceptions(); i++) {
+                            LOG.error("Failed to write row " + Bytes.toStringBinary(e.getRow(i).getRow())
+                                    + " to " + e.getHostnamePort(i), e.getCause(i));
+                        }
+                        if (listener != null) {
+                            listener.onException(e, mutator);
+                        }
+                    }
+                });
+        this.mutator = conn.getBufferedMutator(params);
+
+        if (flushIntervalMs > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "hbase-batch-writer-" + HbaseBatchWriter.this.tableName);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.get() > 0) {
+                        try {
+                            flush();
+                        } catch (IOException e) {
+                            LOG.error("Periodic flush failed ", e);
+                        }
+                    }
+                }
+            }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * 写入一行多列
+     *
+     * @param rowkey      rowkey
+     * @param family_Name 列簇
+     * @param columns     列名 -> 内容
+     */
+    public void put(String rowkey, String family_Name, Map<String, String> columns) throws IOException {
+        byte[] familyName = Bytes.toBytes(family_Name);
+        Put put = new Put(toRowKey(Bytes.toBytes(rowkey)));
+        for (Map.Entry<String, String> column : columns.entrySet()) {
+            put.addColumn(familyName, Bytes.toBytes(column.getKey()), Bytes.toBytes(column.getValue()));
+        }
+        mutate(put);
+    }
+
+    /**
+     * 写入多行多列
+     *
+     * @param family_Name 列簇
+     * @param rows        rowkey -> (列名 -> 内容)
+     */
+    public void put(String family_Name, Map<String, Map<String, String>> rows) throws IOException {
+        byte[] familyName = Bytes.toBytes(family_Name);
+        List<Mutation> puts = new ArrayList<Mutation>(rows.size());
+        for (Map.Entry<String, Map<String, String>> row : rows.entrySet()) {
+            Put put = new Put(toRowKey(Bytes.toBytes(row.getKey())));
+            for (Map.Entry<String, String> column : row.getValue().entrySet()) {
+                put.addColumn(familyName, Bytes.toBytes(column.getKey()), Bytes.toBytes(column.getValue()));
+            }
+            puts.add(put);
+        }
+        mutate(puts);
+    }
+
+    public void mutate(Mutation mutation) throws IOException {
+        mutate(Collections.singletonList(mutation));
+    }
+
+    /**
+     * 提交一批mutation(物理rowkey)，设置了索引维护时先维护客户端索引
+     */
+    public void mutate(List<? extends Mutation> mutations) throws IOException {
+        ensureOpen();
+        HbaseUtils indexer = indexMaintainer;
+        Map<HbaseClientIndex, List<Mutation>> staleEntries = null;
+        if (indexer != null) {
+            indexer.indexPuts(tableName, mutations, false);
+            staleEntries = indexer.staleIndexEntries(tableName, mutations);
+        }
+        mutator.mutate(mutations);
+        pending.addAndGet(mutations.size());
+        for (Mutation mutation : mutations) {
+            invalidate(mutation);
+        }
+        if (staleEntries != null) {
+            indexer.writeIndexEntries(staleEntries, false);
+        }
+    }
+
+    /**
+     * 立即把缓冲中的数据提交到RegionServer
+     */
+    public void flush() throws IOException {
+        long flushing = pending.getAndSet(0);
+        List<ImmutableBytesWritable> flushingRows = new ArrayList<ImmutableBytesWritable>(unflushedRows);
+        mutator.flush();
+        invalidateFlushed(flushingRows);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Flushed " + flushing + " mutations to " + tableName);
+        }
+    }
+
+    /**
+     * 设置行缓存，为null时不做失效
+     */
+    public void setRowCache(HbaseRowCache rowCache) {
+        this.rowCache = rowCache;
+    }
+
+    /**
+     * 设置客户端索引维护，为null时不维护；HbaseUtils.getBatchWriter创建的写入器已设置
+     */
+    public void setIndexMaintainer(HbaseUtils indexMaintainer) {
+        this.indexMaintainer = indexMaintainer;
+    }
+
+    /**
+     * 设置rowkey加盐策略，作用于put方法；mutate方法传入的是物理rowkey，不再加盐
+     */
+    public void setSalter(RowKeySalter salter) {
+        this.salter = salter;
+    }
+
+    /**
+     * 这些行(逻辑rowkey，未加盐)中是否有已提交但尚未刷写的写入
+     */
+    public boolean hasUnflushed(Collection<byte[]> rows) {
+        for (byte[] row : rows) {
+            if (unflushedRows.contains(new ImmutableBytesWritable(row))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public long getWriteBufferSize() {
+        return mutator.getWriteBufferSize();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 停止定时刷写，提交剩余数据并释放BufferedMutator
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        try {
+            mutator.close();
+        } finally {
+            pending.set(0);
+            invalidateFlushed(new ArrayList<ImmutableBytesWritable>(unflushedRows));
+        }
+    }
+
+    private void invalidate(Mutation mutation) {
+        RowKeySalter s = salter;
+        byte[] row = s == null ? mutation.getRow() : s.unsalt(mutation.getRow());
+        HbaseRowCache cache = rowCache;
+        if (cache != null) {
+            cache.invalidate(tableName, Bytes.toString(row));
+        }
+        unflushedRows.add(new ImmutableBytesWritable(row));
+    }
+
+    // 刷写完成后再次失效这些行，刷写期间新写入的行留到下次
+    private void invalidateFlushed(List<ImmutableBytesWritable> rows) {
+        HbaseRowCache cache = rowCache;
+        for (ImmutableBytesWritable row : rows) {
+            if (cache != null) {
+                cache.invalidate(tableName, Bytes.toString(row.copyBytes()));
+            }
+            unflushedRows.remove(row);
+        }
+    }
+
+    private byte[] toRowKey(byte[] rowkey) {
+        RowKeySalter s = salter;
+        return s == null ? rowkey : s.salt(rowkey);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Batch writer of table " + tableName + " is already closed");
+        }
+    }
+}
@@ -0,0 +1,287 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContext;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HFile批量导入
+ * 把单元格按Region边界写成HFile放到HDFS临时目录，再一次性导入表中，绕过WAL和memstore。
+ * HFile的压缩、编码、布隆过滤器和块大小与表的列簇设置一致。
+ * 数据无序时按maxSortCells分块在内存中排序，每块生成一组HFile。
+ */
+public class HbaseBulkLoader {
+
+    private final static Log LOG = LogFactory.getLog(HbaseBulkLoader.class.getName());
+
+    // 无序数据每块排序的单元格数
+    public static final int DEFAULT_MAX_SORT_CELLS = 1000000;
+
+    // 非安全集群上RegionServer用户所在的组
+    public static final String BULKLOAD_GROUP_KEY = "hbase.utils.bulkload.group";
+    private static final String DEFAULT_BULKLOAD_GROUP = "hbase";
+
+    private static final FsPermission STAGING_DIR_PERMISSION = new FsPermission((short) 0770);
+    private static final FsPermission STAGING_FILE_PERMISSION = new FsPermission((short) 0660);
+
+    private final Connection conn;
+
+    private final Configuration conf;
+
+    private final FileSystem fs;
+
+    private final TableName tableName;
+
+    private int maxSortCells = DEFAULT_MAX_SORT_CELLS;
+
+    // 列簇 -> HFile参数
+    private Map<String, HColumnDescriptor> families;
+
+    // Region起始行，升序
+    private byte[][] startKeys;
+
+    private final Map<String, StoreFile.Writer> writers = new HashMap<String, StoreFile.Writer>();
+
+    private long cellsWritten;
+
+    private int filesWritten;
+
+    /**
+     * @param conn      HBase连接
+     * @param conf      HBase配置
+     * @param fs        临时目录所在的HDFS
+     * @param tableName 表名
+     */
+    public HbaseBulkLoader(Connection conn, Configuration conf, FileSystem fs, String tableName) {
+        this.conn = conn;
+        this.conf = conf;
+        this.fs = fs;
+        this.tableName = TableName.valueOf(tableName);
+    }
+
+    public HbaseBulkLoader setMaxSortCells(int maxSortCells) {
+        this.maxSortCells = maxSortCells;
+        return this;
+    }
+
+    /**
+     * 写HFile并导入
+     *
+     * @param cells      单元格，时间戳为LATEST_TIMESTAMP时使用当前时间
+     * @param sorted     是否已按KeyValue.COMPARATOR排序，已排序时流式写入不占内存
+     * @param stagingDir HDFS临时目录，必须不存在，导入完成后删除
+     * @return 导入的单元格数
+     */
+    public long load(Iterator<KeyValue> cells, boolean sorted, String stagingDir) throws IOException {
+        Path staging = new Path(stagingDir);
+        if (fs.exists(staging)) {
+            throw new IOException("Staging dir already exists: " + stagingDir);
+        }
+
+        Admin admin = conn.getAdmin();
+        Table table = conn.getTable(tableName);
+        RegionLocator locator = conn.getRegionLocator(tableName);
+        try {
+            prepare(admin, locator);
+            byte[] now = Bytes.toBytes(System.currentTimeMillis());
+            if (sorted) {
+                writeSorted(cells, staging, now);
+            } else {
+                List<KeyValue> chunk = new ArrayList<KeyValue>(Math.min(maxSortCells, 65536));
+                while (cells.hasNext()) {
+                    chunk.add(cells.next());
+                    if (chunk.size() >= maxSortCells) {
+                        writeChunk(chunk, staging, now);
+                    }
+                }
+                writeChunk(chunk, staging, now);
+            }
+            LOG.info("Wrote " + cellsWritten + " cells into " + filesWritten + " HFiles under " + stagingDir);
+
+            if (cellsWritten > 0) {
+                grantToRegionServers(staging);
+                new LoadIncrementalHFiles(conf).doBulkLoad(staging, admin, table, locator);
+                LOG.info("Bulk load into " + tableName + " finished.");
+            }
+            return cellsWritten;
+        } finally {
+            closeWriters();
+            locator.close();
+            table.close();
+            admin.close();
+            if (fs.exists(staging)) {
+                fs.delete(staging, true);
+            }
+        }
+    }
+
+    private void prepare(Admin admin, RegionLocator locator) throws IOException {
+        HTableDescriptor htd = admin.getTableDescriptor(tableName);
+        families = new HashMap<String, HColumnDescriptor>();
+        for (HColumnDescriptor hcd : htd.getColumnFamilies()) {
+            families.put(hcd.getNameAsString(), hcd);
+        }
+        startKeys = locator.getStartKeys();
+        Arrays.sort(startKeys, Bytes.BYTES_COMPARATOR);
+        cellsWritten = 0;
+        filesWritten = 0;
+    }
+
+    private void writeChunk(List<KeyValue> chunk, Path staging, byte[] now) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        // 先加时间戳再排序，写入时顺序不再变化
+        for (KeyValue kv : chunk) {
+            kv.updateLatestStamp(now);
+        }
+        Collections.sort(chunk, KeyValue.COMPARATOR);
+        writeSorted(chunk.iterator(), staging, now);
+        chunk.clear();
+    }
+
+    // 按Region边界切换HFile，每个Region每个列簇一个文件
+    // 顺序按加时间戳之前的key检查，相同key允许；previous为上一个单元格未加时间戳时的key
+    private void writeSorted(Iterator<KeyValue> cells, Path staging, byte[] now) throws IOException {
+        KeyValue previous = null;
+        byte[] regionEnd = null;
+        try {
+            while (cells.hasNext()) {
+                KeyValue kv = cells.next();
+                if (previous != null && KeyValue.COMPARATOR.compare(previous, kv) > 0) {
+                    throw new IOException("Cells are not sorted: " + kv + " after " + previous);
+                }
+                if (regionEnd == null || (regionEnd.length > 0 && Bytes.compareTo(kv.getRowArray(),
+                        kv.getRowOffset(), kv.getRowLength(), regionEnd, 0, regionEnd.length) >= 0)) {
+                    closeWriters();
+                    regionEnd = regionEndOf(kv);
+                }
+                // updateLatestStamp原地修改，保留原key的副本供下一个单元格比较
+                previous = kv.isLatestTimestamp() ? KeyValue.createKeyValueFromKey(kv.getKey()) : kv;
+                kv.updateLatestStamp(now);
+                getWriter(kv, staging).append(kv);
+                cellsWritten++;
+            }
+        } finally {
+            closeWriters();
+        }
+    }
+
+    // 行所在Region的结束行，最后一个Region返回空数组
+    private byte[] regionEndOf(KeyValue kv) {
+        byte[] row = kv.getRow();
+        for (byte[] startKey : startKeys) {
+            if (Bytes.compareTo(startKey, row) > 0) {
+                return startKey;
+            }
+        }
+        return HConstants.EMPTY_END_ROW;
+    }
+
+    private StoreFile.Writer getWriter(KeyValue kv, Path staging) throws IOException {
+        String family = Bytes.toString(kv.getFamilyArray(), kv.getFamilyOffset(), kv.getFamilyLength());
+        StoreFile.Writer writer = writers.get(family);
+        if (writer == null) {
+            HColumnDescriptor hcd = families.get(family);
+            if (hcd == null) {
+                throw new IOException("Column family " + family + " does not exist in " + tableName);
+            }
+            HFileContext context = new HFileContextBuilder()
+                    .withCompression(hcd.getCompressionType())
+                    .withDataBlockEncoding(hcd.getDataBlockEncoding())
+                    .withBlockSize(hcd.getBlocksize())
+                    .build();
+            Configuration writerConf = new Configuration(conf);
+            // 导入的文件不需要进入写缓存
+            writerConf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0.0f);
+            writer = new StoreFile.WriterBuilder(writerConf, new CacheConfig(writerConf), fs)
+                    .withOutputDir(new Path(staging, family))
+                    .withBloomType(hcd.getBloomFilterType())
+                    .withComparator(KeyValue.COMPARATOR)
+                    .withFileContext(context)
+                    .build();
+            writers.put(family, writer);
+            filesWritten++;
+        }
+        return writer;
+    }
+
+    private void closeWriters() throws IOException {
+        IOException failure = null;
+        for (StoreFile.Writer writer : writers.values()) {
+            try {
+                writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+                writer.appendFileInfo(StoreFile.BULKLOAD_TASK_KEY, Bytes.toBytes("HbaseBulkLoader"));
+                writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(true));
+                writer.appendTrackedTimestampsToMetadata();
+                writer.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        writers.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 让RegionServer能读取并移走临时HFile
+     * 开启HBase安全认证时LoadIncrementalHFiles走SecureBulkLoadEndpoint，由RegionServer以调用方身份把文件
+     * 移到hbase.bulkload.staging.dir，不需要改权限；否则把临时目录树的属组改为hbase.utils.bulkload.group，
+     * 目录0770、文件0660，其他用户无权访问。staging的上级目录需要对该组可执行(x)。
+     */
+    private void grantToRegionServers(Path staging) throws IOException {
+        if (User.isHBaseSecurityEnabled(conf)) {
+            return;
+        }
+        String group = conf.get(BULKLOAD_GROUP_KEY, DEFAULT_BULKLOAD_GROUP);
+        try {
+            grantRecursive(fs.getFileStatus(staging), group);
+        } catch (IOException e) {
+            throw new IOException("Failed to grant group " + group + " access to " + staging
+                    + ", the current user must be a member of it (see " + BULKLOAD_GROUP_KEY + ")", e);
+        }
+    }
+
+    private void grantRecursive(FileStatus status, String group) throws IOException {
+        Path path = status.getPath();
+        fs.setOwner(path, null, group);
+        if (status.isDirectory()) {
+            fs.setPermission(path, STAGING_DIR_PERMISSION);
+            for (FileStatus child : fs.listStatus(path)) {
+                grantRecursive(child, group);
+            }
+        } else {
+            fs.setPermission(path, STAGING_FILE_PERMISSION);
+        }
+    }
+}
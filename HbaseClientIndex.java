@@ -0,0 +1,166 @@
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 客户端维护的二级索引
+ * 索引表rowkey为 索引值 + 0x00 + 数据rowkey，按索引值排序，等值和范围查询都是索引表上的范围扫描。
+ * 索引值中不能包含0x00。索引表可能短暂存在过期条目，查询时回表校验当前值。
+ */
+public class HbaseClientIndex {
+
+    // 索引表列簇和存放数据rowkey的列
+    public static final byte[] INDEX_FAMILY = Bytes.toBytes("i");
+    public static final byte[] ROWKEY_QUALIFIER = Bytes.toBytes("r");
+
+    private static final byte[] SEPARATOR = new byte[]{0x00};
+    private static final byte[] SEPARATOR_NEXT = new byte[]{0x01};
+
+    private final String tableName;
+
+    private final String indexName;
+
+    private final String familyName;
+
+    private final String qualifier;
+
+    /**
+     * @param tableName  数据表名
+     * @param indexName  索引名
+     * @param familyName 索引列所在列簇
+     * @param qualifier  索引列名
+     */
+    public HbaseClientIndex(String tableName, String indexName, String familyName, String qualifier) {
+        this.tableName = tableName;
+        this.indexName = indexName;
+        this.familyName = familyName;
+        this.qualifier = qualifier;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public String getQualifier() {
+        return qualifier;
+    }
+
+    /**
+     * 索引表名: 数据表名_idx_索引名
+     */
+    public String getIndexTableName() {
+        return tableName + "_idx_" + indexName;
+    }
+
+    public boolean covers(String familyName, String qualifier) {
+        return this.familyName.equals(familyName) && this.qualifier.equals(qualifier);
+    }
+
+    public byte[] indexRow(byte[] value, String rowkey) {
+        return indexRow(value, Bytes.toBytes(rowkey));
+    }
+
+    /**
+     * @param row 数据表逻辑rowkey(未加盐)，二进制rowkey按原样保存
+     */
+    public byte[] indexRow(byte[] value, byte[] row) {
+        return Bytes.add(value, SEPARATOR, row);
+    }
+
+    public Put indexPut(byte[] value, String rowkey) {
+        return indexPut(value, Bytes.toBytes(rowkey));
+    }
+
+    public Put indexPut(byte[] value, byte[] row) {
+        Put put = new Put(indexRow(value, row));
+        put.addColumn(INDEX_FAMILY, ROWKEY_QUALIFIER, row);
+        return put;
+    }
+
+    public Delete indexDelete(byte[] value, String rowkey) {
+        return indexDelete(value, Bytes.toBytes(rowkey));
+    }
+
+    public Delete indexDelete(byte[] value, byte[] row) {
+        return new Delete(indexRow(value, row));
+    }
+
+    /**
+     * 查询条件对应的索引表扫描范围 [start, stop)
+     *
+     * @param compareOp 比较方式
+     * @param value     比较值
+     */
+    public List<Pair<byte[], byte[]>> ranges(CompareFilter.CompareOp compareOp, String value) {
+        byte[] v = Bytes.toBytes(value);
+        // v+0x00 之前是所有小于v的值，v+0x01 之后是所有大于v的值
+        byte[] atValue = Bytes.add(v, SEPARATOR);
+        byte[] afterValue = Bytes.add(v, SEPARATOR_NEXT);
+        List<Pair<byte[], byte[]>> ranges = new ArrayList<Pair<byte[], byte[]>>(2);
+        switch (compareOp) {
+            case EQUAL:
+                ranges.add(new Pair<byte[], byte[]>(atValue, afterValue));
+                break;
+            case GREATER:
+                ranges.add(new Pair<byte[], byte[]>(afterValue, HConstants.EMPTY_END_ROW));
+                break;
+            case GREATER_OR_EQUAL:
+                ranges.add(new Pair<byte[], byte[]>(atValue, HConstants.EMPTY_END_ROW));
+                break;
+            case LESS:
+                ranges.add(new Pair<byte[], byte[]>(HConstants.EMPTY_START_ROW, atValue));
+                break;
+            case LESS_OR_EQUAL:
+                ranges.add(new Pair<byte[], byte[]>(HConstants.EMPTY_START_ROW, afterValue));
+                break;
+            case NOT_EQUAL:
+                ranges.add(new Pair<byte[], byte[]>(HConstants.EMPTY_START_ROW, atValue));
+                ranges.add(new Pair<byte[], byte[]>(afterValue, HConstants.EMPTY_END_ROW));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported compare op for index: " + compareOp);
+        }
+        return ranges;
+    }
+
+    /**
+     * 回表校验：当前值是否仍满足条件
+     */
+    public static boolean matches(byte[] current, CompareFilter.CompareOp compareOp, String value) {
+        if (current == null) {
+            return false;
+        }
+        int cmp = Bytes.compareTo(current, Bytes.toBytes(value));
+        switch (compareOp) {
+            case EQUAL:
+                return cmp == 0;
+            case GREATER:
+                return cmp > 0;
+            case GREATER_OR_EQUAL:
+                return cmp >= 0;
+            case LESS:
+                return cmp < 0;
+            case LESS_OR_EQUAL:
+                return cmp <= 0;
+            case NOT_EQUAL:
+                return cmp != 0;
+            default:
+                return false;
+        }
+    }
+}
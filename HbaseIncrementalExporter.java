@@ -0,0 +1,167 @@
+
+import com.huawei.common.exception.ParameterException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.TableName;
+
+import java.io.IOException;
+
+/**
+ * 增量导出
+ * 每张表在HDFS上保存一个高水位时间戳，每次只导出时间戳在 [上次水位, 当前时间 - 安全延迟) 内的单元格和删除标记，
+ * 导出成功后推进水位。扫描使用raw模式和全部版本，删除标记通过ChangeHandler.onDelete单独回调。
+ * 删除标记在major compaction后会被清除，导出间隔需要小于major compaction间隔，
+ * 或者列簇设置KEEP_DELETED_CELLS / hbase.hstore.time.to.purge.deletes。
+ */
+public class HbaseIncrementalExporter {
+
+    private final static Log LOG = LogFactory.getLog(HbaseIncrementalExporter.class.getName());
+
+    // 默认安全延迟，晚于水位提交但时间戳较早的写入在下次导出时仍能覆盖
+    public static final long DEFAULT_SAFETY_LAG_MS = 60 * 1000L;
+
+    private static final String WATERMARK_SUFFIX = ".watermark";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * 变更回调
+     */
+    public interface ChangeHandler {
+
+        /**
+         * 写入的单元格
+         */
+        void onPut(Cell cell) throws IOException;
+
+        /**
+         * 删除标记，类型见cell.getTypeByte()：Delete/DeleteColumn/DeleteFamily/DeleteFamilyVersion
+         */
+        void onDelete(Cell cell) throws IOException;
+    }
+
+    private final Connection conn;
+
+    private final HdfsUtils hdfsUtils;
+
+    private final String checkpointDir;
+
+    private long safetyLagMs = DEFAULT_SAFETY_LAG_MS;
+
+    /**
+     * @param conn          HBase连接
+     * @param hdfsUtils     保存水位的HDFS
+     * @param checkpointDir 水位文件目录
+     */
+    public HbaseIncrementalExporter(Connection conn, HdfsUtils hdfsUtils, String checkpointDir) {
+        this.conn = conn;
+        this.hdfsUtils = hdfsUtils;
+        this.checkpointDir = checkpointDir;
+    }
+
+    public HbaseIncrementalExporter setSafetyLagMs(long safetyLagMs) {
+        this.safetyLagMs = safetyLagMs;
+        return this;
+    }
+
+    /**
+     * 导出上次水位以来的变更，成功后推进水位
+     *
+     * @param tableName 表名
+     * @param template  扫描模板，可设置列簇、起止行和caching；raw扫描不能指定具体列
+     * @param handler   变更回调
+     * @return 导出的单元格数(含删除标记)
+     */
+    public long export(String tableName, Scan template, ChangeHandler handler) throws IOException {
+        long from = getWatermark(tableName);
+        long to = System.currentTimeMillis() - safetyLagMs;
+        if (to <= from) {
+            LOG.info("Nothing to export for " + tableName + ", watermark " + from);
+            return 0;
+        }
+
+        Scan scan = new Scan(template);
+        scan.setRaw(true);
+        scan.setMaxVersions();
+        scan.setTimeRange(from, to);
+        scan.setCacheBlocks(false);
+
+        long puts = 0;
+        long deletes = 0;
+        Table table = conn.getTable(TableName.valueOf(tableName));
+        ResultScanner scanner = null;
+        try {
+            scanner = table.getScanner(scan);
+            for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                for (Cell cell : r.rawCells()) {
+                    if (CellUtil.isDelete(cell)) {
+                        handler.onDelete(cell);
+                        deletes++;
+                    } else {
+                        handler.onPut(cell);
+                        puts++;
+                    }
+                }
+            }
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+            table.close();
+        }
+
+        setWatermark(tableName, to);
+        LOG.info("Exported " + puts + " puts and " + deletes + " deletes of " + tableName
+                + " in [" + from + ", " + to + ")");
+        return puts + deletes;
+    }
+
+    /**
+     * 表的当前水位，从未导出过返回0(首次导出全表)
+     * 正式文件不存在时读取临时文件：setWatermark在删除正式文件和改名之间中断时，新水位只在临时文件中
+     */
+    public long getWatermark(String tableName) throws IOException {
+        String fileName = tableName + WATERMARK_SUFFIX;
+        String content = hdfsUtils.read(checkpointDir, fileName);
+        if (content == null) {
+            content = hdfsUtils.read(checkpointDir, fileName + TMP_SUFFIX);
+        }
+        if (content == null || content.trim().isEmpty()) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(content.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt watermark of " + tableName + ": " + content.trim(), e);
+        }
+    }
+
+    /**
+     * 设置水位，先写完整的临时文件，再删除正式文件并把临时文件改名
+     * HDFS的rename不能覆盖已有文件，删除和改名之间中断时getWatermark从临时文件恢复
+     */
+    public void setWatermark(String tableName, long watermark) throws IOException {
+        String fileName = tableName + WATERMARK_SUFFIX;
+        String tmpName = fileName + TMP_SUFFIX;
+        try {
+            hdfsUtils.write(String.valueOf(watermark), checkpointDir, tmpName);
+        } catch (ParameterException e) {
+            throw new IOException(e);
+        }
+        FileSystem fs = hdfsUtils.getFileSystem();
+        Path target = new Path(checkpointDir, fileName);
+        fs.delete(target, false);
+        if (!fs.rename(new Path(checkpointDir, tmpName), target)) {
+            throw new IOException("Failed to commit watermark of " + tableName + " to " + target);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 分页扫描的一页结果和继续扫描的游标
+ * 游标是URL安全的Base64字符串，包含表名、扫描条件(起止行、过滤器、列、时间范围、方向，protobuf序列化)
+ * 和下一页需要跳过的行，服务端不保存任何状态，任意节点都可以用游标继续扫描。
+ * 游标末尾带HMAC-SHA256签名，解码时先校验签名，客户端无法篡改扫描条件(如换掉过滤器或起止行)；
+ * 多个节点之间共用游标时需要配置相同的密钥，见HbaseUtils的hbase.utils.page.cursor.secret。
+ */
+public class HbasePage {
+
+    private static final byte CURSOR_VERSION = 2;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final int MAC_LENGTH = 32;
+
+    private final List<Result> rows;
+
+    private final String cursor;
+
+    HbasePage(List<Result> rows, String cursor) {
+        this.rows = rows;
+        this.cursor = cursor;
+    }
+
+    /**
+     * 本页的行
+     */
+    public List<Result> getRows() {
+        return rows;
+    }
+
+    /**
+     * 下一页的游标，没有更多数据时为null
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean hasMore() {
+        return cursor != null;
+    }
+
+    /**
+     * 游标内容
+     */
+    static class Cursor {
+        final String tableName;
+        final Scan scan;
+        // 反向扫描从上一页最后一行开始(含)，需要跳过该行；正向扫描为null
+        final byte[] skipRow;
+
+        Cursor(String tableName, Scan scan, byte[] skipRow) {
+            this.tableName = tableName;
+            this.scan = scan;
+            this.skipRow = skipRow;
+        }
+    }
+
+    /**
+     * 生成从lastRow之后继续的游标
+     *
+     * @param tableName 表名
+     * @param scan      原扫描条件(不含分页过滤器)
+     * @param lastRow   本页最后一行
+     * @param key       签名密钥
+     */
+    static String encode(String tableName, Scan scan, byte[] lastRow, byte[] key) throws IOException {
+        Scan next = new Scan(scan);
+        byte[] skipRow = null;
+        if (scan.isReversed()) {
+            // 反向扫描没有"小于lastRow的最大rowkey"，从lastRow开始并跳过它
+            next.setStartRow(lastRow);
+            skipRow = lastRow;
+        } else {
+            // lastRow + 0x00 是大于lastRow的最小rowkey
+            next.setStartRow(Bytes.add(lastRow, new byte[]{0x00}));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(CURSOR_VERSION);
+        out.writeUTF(tableName);
+        Bytes.writeByteArray(out, skipRow == null ? new byte[0] : skipRow);
+        Bytes.writeByteArray(out, ProtobufUtil.toScan(next).toByteArray());
+        out.flush();
+        byte[] payload = bytes.toByteArray();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Bytes.add(payload, sign(payload, key)));
+    }
+
+    /**
+     * 解码并校验签名，签名不符时抛出IOException
+     */
+    static Cursor decode(String cursor, byte[] key) throws IOException {
+        byte[] raw;
+        try {
+            raw = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed scan cursor", e);
+        }
+        if (raw.length <= MAC_LENGTH) {
+            throw new IOException("Malformed scan cursor");
+        }
+        byte[] payload = Arrays.copyOf(raw, raw.length - MAC_LENGTH);
+        byte[] mac = Arrays.copyOfRange(raw, payload.length, raw.length);
+        // 常量时间比较
+        if (!MessageDigest.isEqual(mac, sign(payload, key))) {
+            throw new IOException("Scan cursor signature mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte version = in.readByte();
+        if (version != CURSOR_VERSION) {
+            throw new IOException("Unsupported scan cursor version " + version);
+        }
+        String tableName = in.readUTF();
+        byte[] skipRow = Bytes.readByteArray(in);
+        Scan scan = ProtobufUtil.toScan(ClientProtos.Scan.parseFrom(Bytes.readByteArray(in)));
+        return new Cursor(tableName, scan, skipRow.length == 0 ? null : skipRow);
+    }
+
+    private static byte[] sign(byte[] payload, byte[] key) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to sign scan cursor", e);
+        }
+    }
+}
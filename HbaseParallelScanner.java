@@ -0,0 +1,308 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并行扫描
+ * 按Region边界(或指定的分割点)切分扫描范围，每个范围一个scanner并行执行。
+ * scan(): 结果无序，回调在扫描线程中并发调用
+ * scanOrdered(): 结果按rowkey有序，回调在调用线程中执行，每个范围的预取队列有界
+ */
+public class HbaseParallelScanner {
+
+    private final static Log LOG = LogFactory.getLog(HbaseParallelScanner.class.getName());
+
+    // 有序模式下每个范围最多预取的行数
+    private static final int ORDERED_PREFETCH_ROWS = 1000;
+
+    // 范围结束标记
+    private static final Result END_OF_RANGE = new Result();
+
+    private final Connection conn;
+
+    private final String tableName;
+
+    private final Scan template;
+
+    private final int parallelism;
+
+    private byte[][] splitKeys;
+
+    private List<Pair<byte[], byte[]>> ranges;
+
+    /**
+     * @param conn        HBase连接
+     * @param tableName   表名
+     * @param template    扫描模板，caching、过滤器、列等设置会复制到每个分片
+     * @param parallelism 并行扫描线程数
+     */
+    public HbaseParallelScanner(Connection conn, String tableName, Scan template, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.conn = conn;
+        this.tableName = tableName;
+        this.template = template;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * 使用指定的分割点代替Region边界
+     *
+     * @param splitKeys 分割点，无需排序
+     */
+    public HbaseParallelScanner setSplitKeys(byte[][] splitKeys) {
+        this.splitKeys = splitKeys;
+        return this;
+    }
+
+    /**
+     * 直接指定扫描范围[startRow, stopRow)，空数组表示不限，设置后忽略Region边界和扫描模板的起止行
+     *
+     * @param ranges 扫描范围
+     */
+    public HbaseParallelScanner setRanges(List<Pair<byte[], byte[]>> ranges) {
+        this.ranges = ranges;
+        return this;
+    }
+
+    /**
+     * 无序并行扫描，handler需要线程安全
+     *
+     * @return 扫描的行数
+     */
+    public long scan(final ResultHandler handler) throws IOException {
+        List<Pair<byte[], byte[]>> splits = computeRanges();
+        LOG.info("Parallel scan " + tableName + " in " + splits.size() + " splits");
+
+        final AtomicLong rows = new AtomicLong();
+        ExecutorService pool = newPool(splits.size());
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(splits.size());
+            for (final Pair<byte[], byte[]> split : splits) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        scanRange(split, new ResultHandler() {
+                            @Override
+                            public void handle(Result result) throws IOException {
+                                handler.handle(result);
+                                rows.incrementAndGet();
+                            }
+                        });
+                        return null;
+                    }
+                }));
+            }
+            awaitAll(futures);
+        } finally {
+            pool.shutdownNow();
+        }
+        return rows.get();
+    }
+
+    /**
+     * 有序并行扫描，各范围并行预取，handler按rowkey顺序在调用线程中执行
+     *
+     * @return 扫描的行数
+     */
+    public long scanOrdered(ResultHandler handler) throws IOException {
+        List<Pair<byte[], byte[]>> splits = computeRanges();
+        LOG.info("Ordered parallel scan " + tableName + " in " + splits.size() + " splits");
+
+        long rows = 0;
+        // 线程池按提交顺序执行，保证消费到的范围已经开始生产
+        ExecutorService pool = newPool(splits.size());
+        // 调用线程退出(完成或handler抛出异常)后置位，生产者不再阻塞等待队列空位
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        try {
+            List<BlockingQueue<Result>> queues = new ArrayList<BlockingQueue<Result>>(splits.size());
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(splits.size());
+            for (final Pair<byte[], byte[]> split : splits) {
+                final BlockingQueue<Result> queue = new ArrayBlockingQueue<Result>(ORDERED_PREFETCH_ROWS);
+                queues.add(queue);
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, InterruptedException {
+                        try {
+                            scanRange(split, new ResultHandler() {
+                                @Override
+                                public void handle(Result result) throws IOException {
+                                    try {
+                                        queue.put(result);
+                                    } catch (InterruptedException e) {
+                                        throw new InterruptedIOException("Ordered scan cancelled");
+                                    }
+                                }
+                            });
+                        } finally {
+                            // 已取消时没有消费者，队列可能已满；put被中断时会清除中断标记，不能依赖中断退出
+                            if (cancelled.get()) {
+                                queue.offer(END_OF_RANGE);
+                            } else {
+                                queue.put(END_OF_RANGE);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < queues.size(); i++) {
+                BlockingQueue<Result> queue = queues.get(i);
+                for (Result r = take(queue); r != END_OF_RANGE; r = take(queue)) {
+                    handler.handle(r);
+                    rows++;
+                }
+                // 范围结束后检查该分片是否失败
+                HbaseUtils.await(futures.get(i));
+            }
+        } finally {
+            cancelled.set(true);
+            pool.shutdownNow();
+        }
+        return rows;
+    }
+
+    /**
+     * 计算扫描范围：分割点与扫描模板的起止行求交集
+     */
+    List<Pair<byte[], byte[]>> computeRanges() throws IOException {
+        if (ranges != null) {
+            return ranges;
+        }
+
+        byte[][] boundaries = splitKeys;
+        if (boundaries == null) {
+            RegionLocator locator = conn.getRegionLocator(TableName.valueOf(tableName));
+            try {
+                boundaries = locator.getStartKeys();
+            } finally {
+                locator.close();
+            }
+        } else {
+            boundaries = boundaries.clone();
+            Arrays.sort(boundaries, Bytes.BYTES_COMPARATOR);
+        }
+
+        byte[] scanStart = template.getStartRow();
+        byte[] scanStop = template.getStopRow();
+        List<Pair<byte[], byte[]>> result = new ArrayList<Pair<byte[], byte[]>>();
+
+        // 边界划分出 [-inf, b0), [b0, b1) ... [bn, +inf)
+        byte[] rangeStart = HConstants.EMPTY_BYTE_ARRAY;
+        for (int i = 0; i <= boundaries.length; i++) {
+            byte[] rangeStop = i < boundaries.length ? boundaries[i] : HConstants.EMPTY_BYTE_ARRAY;
+            if (i < boundaries.length && boundaries[i].length == 0) {
+                // 第一个Region的起始行为空
+                continue;
+            }
+            byte[] start = maxStart(scanStart, rangeStart);
+            byte[] stop = minStop(scanStop, rangeStop);
+            if (stop.length == 0 || Bytes.compareTo(start, stop) < 0) {
+                result.add(new Pair<byte[], byte[]>(start, stop));
+            }
+            rangeStart = rangeStop;
+        }
+        return result;
+    }
+
+    private void scanRange(Pair<byte[], byte[]> split, ResultHandler handler) throws IOException {
+        Scan scan = new Scan(template);
+        scan.setStartRow(split.getFirst());
+        scan.setStopRow(split.getSecond());
+
+        Table table = conn.getTable(TableName.valueOf(tableName));
+        ResultScanner scanner = null;
+        try {
+            scanner = table.getScanner(scan);
+            for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Parallel scan cancelled");
+                }
+                handler.handle(r);
+            }
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+            table.close();
+        }
+    }
+
+    private ExecutorService newPool(int splits) {
+        final AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, splits)), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hbase-parallel-scan-" + tableName + "-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static void awaitAll(List<Future<Void>> futures) throws IOException {
+        try {
+            for (Future<Void> future : futures) {
+                HbaseUtils.await(future);
+            }
+        } catch (IOException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    private static Result take(BlockingQueue<Result> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for scan results");
+        }
+    }
+
+    // 空数组表示负无穷
+    private static byte[] maxStart(byte[] a, byte[] b) {
+        return Bytes.compareTo(a, b) >= 0 ? a : b;
+    }
+
+    // 空数组表示正无穷
+    private static byte[] minStop(byte[] a, byte[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        if (b.length == 0) {
+            return a;
+        }
+        return Bytes.compareTo(a, b) <= 0 ? a : b;
+    }
+}
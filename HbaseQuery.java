@@ -0,0 +1,321 @@
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PageFilter;
+import org.apache.hadoop.hbase.filter.RowFilter;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 扫描查询构造器
+ * 列条件用FilterList组合(默认AND，可切换为OR，可嵌套子查询)；
+ * rowkey条件、前缀和范围尽量转换为扫描的起止行，只扫描相关的Region。
+ * 起止行对整个查询生效，不受AND/OR影响。值按字节序比较。
+ * <pre>
+ * HbaseQuery query = HbaseQuery.create()
+ *         .prefix("20180101")
+ *         .where("info", "age", CompareFilter.CompareOp.GREATER_OR_EQUAL, "18")
+ *         .select("info", "name", "age")
+ *         .limit(100);
+ * hbaseUtils.query("user", query, handler);
+ * </pre>
+ */
+public class HbaseQuery {
+
+    private byte[] startRow = HConstants.EMPTY_START_ROW;
+
+    private byte[] stopRow = HConstants.EMPTY_END_ROW;
+
+    private FilterList.Operator operator = FilterList.Operator.MUST_PASS_ALL;
+
+    private final List<Filter> filters = new ArrayList<Filter>();
+
+    // 条件中引用的列，投影时需要一起返回，否则SingleColumnValueFilter看不到该列
+    private final Map<String, Set<String>> filterColumns = new LinkedHashMap<String, Set<String>>();
+
+    // 列簇 -> 列，列为空集合表示整个列簇
+    private final Map<String, Set<String>> projection = new LinkedHashMap<String, Set<String>>();
+
+    private long minTimestamp = -1;
+
+    private long maxTimestamp = -1;
+
+    private int limit = -1;
+
+    private int caching = 1000;
+
+    private boolean empty = false;
+
+    public static HbaseQuery create() {
+        return new HbaseQuery();
+    }
+
+    /**
+     * 列值条件，不包含该列的行不返回
+     *
+     * @param familyName 列簇
+     * @param qualifier  列名
+     * @param compareOp  比较方式
+     * @param value      比较值
+     */
+    public HbaseQuery where(String familyName, String qualifier, CompareFilter.CompareOp compareOp, String value) {
+        SingleColumnValueFilter filter = new SingleColumnValueFilter(Bytes.toBytes(familyName),
+                Bytes.toBytes(qualifier), compareOp, Bytes.toBytes(value));
+        filter.setFilterIfMissing(true);
+        filters.add(filter);
+        addColumn(filterColumns, familyName, qualifier);
+        return this;
+    }
+
+    /**
+     * 任意过滤器
+     */
+    public HbaseQuery filter(Filter filter) {
+        filters.add(filter);
+        return this;
+    }
+
+    /**
+     * 子查询作为一个条件，只使用子查询的列条件
+     */
+    public HbaseQuery where(HbaseQuery sub) {
+        Filter filter = sub.buildFilter();
+        if (filter != null) {
+            filters.add(filter);
+        }
+        for (Map.Entry<String, Set<String>> e : sub.filterColumns.entrySet()) {
+            for (String qualifier : e.getValue()) {
+                addColumn(filterColumns, e.getKey(), qualifier);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 所有条件都满足(默认)
+     */
+    public HbaseQuery matchAll() {
+        operator = FilterList.Operator.MUST_PASS_ALL;
+        return this;
+    }
+
+    /**
+     * 任一条件满足
+     */
+    public HbaseQuery matchAny() {
+        operator = FilterList.Operator.MUST_PASS_ONE;
+        return this;
+    }
+
+    /**
+     * rowkey条件，除NOT_EQUAL外都转换为起止行
+     *
+     * @param compareOp 比较方式
+     * @param rowkey    比较值
+     */
+    public HbaseQuery rowKey(CompareFilter.CompareOp compareOp, String rowkey) {
+        byte[] row = Bytes.toBytes(rowkey);
+        // row + 0x00 是紧跟row的下一个rowkey
+        byte[] next = Bytes.add(row, new byte[]{0});
+        switch (compareOp) {
+            case EQUAL:
+                narrow(row, next);
+                break;
+            case GREATER:
+                narrow(next, HConstants.EMPTY_END_ROW);
+                break;
+            case GREATER_OR_EQUAL:
+                narrow(row, HConstants.EMPTY_END_ROW);
+                break;
+            case LESS:
+                narrow(HConstants.EMPTY_START_ROW, row);
+                break;
+            case LESS_OR_EQUAL:
+                narrow(HConstants.EMPTY_START_ROW, next);
+                break;
+            default:
+                filters.add(new RowFilter(compareOp, new BinaryComparator(row)));
+        }
+        return this;
+    }
+
+    /**
+     * rowkey前缀
+     */
+    public HbaseQuery prefix(String prefix) {
+        byte[] start = Bytes.toBytes(prefix);
+        narrow(start, HbaseUtils.prefixStop(start));
+        return this;
+    }
+
+    /**
+     * rowkey范围 [startRow, stopRow)，为null表示不限
+     */
+    public HbaseQuery range(String startRow, String stopRow) {
+        narrow(startRow == null ? HConstants.EMPTY_START_ROW : Bytes.toBytes(startRow),
+                stopRow == null ? HConstants.EMPTY_END_ROW : Bytes.toBytes(stopRow));
+        return this;
+    }
+
+    /**
+     * 返回整个列簇
+     */
+    public HbaseQuery select(String familyName) {
+        projection.put(familyName, new LinkedHashSet<String>());
+        return this;
+    }
+
+    /**
+     * 返回指定列
+     */
+    public HbaseQuery select(String familyName, String... qualifiers) {
+        Set<String> selected = projection.get(familyName);
+        if (selected != null && selected.isEmpty()) {
+            // 已选择整个列簇
+            return this;
+        }
+        for (String qualifier : qualifiers) {
+            addColumn(projection, familyName, qualifier);
+        }
+        return this;
+    }
+
+    /**
+     * 时间范围 [minTimestamp, maxTimestamp)
+     */
+    public HbaseQuery timeRange(long minTimestamp, long maxTimestamp) {
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        return this;
+    }
+
+    /**
+     * 最多返回的行数
+     */
+    public HbaseQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * 每次RPC返回的行数
+     */
+    public HbaseQuery caching(int caching) {
+        this.caching = caching;
+        return this;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * 起止行没有交集时查询结果必为空，不需要扫描
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    public byte[] getStartRow() {
+        return startRow;
+    }
+
+    public byte[] getStopRow() {
+        return stopRow;
+    }
+
+    /**
+     * 生成扫描条件
+     */
+    public Scan toScan() throws IOException {
+        Scan scan = new Scan();
+        scan.setStartRow(startRow);
+        scan.setStopRow(stopRow);
+
+        for (Map.Entry<String, Set<String>> e : projection.entrySet()) {
+            byte[] family = Bytes.toBytes(e.getKey());
+            if (e.getValue().isEmpty()) {
+                scan.addFamily(family);
+            } else {
+                for (String qualifier : e.getValue()) {
+                    scan.addColumn(family, Bytes.toBytes(qualifier));
+                }
+            }
+        }
+        if (!projection.isEmpty()) {
+            // 条件列不在投影中时补上
+            for (Map.Entry<String, Set<String>> e : filterColumns.entrySet()) {
+                Set<String> selected = projection.get(e.getKey());
+                if (selected != null && selected.isEmpty()) {
+                    continue;
+                }
+                for (String qualifier : e.getValue()) {
+                    if (selected == null || !selected.contains(qualifier)) {
+                        scan.addColumn(Bytes.toBytes(e.getKey()), Bytes.toBytes(qualifier));
+                    }
+                }
+            }
+        }
+
+        Filter filter = buildFilter();
+        if (limit > 0) {
+            // PageFilter在每个Region上单独计数，客户端还需要按limit截断
+            Filter page = new PageFilter(limit);
+            filter = filter == null ? page : new FilterList(FilterList.Operator.MUST_PASS_ALL, filter, page);
+            scan.setCaching(Math.min(caching, limit));
+        } else {
+            scan.setCaching(caching);
+        }
+        if (filter != null) {
+            scan.setFilter(filter);
+        }
+        if (minTimestamp >= 0 && maxTimestamp >= 0) {
+            scan.setTimeRange(minTimestamp, maxTimestamp);
+        }
+        return scan;
+    }
+
+    private Filter buildFilter() {
+        if (filters.isEmpty()) {
+            return null;
+        }
+        if (filters.size() == 1) {
+            return filters.get(0);
+        }
+        return new FilterList(operator, new ArrayList<Filter>(filters));
+    }
+
+    // 与已有的起止行求交集
+    private void narrow(byte[] start, byte[] stop) {
+        if (Bytes.compareTo(start, startRow) > 0) {
+            startRow = start;
+        }
+        if (stop.length > 0 && (stopRow.length == 0 || Bytes.compareTo(stop, stopRow) < 0)) {
+            stopRow = stop;
+        }
+        if (stopRow.length > 0 && Bytes.compareTo(startRow, stopRow) >= 0) {
+            empty = true;
+        }
+    }
+
+    private static void addColumn(Map<String, Set<String>> columns, String familyName, String qualifier) {
+        Set<String> qualifiers = columns.get(familyName);
+        if (qualifiers == null) {
+            qualifiers = new LinkedHashSet<String>();
+            columns.put(familyName, qualifiers);
+        }
+        qualifiers.add(qualifier);
+    }
+}
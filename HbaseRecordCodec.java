@@ -0,0 +1,483 @@
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Order;
+import org.apache.hadoop.hbase.util.OrderedBytes;
+import org.apache.hadoop.hbase.util.PositionedByteRange;
+import org.apache.hadoop.hbase.util.SimplePositionedMutableByteRange;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * POJO与HBase行之间的类型化编解码
+ * rowkey由keyFields按顺序用OrderedBytes编码拼接，字节序与字段值的自然顺序一致，可直接做范围扫描；
+ * 其余字段默认每个字段一个单元格(列名为字段名，值为Bytes.toBytes的二进制编码)，
+ * packed模式下所有非key字段序列化到一个单元格，省去每个单元格重复的row/family/qualifier/timestamp。
+ * 支持的字段类型：基本类型及其包装类、String、byte[]；null字段不写入。
+ * packed单元格以字段名和类型的指纹开头，字段集合变化后旧数据解码会报错，需要重写数据或换列名。
+ * POJO需要无参构造函数；字段按名字排序，static和transient字段忽略。
+ */
+public class HbaseRecordCodec<T> {
+
+    public static final String DEFAULT_PACKED_QUALIFIER = "d";
+
+    private static final byte PACKED_VERSION = 1;
+
+    private final Constructor<T> constructor;
+
+    private final byte[] family;
+
+    private final Field[] keyFields;
+
+    private final Field[] valueFields;
+
+    private final byte[][] valueQualifiers;
+
+    private final int fingerprint;
+
+    private byte[] packedQualifier;
+
+    /**
+     * @param type       POJO类型
+     * @param familyName 列簇
+     * @param keyFields  组成rowkey的字段，按顺序拼接
+     */
+    public HbaseRecordCodec(Class<T> type, String familyName, String... keyFields) {
+        if (keyFields.length == 0) {
+            throw new IllegalArgumentException("At least one key field is required");
+        }
+        try {
+            this.constructor = type.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(type.getName() + " has no no-arg constructor", e);
+        }
+        this.family = Bytes.toBytes(familyName);
+
+        List<Field> all = new ArrayList<Field>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int mod = field.getModifiers();
+                if (!Modifier.isStatic(mod) && !Modifier.isTransient(mod) && !field.isSynthetic()) {
+                    checkType(field);
+                    field.setAccessible(true);
+                    all.add(field);
+                }
+            }
+        }
+        all.sort(new Comparator<Field>() {
+            @Override
+            public int compare(Field a, Field b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+
+        this.keyFields = new Field[keyFields.length];
+        for (int i = 0; i < keyFields.length; i++) {
+            this.keyFields[i] = find(all, keyFields[i]);
+            if (this.keyFields[i].getType() == byte[].class) {
+                throw new IllegalArgumentException("byte[] key fields are not supported: " + keyFields[i]);
+            }
+        }
+        List<Field> values = new ArrayList<Field>(all);
+        values.removeAll(Arrays.asList(this.keyFields));
+        this.valueFields = values.toArray(new Field[values.size()]);
+        this.valueQualifiers = new byte[valueFields.length][];
+        int hash = 1;
+        for (int i = 0; i < valueFields.length; i++) {
+            valueQualifiers[i] = Bytes.toBytes(valueFields[i].getName());
+            hash = 31 * hash + valueFields[i].getName().hashCode();
+            hash = 31 * hash + valueFields[i].getType().getName().hashCode();
+        }
+        this.fingerprint = hash;
+    }
+
+    /**
+     * 启用packed模式，非key字段写入一个单元格
+     *
+     * @param qualifier 单元格列名
+     */
+    public HbaseRecordCodec<T> packed(String qualifier) {
+        this.packedQualifier = Bytes.toBytes(qualifier);
+        return this;
+    }
+
+    public HbaseRecordCodec<T> packed() {
+        return packed(DEFAULT_PACKED_QUALIFIER);
+    }
+
+    public boolean isPacked() {
+        return packedQualifier != null;
+    }
+
+    public byte[] getFamily() {
+        return family;
+    }
+
+    /**
+     * 记录的rowkey
+     */
+    public byte[] toRowKey(T record) {
+        Object[] values = new Object[keyFields.length];
+        for (int i = 0; i < keyFields.length; i++) {
+            values[i] = get(keyFields[i], record);
+        }
+        return rowKey(values);
+    }
+
+    /**
+     * 按key字段值生成rowkey，值的个数少于key字段数时得到的是前缀，可用于前缀扫描
+     */
+    public byte[] rowKey(Object... keyValues) {
+        if (keyValues.length > keyFields.length) {
+            throw new IllegalArgumentException("Expected at most " + keyFields.length + " key values");
+        }
+        Object[] values = new Object[keyValues.length];
+        int size = 0;
+        for (int i = 0; i < keyValues.length; i++) {
+            if (keyValues[i] == null) {
+                throw new IllegalArgumentException("Key field " + keyFields[i].getName() + " is null");
+            }
+            values[i] = coerce(keyValues[i], keyFields[i].getType());
+            size += encodedKeyLength(values[i]);
+        }
+        PositionedByteRange range = new SimplePositionedMutableByteRange(size);
+        for (Object value : values) {
+            encodeKey(range, value);
+        }
+        return range.getBytes();
+    }
+
+    /**
+     * 记录转Put
+     */
+    public Put toPut(T record) throws IOException {
+        return toPut(toRowKey(record), record);
+    }
+
+    /**
+     * 记录转Put，rowkey单独给出(加盐表传入加盐后的rowkey)
+     */
+    public Put toPut(byte[] row, T record) throws IOException {
+        Put put = new Put(row);
+        if (isPacked()) {
+            put.addColumn(family, packedQualifier, pack(record));
+            return put;
+        }
+        for (int i = 0; i < valueFields.length; i++) {
+            Object value = get(valueFields[i], record);
+            if (value != null) {
+                put.addColumn(family, valueQualifiers[i], toBytes(value));
+            }
+        }
+        return put;
+    }
+
+    /**
+     * Result转记录，行不存在时返回null
+     *
+     * @param result 行数据，rowkey为未加盐的物理rowkey
+     */
+    public T fromResult(Result result) throws IOException {
+        if (result == null || result.isEmpty()) {
+            return null;
+        }
+        return fromResult(result.getRow(), result);
+    }
+
+    /**
+     * Result转记录，rowkey单独给出(加盐表传入去盐后的rowkey)
+     */
+    public T fromResult(byte[] row, Result result) throws IOException {
+        T record = newInstance();
+        PositionedByteRange range = new SimplePositionedMutableByteRange(row);
+        for (Field field : keyFields) {
+            set(field, record, decodeKey(range, field.getType()));
+        }
+        if (isPacked()) {
+            Cell cell = result.getColumnLatestCell(family, packedQualifier);
+            if (cell != null) {
+                unpack(cell, record);
+            }
+            return record;
+        }
+        for (int i = 0; i < valueFields.length; i++) {
+            Cell cell = result.getColumnLatestCell(family, valueQualifiers[i]);
+            if (cell != null) {
+                set(valueFields[i], record, fromBytes(CellUtil.cloneValue(cell), valueFields[i].getType()));
+            }
+        }
+        return record;
+    }
+
+    // packed格式: 版本 指纹 null位图 非null字段值(整数用变长编码，String/byte[]为变长长度+内容)
+    private byte[] pack(T record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PACKED_VERSION);
+        out.writeInt(fingerprint);
+        Object[] values = new Object[valueFields.length];
+        byte[] nulls = new byte[(valueFields.length + 7) / 8];
+        for (int i = 0; i < valueFields.length; i++) {
+            values[i] = get(valueFields[i], record);
+            if (values[i] == null) {
+                nulls[i / 8] |= 1 << (i % 8);
+            }
+        }
+        out.write(nulls);
+        for (Object value : values) {
+            if (value != null) {
+                writePacked(out, value);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void unpack(Cell cell, T record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(cell.getValueArray(),
+                cell.getValueOffset(), cell.getValueLength()));
+        byte version = in.readByte();
+        if (version != PACKED_VERSION) {
+            throw new IOException("Unsupported packed record version " + version);
+        }
+        if (in.readInt() != fingerprint) {
+            throw new IOException("Packed record was written with a different field set");
+        }
+        byte[] nulls = new byte[(valueFields.length + 7) / 8];
+        in.readFully(nulls);
+        for (int i = 0; i < valueFields.length; i++) {
+            if ((nulls[i / 8] & (1 << (i % 8))) == 0) {
+                set(valueFields[i], record, readPacked(in, valueFields[i].getType()));
+            }
+        }
+    }
+
+    private static void writePacked(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Integer || value instanceof Short) {
+            WritableUtils.writeVInt(out, ((Number) value).intValue());
+        } else if (value instanceof Long) {
+            WritableUtils.writeVLong(out, (Long) value);
+        } else if (value instanceof Byte) {
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Float) {
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeDouble((Double) value);
+        } else if (value instanceof Character) {
+            out.writeChar((Character) value);
+        } else {
+            byte[] b = value instanceof String ? Bytes.toBytes((String) value) : (byte[]) value;
+            WritableUtils.writeVInt(out, b.length);
+            out.write(b);
+        }
+    }
+
+    private static Object readPacked(DataInputStream in, Class<?> type) throws IOException {
+        if (type == int.class || type == Integer.class) {
+            return WritableUtils.readVInt(in);
+        } else if (type == short.class || type == Short.class) {
+            return (short) WritableUtils.readVInt(in);
+        } else if (type == long.class || type == Long.class) {
+            return WritableUtils.readVLong(in);
+        } else if (type == byte.class || type == Byte.class) {
+            return in.readByte();
+        } else if (type == boolean.class || type == Boolean.class) {
+            return in.readBoolean();
+        } else if (type == float.class || type == Float.class) {
+            return in.readFloat();
+        } else if (type == double.class || type == Double.class) {
+            return in.readDouble();
+        } else if (type == char.class || type == Character.class) {
+            return in.readChar();
+        }
+        byte[] b = new byte[WritableUtils.readVInt(in)];
+        in.readFully(b);
+        return type == String.class ? Bytes.toString(b) : b;
+    }
+
+    // 单元格值的定长二进制编码
+    private static byte[] toBytes(Object value) {
+        if (value instanceof Integer) {
+            return Bytes.toBytes((Integer) value);
+        } else if (value instanceof Long) {
+            return Bytes.toBytes((Long) value);
+        } else if (value instanceof Short) {
+            return Bytes.toBytes((Short) value);
+        } else if (value instanceof Byte) {
+            return new byte[]{(Byte) value};
+        } else if (value instanceof Boolean) {
+            return Bytes.toBytes((Boolean) value);
+        } else if (value instanceof Float) {
+            return Bytes.toBytes((Float) value);
+        } else if (value instanceof Double) {
+            return Bytes.toBytes((Double) value);
+        } else if (value instanceof Character) {
+            return Bytes.toBytes((short) ((Character) value).charValue());
+        } else if (value instanceof String) {
+            return Bytes.toBytes((String) value);
+        }
+        return (byte[]) value;
+    }
+
+    private static Object fromBytes(byte[] b, Class<?> type) {
+        if (type == int.class || type == Integer.class) {
+            return Bytes.toInt(b);
+        } else if (type == long.class || type == Long.class) {
+            return Bytes.toLong(b);
+        } else if (type == short.class || type == Short.class) {
+            return Bytes.toShort(b);
+        } else if (type == byte.class || type == Byte.class) {
+            return b[0];
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Bytes.toBoolean(b);
+        } else if (type == float.class || type == Float.class) {
+            return Bytes.toFloat(b);
+        } else if (type == double.class || type == Double.class) {
+            return Bytes.toDouble(b);
+        } else if (type == char.class || type == Character.class) {
+            return (char) Bytes.toShort(b);
+        } else if (type == String.class) {
+            return Bytes.toString(b);
+        }
+        return b;
+    }
+
+    private static int encodedKeyLength(Object value) {
+        if (value instanceof Byte || value instanceof Boolean) {
+            return 2;
+        } else if (value instanceof Short || value instanceof Character) {
+            return 3;
+        } else if (value instanceof Integer || value instanceof Float) {
+            return 5;
+        } else if (value instanceof Long || value instanceof Double) {
+            return 9;
+        }
+        // 类型头 + UTF-8内容 + 结束符
+        return Bytes.toBytes((String) value).length + 2;
+    }
+
+    private static void encodeKey(PositionedByteRange range, Object value) {
+        if (value instanceof Integer) {
+            OrderedBytes.encodeInt32(range, (Integer) value, Order.ASCENDING);
+        } else if (value instanceof Long) {
+            OrderedBytes.encodeInt64(range, (Long) value, Order.ASCENDING);
+        } else if (value instanceof Short) {
+            OrderedBytes.encodeInt16(range, (Short) value, Order.ASCENDING);
+        } else if (value instanceof Byte) {
+            OrderedBytes.encodeInt8(range, (Byte) value, Order.ASCENDING);
+        } else if (value instanceof Boolean) {
+            OrderedBytes.encodeInt8(range, (byte) ((Boolean) value ? 1 : 0), Order.ASCENDING);
+        } else if (value instanceof Character) {
+            OrderedBytes.encodeInt16(range, (short) ((Character) value).charValue(), Order.ASCENDING);
+        } else if (value instanceof Float) {
+            OrderedBytes.encodeFloat32(range, (Float) value, Order.ASCENDING);
+        } else if (value instanceof Double) {
+            OrderedBytes.encodeFloat64(range, (Double) value, Order.ASCENDING);
+        } else {
+            OrderedBytes.encodeString(range, (String) value, Order.ASCENDING);
+        }
+    }
+
+    private static Object decodeKey(PositionedByteRange range, Class<?> type) {
+        if (type == int.class || type == Integer.class) {
+            return OrderedBytes.decodeInt32(range);
+        } else if (type == long.class || type == Long.class) {
+            return OrderedBytes.decodeInt64(range);
+        } else if (type == short.class || type == Short.class) {
+            return OrderedBytes.decodeInt16(range);
+        } else if (type == byte.class || type == Byte.class) {
+            return OrderedBytes.decodeInt8(range);
+        } else if (type == boolean.class || type == Boolean.class) {
+            return OrderedBytes.decodeInt8(range) != 0;
+        } else if (type == char.class || type == Character.class) {
+            return (char) OrderedBytes.decodeInt16(range);
+        } else if (type == float.class || type == Float.class) {
+            return OrderedBytes.decodeFloat32(range);
+        } else if (type == double.class || type == Double.class) {
+            return OrderedBytes.decodeFloat64(range);
+        }
+        return OrderedBytes.decodeString(range);
+    }
+
+    // 数值参数转成key字段的类型，如long字段传入int常量
+    private static Object coerce(Object value, Class<?> type) {
+        if (!(value instanceof Number)) {
+            return value;
+        }
+        Number n = (Number) value;
+        if (type == int.class || type == Integer.class) {
+            return n.intValue();
+        } else if (type == long.class || type == Long.class) {
+            return n.longValue();
+        } else if (type == short.class || type == Short.class) {
+            return n.shortValue();
+        } else if (type == byte.class || type == Byte.class) {
+            return n.byteValue();
+        } else if (type == float.class || type == Float.class) {
+            return n.floatValue();
+        } else if (type == double.class || type == Double.class) {
+            return n.doubleValue();
+        }
+        return value;
+    }
+
+    private static void checkType(Field field) {
+        Class<?> type = field.getType();
+        if (!type.isPrimitive() && type != String.class && type != byte[].class && type != Integer.class
+                && type != Long.class && type != Short.class && type != Byte.class && type != Boolean.class
+                && type != Float.class && type != Double.class && type != Character.class) {
+            throw new IllegalArgumentException("Unsupported field type " + type.getName() + " of " + field.getName());
+        }
+    }
+
+    private static Field find(List<Field> fields, String name) {
+        for (Field field : fields) {
+            if (field.getName().equals(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("No such field: " + name);
+    }
+
+    private T newInstance() throws IOException {
+        try {
+            return constructor.newInstance();
+        } catch (Exception e) {
+            throw new IOException("Failed to instantiate " + constructor.getDeclaringClass().getName(), e);
+        }
+    }
+
+    private static Object get(Field field, Object record) {
+        try {
+            return field.get(record);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void set(Field field, Object record, Object value) {
+        try {
+            field.set(record, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
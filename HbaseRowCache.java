@@ -0,0 +1,251 @@
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 客户端行缓存
+ * 按字节数限制大小的LRU，每张表可设置不同的过期时间，记录命中/未命中/淘汰次数。
+ * 通过HbaseUtils写入或删除的行会被失效，绕过HbaseUtils的写入只能等待过期。
+ */
+public class HbaseRowCache {
+
+    // 每个条目的固定开销估计(对象头、引用、链表节点)
+    private static final int ENTRY_OVERHEAD = 128;
+
+    // 每个单元格的固定开销估计
+    private static final int CELL_OVERHEAD = 48;
+
+    private final long maxBytes;
+
+    private final long defaultTtlMs;
+
+    private final Map<String, Long> tableTtlMs = new ConcurrentHashMap<String, Long>();
+
+    // accessOrder=true，按访问顺序排列，头部最久未访问
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(1024, 0.75f, true);
+
+    private long weightBytes = 0;
+
+    // 失效版本号的分段数，必须是2的幂
+    private static final int STRIPES = 1024;
+
+    // 按rowkey哈希分段的失效版本号，失效一行时对应分段加一，读取前后比较，防止并发写入后把旧数据放回缓存；
+    // 只有同一分段的写入会阻止缓存，其他行的写入不影响
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes     缓存最大字节数(估算值)
+     * @param defaultTtlMs 默认过期时间(毫秒)
+     */
+    public HbaseRowCache(long maxBytes, long defaultTtlMs) {
+        this.maxBytes = maxBytes;
+        this.defaultTtlMs = defaultTtlMs;
+    }
+
+    /**
+     * 设置表的过期时间，<=0 表示该表不缓存
+     *
+     * @param tableName 表名
+     * @param ttlMs     过期时间(毫秒)
+     */
+    public void setTableTtl(String tableName, long ttlMs) {
+        tableTtlMs.put(tableName, ttlMs);
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @return 缓存的整行数据，不存在或已过期返回null；空Result表示该行不存在
+     */
+    public Result get(String tableName, String rowkey) {
+        String key = key(tableName, rowkey);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expireAt > System.currentTimeMillis()) {
+                    hits.incrementAndGet();
+                    return entry.result;
+                }
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 读取服务端前获取该行的版本号，配合put使用
+     */
+    public long readStamp(String tableName, String rowkey) {
+        return invalidations.get(stripe(key(tableName, rowkey)));
+    }
+
+    /**
+     * 缓存从服务端读取的整行数据
+     * 如果读取期间有失效发生，可能读到的是旧数据，不缓存
+     *
+     * @param stamp 读取前调用readStamp(tableName, rowkey)得到的版本号
+     */
+    public void put(String tableName, String rowkey, Result result, long stamp) {
+        long ttl = getTtl(tableName);
+        if (ttl <= 0) {
+            return;
+        }
+        String key = key(tableName, rowkey);
+        Entry entry = new Entry(result, System.currentTimeMillis() + ttl, weigh(key, result));
+        if (entry.weight > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            if (stamp != invalidations.get(stripe(key))) {
+                return;
+            }
+            remove(key);
+            entries.put(key, entry);
+            weightBytes += entry.weight;
+            evict();
+        }
+    }
+
+    /**
+     * 失效一行
+     */
+    public void invalidate(String tableName, String rowkey) {
+        String key = key(tableName, rowkey);
+        synchronized (this) {
+            invalidations.incrementAndGet(stripe(key));
+            remove(key);
+        }
+    }
+
+    /**
+     * 失效整张表
+     */
+    public void invalidateTable(String tableName) {
+        String prefix = key(tableName, "");
+        synchronized (this) {
+            invalidateAllStripes();
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                if (e.getKey().startsWith(prefix)) {
+                    weightBytes -= e.getValue().weight;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        invalidateAllStripes();
+        entries.clear();
+        weightBytes = 0;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getWeightBytes() {
+        return weightBytes;
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "HbaseRowCache{rows=" + getSize() + ", bytes=" + getWeightBytes() + "/" + maxBytes
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + ", hitRatio=" + String.format("%.3f", getHitRatio()) + "}";
+    }
+
+    private long getTtl(String tableName) {
+        Long ttl = tableTtlMs.get(tableName);
+        return ttl == null ? defaultTtlMs : ttl;
+    }
+
+    // 调用方持有锁
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            weightBytes -= old.weight;
+        }
+    }
+
+    // 调用方持有锁，从最久未访问的条目开始淘汰
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (weightBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            weightBytes -= eldest.weight;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void invalidateAllStripes() {
+        for (int i = 0; i < STRIPES; i++) {
+            invalidations.incrementAndGet(i);
+        }
+    }
+
+    private static int stripe(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    private static String key(String tableName, String rowkey) {
+        return tableName + '\u0000' + rowkey;
+    }
+
+    private static long weigh(String key, Result result) {
+        long weight = ENTRY_OVERHEAD + 2L * key.length();
+        Cell[] cells = result.rawCells();
+        if (cells != null) {
+            for (Cell cell : cells) {
+                weight += CELL_OVERHEAD + cell.getRowLength() + cell.getFamilyLength()
+                        + cell.getQualifierLength() + cell.getValueLength();
+            }
+        }
+        return weight;
+    }
+
+    private static class Entry {
+        final Result result;
+        final long expireAt;
+        final long weight;
+
+        Entry(Result result, long expireAt, long weight) {
+            this.result = result;
+            this.expireAt = expireAt;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Table;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * 持有Table的ResultScanner，关闭scanner时同时关闭Table
+ */
+public class HbaseScanner implements ResultScanner {
+
+    private final static Log LOG = LogFactory.getLog(HbaseScanner.class.getName());
+
+    private final Table table;
+
+    private final ResultScanner scanner;
+
+    public HbaseScanner(Table table, ResultScanner scanner) {
+        this.table = table;
+        this.scanner = scanner;
+    }
+
+    @Override
+    public Result next() throws IOException {
+        return scanner.next();
+    }
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+        return scanner.next(nbRows);
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+        return scanner.iterator();
+    }
+
+    @Override
+    public void close() {
+        try {
+            scanner.close();
+        } finally {
+            try {
+                table.close();
+            } catch (IOException e) {
+                LOG.error("Close table failed ", e);
+            }
+        }
+    }
+}
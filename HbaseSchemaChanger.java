@@ -0,0 +1,292 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.MetaTableAccessor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.master.RegionState;
+import org.apache.hadoop.hbase.util.Pair;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在线表结构变更
+ * 表保持enable状态直接modifyTable/addColumn，由Master逐个Region重新打开使新结构生效，
+ * 期间轮询getAlterStatus报告进度(已完成Region数/总Region数)，超时抛出IOException。
+ * 要求集群开启hbase.online.schema.update.enable(1.x默认开启)。
+ * Master一次变更会重开表的全部Region，多个变更应合并到一次modifyTable中；
+ * rollingReopen按批unassign Region并等待重新上线，批间暂停，用于需要控制重开节奏的场景(如协处理器jar更新)。
+ */
+public class HbaseSchemaChanger {
+
+    private final static Log LOG = LogFactory.getLog(HbaseSchemaChanger.class.getName());
+
+    public static final long DEFAULT_POLL_INTERVAL_MS = 1000L;
+
+    public static final long DEFAULT_TIMEOUT_MS = 10 * 60 * 1000L;
+
+    // 不知道变更前状态时，getAlterStatus持续为0多久后认为变更已生效
+    private static final long ALTER_GRACE_MS = 5000L;
+
+    /**
+     * 变更进度回调
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param tableName 表名
+         * @param done      已生效的Region数
+         * @param total     Region总数
+         */
+        void onProgress(String tableName, int done, int total);
+    }
+
+    private final Connection conn;
+
+    private long pollIntervalMs = DEFAULT_POLL_INTERVAL_MS;
+
+    private long timeoutMs = DEFAULT_TIMEOUT_MS;
+
+    private ProgressListener listener;
+
+    public HbaseSchemaChanger(Connection conn) {
+        this.conn = conn;
+    }
+
+    public HbaseSchemaChanger setPollIntervalMs(long pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+        return this;
+    }
+
+    public HbaseSchemaChanger setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    public HbaseSchemaChanger setListener(ProgressListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 在线修改表结构，等待所有Region生效后返回
+     *
+     * @param tableName 表名
+     * @param htd       新的表描述
+     */
+    public void modifyTable(String tableName, HTableDescriptor htd) throws IOException {
+        Admin admin = conn.getAdmin();
+        try {
+            List<HRegionInfo> regions = admin.getTableRegions(TableName.valueOf(tableName));
+            Map<String, Long> openSeqNums = openSeqNums(regions);
+            admin.modifyTable(TableName.valueOf(tableName), htd);
+            waitForAlter(admin, tableName, regions, openSeqNums);
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * 在线添加列簇，列簇已存在时不修改
+     *
+     * @param tableName 表名
+     * @param hcd       列簇
+     * @return 是否添加
+     */
+    public boolean addFamily(String tableName, HColumnDescriptor hcd) throws IOException {
+        Admin admin = conn.getAdmin();
+        try {
+            TableName table = TableName.valueOf(tableName);
+            if (admin.getTableDescriptor(table).hasFamily(hcd.getName())) {
+                return false;
+            }
+            List<HRegionInfo> regions = admin.getTableRegions(table);
+            Map<String, Long> openSeqNums = openSeqNums(regions);
+            admin.addColumn(table, hcd);
+            waitForAlter(admin, tableName, regions, openSeqNums);
+            return true;
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * 在线修改已有列簇的配置
+     *
+     * @param tableName 表名
+     * @param hcd       列簇
+     */
+    public void modifyFamily(String tableName, HColumnDescriptor hcd) throws IOException {
+        Admin admin = conn.getAdmin();
+        try {
+            List<HRegionInfo> regions = admin.getTableRegions(TableName.valueOf(tableName));
+            Map<String, Long> openSeqNums = openSeqNums(regions);
+            admin.modifyColumn(TableName.valueOf(tableName), hcd);
+            waitForAlter(admin, tableName, regions, openSeqNums);
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * 分批重开表的Region：每批unassign后等待全部重新上线，再暂停pauseMs开始下一批
+     * 同一时刻最多batchSize个Region不可用
+     *
+     * @param tableName 表名
+     * @param batchSize 每批Region数
+     * @param pauseMs   批间暂停(毫秒)
+     */
+    public void rollingReopen(String tableName, int batchSize, long pauseMs) throws IOException {
+        Admin admin = conn.getAdmin();
+        try {
+            List<HRegionInfo> regions = admin.getTableRegions(TableName.valueOf(tableName));
+            int total = regions.size();
+            for (int from = 0; from < total; from += batchSize) {
+                List<HRegionInfo> batch = regions.subList(from, Math.min(total, from + batchSize));
+                Map<String, Long> openSeqNums = openSeqNums(batch);
+                for (HRegionInfo region : batch) {
+                    admin.unassign(region.getRegionName(), false);
+                }
+                waitForRegionsOnline(admin, batch, openSeqNums);
+                int done = Math.min(total, from + batchSize);
+                report(tableName, done, total);
+                if (done < total && pauseMs > 0) {
+                    sleep(pauseMs);
+                }
+            }
+            LOG.info("Reopened " + total + " regions of " + tableName);
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * 等待表结构变更在所有Region上生效
+     * 不知道变更前的openSeqNum，只能依据getAlterStatus：Master刚收到变更时待重开列表可能还没填充，
+     * 会返回0个待重开，因此要先观察到有Region待重开，或者等满ALTER_GRACE_MS仍为0才认为已生效
+     */
+    public void waitForAlter(String tableName) throws IOException {
+        Admin admin = conn.getAdmin();
+        try {
+            waitForAlter(admin, tableName, null, null);
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * @param regions     变更前表的Region，为null时按getAlterStatus判断
+     * @param openSeqNums encodedName -> 变更前meta中的openSeqNum，所有Region都带新的openSeqNum上线才算生效
+     */
+    private void waitForAlter(Admin admin, String tableName, List<HRegionInfo> regions,
+                              Map<String, Long> openSeqNums) throws IOException {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeoutMs;
+        int lastPending = -1;
+        boolean seenPending = false;
+        while (true) {
+            // first: 尚未重开的Region数, second: Region总数
+            Pair<Integer, Integer> status = admin.getAlterStatus(TableName.valueOf(tableName));
+            int pending = status.getFirst();
+            int total = status.getSecond();
+            if (pending != lastPending) {
+                report(tableName, total - pending, total);
+                lastPending = pending;
+            }
+            if (pending > 0) {
+                seenPending = true;
+            } else if (regions != null ? reopenedCount(regions, openSeqNums) == regions.size()
+                    : seenPending || System.currentTimeMillis() - start >= ALTER_GRACE_MS) {
+                LOG.info("Schema change of " + tableName + " applied to all " + total + " regions");
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Schema change of " + tableName + " not applied after " + timeoutMs
+                        + "ms, " + pending + "/" + total + " regions pending");
+            }
+            sleep(pollIntervalMs);
+        }
+    }
+
+    /**
+     * 等待Region重新上线：不在RIT中，且hbase:meta中已分配到RegionServer并带有新的openSeqNum
+     * unassign刚提交时Region可能还没进入RIT、meta中仍是旧位置，只看RIT会把尚未关闭的Region误判为已上线
+     *
+     * @param openSeqNums encodedName -> unassign前meta中的openSeqNum
+     */
+    private void waitForRegionsOnline(Admin admin, List<HRegionInfo> regions, Map<String, Long> openSeqNums)
+            throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            Map<String, RegionState> inTransition = admin.getClusterStatus().getRegionsInTransition();
+            int pending = 0;
+            for (HRegionInfo region : regions) {
+                if (inTransition.containsKey(region.getEncodedName()) || !reopened(region, openSeqNums)) {
+                    pending++;
+                }
+            }
+            if (pending == 0) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException(pending + " regions not online after " + timeoutMs + "ms");
+            }
+            sleep(pollIntervalMs);
+        }
+    }
+
+    // meta中各Region当前的openSeqNum，没有位置时为-1
+    private Map<String, Long> openSeqNums(List<HRegionInfo> regions) throws IOException {
+        Map<String, Long> openSeqNums = new HashMap<String, Long>();
+        for (HRegionInfo region : regions) {
+            HRegionLocation location = MetaTableAccessor.getRegionLocation(conn, region);
+            openSeqNums.put(region.getEncodedName(), location == null ? -1L : location.getSeqNum());
+        }
+        return openSeqNums;
+    }
+
+    private int reopenedCount(List<HRegionInfo> regions, Map<String, Long> openSeqNums) throws IOException {
+        int reopened = 0;
+        for (HRegionInfo region : regions) {
+            if (reopened(region, openSeqNums)) {
+                reopened++;
+            }
+        }
+        return reopened;
+    }
+
+    // Region是否已分配到RegionServer并带有新的openSeqNum；期间分裂的父Region不会再打开，视为完成
+    private boolean reopened(HRegionInfo region, Map<String, Long> openSeqNums) throws IOException {
+        HRegionLocation location = MetaTableAccessor.getRegionLocation(conn, region);
+        if (location != null && location.getRegionInfo().isSplitParent()) {
+            return true;
+        }
+        return location != null && location.getServerName() != null
+                && location.getSeqNum() != openSeqNums.get(region.getEncodedName());
+    }
+
+    private void report(String tableName, int done, int total) {
+        LOG.info("Schema change of " + tableName + ": " + done + "/" + total + " regions");
+        if (listener != null) {
+            listener.onProgress(tableName, done, total);
+        }
+    }
+
+    private static void sleep(long ms) throws InterruptedIOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for schema change");
+        }
+    }
+}
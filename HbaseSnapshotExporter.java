@@ -0,0 +1,289 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.ClientSideRegionScanner;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.IsolationLevel;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.snapshot.RestoreSnapshotHelper;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.GroupWriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于快照的离线导出
+ * 先对表做快照，把快照恢复到临时目录(只创建HFile的引用，不复制数据)，再按Region并行直接读HDFS上的HFile，
+ * 不经过RegionServer，不影响在线读写。每个Region写一个SNAPPY压缩的Parquet文件，全部成功后写_SUCCESS。
+ * 输出格式：
+ * 未指定列时每个单元格一行: rowkey, family, qualifier, ts, value；
+ * 指定列(family:qualifier)时每个HBase行一行: rowkey + 每列一个可选的UTF8字段，字段名为 family_qualifier。
+ */
+public class HbaseSnapshotExporter {
+
+    private final static Log LOG = LogFactory.getLog(HbaseSnapshotExporter.class.getName());
+
+    public static final String RESTORE_DIR_KEY = "hbase.utils.snapshot.restore.dir";
+    public static final String DEFAULT_RESTORE_DIR = "/tmp/hbase-snapshot-restore";
+
+    private static final String CELL_SCHEMA = "message hbase_cell {"
+            + " required binary rowkey;"
+            + " required binary family (UTF8);"
+            + " required binary qualifier (UTF8);"
+            + " required int64 ts;"
+            + " optional binary value;"
+            + " }";
+
+    private final Connection conn;
+
+    private final Configuration conf;
+
+    private final HdfsUtils hdfsUtils;
+
+    private int parallelism = 8;
+
+    private String[] columns;
+
+    private boolean keepSnapshot = false;
+
+    private CompressionCodecName codec = CompressionCodecName.SNAPPY;
+
+    /**
+     * @param conn      HBase连接
+     * @param conf      HBase配置，需要包含hbase.rootdir
+     * @param hdfsUtils 输出HDFS
+     */
+    public HbaseSnapshotExporter(Connection conn, Configuration conf, HdfsUtils hdfsUtils) {
+        this.conn = conn;
+        this.conf = conf;
+        this.hdfsUtils = hdfsUtils;
+    }
+
+    public HbaseSnapshotExporter setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * 导出的列，格式 family:qualifier；不设置时按单元格导出所有列
+     */
+    public HbaseSnapshotExporter setColumns(String... columns) {
+        this.columns = columns;
+        return this;
+    }
+
+    /**
+     * 导出后是否保留快照，默认删除
+     */
+    public HbaseSnapshotExporter setKeepSnapshot(boolean keepSnapshot) {
+        this.keepSnapshot = keepSnapshot;
+        return this;
+    }
+
+    public HbaseSnapshotExporter setCompression(CompressionCodecName codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * 对表做快照并导出
+     *
+     * @param tableName 表名
+     * @param outputDir 输出目录，每个Region一个part文件
+     * @return 导出的行数
+     */
+    public long export(String tableName, String outputDir) throws IOException {
+        String snapshotName = tableName.replace(':', '_') + "_export_" + System.currentTimeMillis();
+        Admin admin = conn.getAdmin();
+        try {
+            admin.snapshot(snapshotName, TableName.valueOf(tableName));
+            LOG.info("Snapshot " + snapshotName + " taken");
+            try {
+                return exportSnapshot(snapshotName, outputDir);
+            } finally {
+                if (!keepSnapshot) {
+                    admin.deleteSnapshot(snapshotName);
+                }
+            }
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * 导出已有快照
+     *
+     * @param snapshotName 快照名
+     * @param outputDir    输出目录
+     * @return 导出的行数
+     */
+    public long exportSnapshot(String snapshotName, String outputDir) throws IOException {
+        Path rootDir = FSUtils.getRootDir(conf);
+        FileSystem rootFs = rootDir.getFileSystem(conf);
+        final Path restoreDir = new Path(conf.get(RESTORE_DIR_KEY, DEFAULT_RESTORE_DIR), snapshotName);
+
+        // 恢复快照到临时目录，只创建HFile链接
+        RestoreSnapshotHelper.RestoreMetaChanges meta =
+                RestoreSnapshotHelper.copySnapshotForScanner(conf, rootFs, rootDir, restoreDir, snapshotName);
+        final HTableDescriptor htd = meta.getTableDescriptor();
+        List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+        for (HRegionInfo region : meta.getRegionsToAdd()) {
+            // 已分裂的父Region数据在子Region中
+            if (!(region.isOffline() && (region.isSplit() || region.isSplitParent()))) {
+                regions.add(region);
+            }
+        }
+
+        final FileSystem outFs = hdfsUtils.getFileSystem();
+        final Path output = new Path(outputDir);
+        outFs.mkdirs(output);
+        final MessageType schema = schema();
+        final AtomicLong rows = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, regions.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(regions.size());
+            for (int i = 0; i < regions.size(); i++) {
+                final HRegionInfo region = regions.get(i);
+                final Path part = new Path(output, String.format("part-%05d-%s.parquet", i, region.getEncodedName()));
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        rows.addAndGet(exportRegion(restoreDir, htd, region, outFs, part, schema));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                HbaseUtils.await(future);
+            }
+            outFs.create(new Path(output, "_SUCCESS"), true).close();
+        } finally {
+            pool.shutdownNow();
+            rootFs.delete(restoreDir, true);
+        }
+        LOG.info("Exported " + rows.get() + " rows of snapshot " + snapshotName + " from " + regions.size()
+                + " regions to " + outputDir);
+        return rows.get();
+    }
+
+    private long exportRegion(Path restoreDir, HTableDescriptor htd, HRegionInfo region, FileSystem outFs,
+                              Path part, MessageType schema) throws IOException {
+        Scan scan = new Scan(region.getStartKey(), region.getEndKey());
+        scan.setIsolationLevel(IsolationLevel.READ_UNCOMMITTED);
+        scan.setCacheBlocks(false);
+        if (columns != null) {
+            for (String column : columns) {
+                String[] fq = splitColumn(column);
+                scan.addColumn(Bytes.toBytes(fq[0]), Bytes.toBytes(fq[1]));
+            }
+        }
+
+        Configuration writerConf = new Configuration(outFs.getConf());
+        GroupWriteSupport.setSchema(schema, writerConf);
+        SimpleGroupFactory groups = new SimpleGroupFactory(schema);
+        ClientSideRegionScanner scanner = new ClientSideRegionScanner(conf, restoreDir.getFileSystem(conf),
+                restoreDir, htd, region, scan, null);
+        ParquetWriter<Group> writer = null;
+        long rows = 0;
+        boolean success = false;
+        try {
+            writer = new ParquetWriter<Group>(part, new GroupWriteSupport(), codec,
+                    ParquetWriter.DEFAULT_BLOCK_SIZE, ParquetWriter.DEFAULT_PAGE_SIZE,
+                    ParquetWriter.DEFAULT_PAGE_SIZE, true, false,
+                    ParquetProperties.WriterVersion.PARQUET_1_0, writerConf);
+            for (Result result = scanner.next(); result != null; result = scanner.next()) {
+                if (columns == null) {
+                    for (Cell cell : result.rawCells()) {
+                        writer.write(groups.newGroup()
+                                .append("rowkey", binary(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()))
+                                .append("family", binary(cell.getFamilyArray(), cell.getFamilyOffset(),
+                                        cell.getFamilyLength()))
+                                .append("qualifier", binary(cell.getQualifierArray(), cell.getQualifierOffset(),
+                                        cell.getQualifierLength()))
+                                .append("ts", cell.getTimestamp())
+                                .append("value", binary(cell.getValueArray(), cell.getValueOffset(),
+                                        cell.getValueLength())));
+                    }
+                } else {
+                    Group group = groups.newGroup().append("rowkey", Binary.fromConstantByteArray(result.getRow()));
+                    for (String column : columns) {
+                        String[] fq = splitColumn(column);
+                        Cell cell = result.getColumnLatestCell(Bytes.toBytes(fq[0]), Bytes.toBytes(fq[1]));
+                        if (cell != null) {
+                            group.append(fieldName(fq), binary(cell.getValueArray(), cell.getValueOffset(),
+                                    cell.getValueLength()));
+                        }
+                    }
+                    writer.write(group);
+                }
+                rows++;
+            }
+            success = true;
+        } finally {
+            scanner.close();
+            if (writer != null) {
+                writer.close();
+            }
+            if (!success) {
+                outFs.delete(part, false);
+            }
+        }
+        LOG.info("Exported " + rows + " rows of region " + region.getEncodedName() + " to " + part);
+        return rows;
+    }
+
+    private MessageType schema() {
+        if (columns == null) {
+            return MessageTypeParser.parseMessageType(CELL_SCHEMA);
+        }
+        StringBuilder sb = new StringBuilder("message hbase_row { required binary rowkey;");
+        for (String column : columns) {
+            sb.append(" optional binary ").append(fieldName(splitColumn(column))).append(" (UTF8);");
+        }
+        return MessageTypeParser.parseMessageType(sb.append(" }").toString());
+    }
+
+    private static String[] splitColumn(String column) {
+        int sep = column.indexOf(':');
+        if (sep <= 0 || sep == column.length() - 1) {
+            throw new IllegalArgumentException("Column must be family:qualifier: " + column);
+        }
+        return new String[]{column.substring(0, sep), column.substring(sep + 1)};
+    }
+
+    // Parquet字段名只保留字母数字和下划线
+    private static String fieldName(String[] fq) {
+        return (fq[0] + "_" + fq[1]).replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    // 直接引用单元格的数组区间，Parquet只在需要保留值(字典、统计)时才复制
+    private static Binary binary(byte[] array, int offset, int length) {
+        return Binary.fromReusedByteArray(array, offset, length);
+    }
+}
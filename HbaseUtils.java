@@ -10,19 +10,44 @@ import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.client.*;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PageFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.index.ColumnQualifier;
 import org.apache.hadoop.hbase.index.Constants;
 import org.apache.hadoop.hbase.index.IndexSpecification;
 import org.apache.hadoop.hbase.index.client.IndexAdmin;
 import org.apache.hadoop.hbase.index.coprocessor.master.IndexMasterObserver;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class HbaseUtils {
     private static HbaseUtils hbaseUtils;
@@ -44,6 +69,50 @@ public class HbaseUtils {
 
     private static Connection conn;
 
+    // 每张表一个长期持有的批量写入器
+    private static final Map<String, HbaseBatchWriter> batchWriters = new ConcurrentHashMap<String, HbaseBatchWriter>();
+
+    // 并行读线程数
+    private static final String READ_THREADS_KEY = "hbase.utils.read.threads";
+    private static final int DEFAULT_READ_THREADS = 16;
+
+    // 并行读线程池，按需创建
+    private static ExecutorService readPool;
+
+    // 异步客户端并发上限和超时
+    private static final String ASYNC_MAX_IN_FLIGHT_KEY = "hbase.utils.async.max.inflight";
+    private static final int DEFAULT_ASYNC_MAX_IN_FLIGHT = 256;
+    private static final String ASYNC_TIMEOUT_MS_KEY = "hbase.utils.async.timeout.ms";
+    private static final long DEFAULT_ASYNC_TIMEOUT_MS = 30000L;
+
+    // 在线表结构变更的进度轮询间隔和超时
+    private static final String ALTER_POLL_MS_KEY = "hbase.utils.alter.poll.ms";
+    private static final String ALTER_TIMEOUT_MS_KEY = "hbase.utils.alter.timeout.ms";
+
+    // 分页游标的签名密钥，多个节点共用游标时需配置相同的值；未配置时每个进程随机生成，游标只在本进程内有效
+    private static final String PAGE_CURSOR_SECRET_KEY = "hbase.utils.page.cursor.secret";
+
+    private static byte[] cursorKey;
+
+    // 异步客户端，按需创建
+    private static HbaseAsyncClient asyncClient;
+
+    // 行缓存，为null时不启用
+    private static volatile HbaseRowCache rowCache;
+
+    // 表的rowkey加盐策略
+    private static final Map<String, RowKeySalter> salters = new ConcurrentHashMap<String, RowKeySalter>();
+
+    // 表名 -> 客户端二级索引
+    private static final Map<String, List<HbaseClientIndex>> clientIndexes =
+            new ConcurrentHashMap<String, List<HbaseClientIndex>>();
+
+    // 回表时每批读取的行数
+    private static final int INDEX_FETCH_BATCH = 1000;
+
+    // 缓存中表示行不存在
+    private static final Result EMPTY_ROW = Result.create(new Cell[0]);
+
 
     private HbaseUtils() {
     }
@@ -67,6 +136,13 @@ public class HbaseUtils {
         return hbaseUtils;
     }
 
+    // 使用已有的配置和连接，不读取配置文件也不登录，测试连接mini-cluster时使用
+    static HbaseUtils getInstance(Configuration configuration, Connection connection) {
+        conf = configuration;
+        conn = connection;
+        return new HbaseUtils();
+    }
+
     private static void init() throws IOException {
         conf = HBaseConfiguration.create();
         conf.addResource(new Path(PATH_TO_CORE_SITE_XML));
@@ -95,16 +171,73 @@ public class HbaseUtils {
      * @param familyName 列簇名称
      */
     public void createTable(String tableName, String familyName) {
-        LOG.info("Entering testCreateTable.");
+        createTable(tableName, familyName, (byte[][]) null);
+    }
 
-        HTableDescriptor htd = new HTableDescriptor(tableName);
+    /**
+     * 创建加盐表，按分桶数预分区，并注册加盐策略
+     *
+     * @param tableName  表名
+     * @param familyName 列簇名称
+     * @param salter     加盐策略
+     */
+    public void createTable(String tableName, String familyName, RowKeySalter salter) {
+        createTable(tableName, familyName, salter.getSplitKeys());
+        registerSalter(tableName, salter);
+    }
 
+    /**
+     * 创建预分区表
+     *
+     * @param tableName  表名
+     * @param familyName 列簇名称
+     * @param splitKeys  预分区点，为null时只有一个Region
+     */
+    public void createTable(String tableName, String familyName, byte[][] splitKeys) {
         HColumnDescriptor hcd = new HColumnDescriptor(familyName);
 
         hcd.setDataBlockEncoding(DataBlockEncoding.FAST_DIFF);
 
         hcd.setCompressionType(Compression.Algorithm.SNAPPY);
 
+        createTable(tableName, hcd, splitKeys);
+    }
+
+    /**
+     * 按负载类型创建表，列簇的布隆过滤器、块大小、缓存、TTL、版本数、编码和压缩取自profile
+     *
+     * @param tableName  表名
+     * @param familyName 列簇名称
+     * @param profile    负载类型
+     */
+    public void createTable(String tableName, String familyName, TableProfile profile) {
+        createTable(tableName, profile.newFamily(familyName), null);
+    }
+
+    /**
+     * 按负载类型创建预分区表
+     *
+     * @param tableName  表名
+     * @param familyName 列簇名称
+     * @param profile    负载类型
+     * @param splitKeys  预分区点，为null时只有一个Region
+     */
+    public void createTable(String tableName, String familyName, TableProfile profile, byte[][] splitKeys) {
+        createTable(tableName, profile.newFamily(familyName), splitKeys);
+    }
+
+    /**
+     * 用指定的列簇配置创建表
+     *
+     * @param tableName 表名
+     * @param hcd       列簇
+     * @param splitKeys 预分区点，为null时只有一个Region
+     */
+    public void createTable(String tableName, HColumnDescriptor hcd, byte[][] splitKeys) {
+        LOG.info("Entering testCreateTable.");
+
+        HTableDescriptor htd = new HTableDescriptor(tableName);
+
         htd.addFamily(hcd);
 
         Admin admin = null;
@@ -114,7 +247,12 @@ public class HbaseUtils {
             admin = conn.getAdmin();
             if (!admin.tableExists(TableName.valueOf(tableName))) {
                 LOG.info("Creating table...");
-                admin.createTable(htd);
+                if (splitKeys == null || splitKeys.length == 0) {
+                    admin.createTable(htd);
+                } else {
+                    admin.createTable(htd, splitKeys);
+                    LOG.info("Table pre-split into " + (splitKeys.length + 1) + " regions.");
+                }
                 LOG.info(admin.getClusterStatus());
                 LOG.info(admin.listNamespaceDescriptors());
                 LOG.info("Table created successfully.");
@@ -178,44 +316,131 @@ public class HbaseUtils {
      * @param family_Name
      */
     public void addFamily(String tableName, String family_Name) {
+        // Create the column descriptor.
+        addFamily(tableName, new HColumnDescriptor(family_Name));
+    }
+
+    /**
+     * 按负载类型添加列簇
+     *
+     * @param tableName  表名
+     * @param familyName 列簇名称
+     * @param profile    负载类型
+     */
+    public void addFamily(String tableName, String familyName, TableProfile profile) {
+        addFamily(tableName, profile.newFamily(familyName));
+    }
+
+    /**
+     * 添加指定配置的列簇，列簇已存在时不修改
+     *
+     * @param tableName 表名
+     * @param hcd       列簇
+     */
+    public void addFamily(String tableName, HColumnDescriptor hcd) {
         LOG.info("Entering ModifyTable.");
 
-        // Specify the column family name.
-        byte[] familyName = Bytes.toBytes(family_Name);
+        try {
+            // 表保持在线，Master逐个重开Region
+            if (getSchemaChanger().addFamily(tableName, hcd)) {
+                LOG.info("Modify table successfully.");
+            } else {
+                LOG.warn("family already exists");
+            }
+        } catch (IOException e) {
+            LOG.error("Modify table failed ", e);
+        }
+        LOG.info("Exiting ModifyTable.");
+    }
+
+    /**
+     * 在线表结构变更器，表不下线，轮询并报告各Region的生效进度
+     * 轮询间隔和超时由hbase.utils.alter.poll.ms、hbase.utils.alter.timeout.ms指定
+     */
+    public HbaseSchemaChanger getSchemaChanger() {
+        return new HbaseSchemaChanger(conn)
+                .setPollIntervalMs(conf.getLong(ALTER_POLL_MS_KEY, HbaseSchemaChanger.DEFAULT_POLL_INTERVAL_MS))
+                .setTimeoutMs(conf.getLong(ALTER_TIMEOUT_MS_KEY, HbaseSchemaChanger.DEFAULT_TIMEOUT_MS));
+    }
+
+    /**
+     * 为表加载聚合协处理器，之后行数和long列的聚合在RegionServer上计算
+     * 需要RegionServer的classpath中有hbase-server(AggregateImplementation)
+     *
+     * @param tableName 表名
+     */
+    public void enableAggregation(String tableName) {
+        LOG.info("Entering enableAggregation.");
 
         Admin admin = null;
         try {
-
             admin = conn.getAdmin();
-
             HTableDescriptor htd = admin.getTableDescriptor(TableName.valueOf(tableName));
+            if (!htd.hasCoprocessor(HbaseAggregator.AGGREGATE_COPROCESSOR)) {
+                htd.addCoprocessor(HbaseAggregator.AGGREGATE_COPROCESSOR);
 
-            // 检查是否指定列簇名
-            if (!htd.hasFamily(familyName)) {
-                // Create the column descriptor.
-                HColumnDescriptor hcd = new HColumnDescriptor(familyName);
-                htd.addFamily(hcd);
-
-                admin.disableTable((TableName.valueOf(tableName)));
-
-                admin.modifyTable(TableName.valueOf(tableName), htd);
-
-                admin.enableTable(TableName.valueOf(tableName));
+                getSchemaChanger().modifyTable(tableName, htd);
             }
-            LOG.info("Modify table successfully.");
+            LOG.info("Enable aggregation successfully.");
         } catch (IOException e) {
-            LOG.error("Modify table failed ", e);
+            LOG.error("Enable aggregation failed ", e);
         } finally {
             if (admin != null) {
                 try {
-                    // Close the Admin object.
                     admin.close();
                 } catch (IOException e) {
                     LOG.error("Close admin failed ", e);
                 }
             }
         }
-        LOG.info("Exiting ModifyTable.");
+        LOG.info("Exiting enableAggregation.");
+    }
+
+    /**
+     * 获取表的聚合器，支持行数、数值列sum/min/max/avg和近似去重
+     *
+     * @param tableName 表名
+     */
+    public HbaseAggregator getAggregator(String tableName) {
+        return new HbaseAggregator(conn, conf, tableName, conf.getInt(READ_THREADS_KEY, DEFAULT_READ_THREADS));
+    }
+
+    /**
+     * 增量导出上次导出以来的写入和删除，水位保存在HDFS的checkpointDir下，导出成功后推进
+     *
+     * @param tableName     表名
+     * @param familyName    列簇，为null时导出所有列簇
+     * @param hdfsUtils     保存水位的HDFS
+     * @param checkpointDir 水位文件目录
+     * @param handler       变更回调
+     * @return 导出的单元格数(含删除标记)
+     */
+    public long exportChanges(String tableName, String familyName, HdfsUtils hdfsUtils, String checkpointDir,
+                              HbaseIncrementalExporter.ChangeHandler handler) throws IOException {
+        Scan scan = newScan(1000, 0, 0);
+        if (familyName != null) {
+            scan.addFamily(Bytes.toBytes(familyName));
+        }
+        return new HbaseIncrementalExporter(conn, hdfsUtils, checkpointDir).export(tableName, scan, handler);
+    }
+
+    /**
+     * 快照导出：对表做快照，按Region并行直接读取快照的HFile，写成SNAPPY压缩的Parquet文件，不经过RegionServer
+     *
+     * @param tableName 表名
+     * @param hdfsUtils 输出HDFS
+     * @param outputDir 输出目录
+     * @param columns   导出的列(family:qualifier)，为空时按单元格导出所有列
+     * @return 导出的行数
+     */
+    public long exportSnapshot(String tableName, HdfsUtils hdfsUtils, String outputDir, String... columns)
+            throws IOException {
+        HbaseSnapshotExporter exporter = new HbaseSnapshotExporter(conn, conf, hdfsUtils)
+                .setParallelism(conf.getInt(READ_THREADS_KEY, DEFAULT_READ_THREADS));
+        if (columns.length > 0) {
+            exporter.setColumns(columns);
+        }
+        return exporter.export(tableName, outputDir);
     }
 
     /**
@@ -237,10 +462,25 @@ public class HbaseUtils {
         try {
             table = conn.getTable(TableName.valueOf(tableName));
 
-            Put put = new Put(Bytes.toBytes(rowkey));
+            Put put = new Put(toRowKey(tableName, rowkey));
             put.addColumn(familyName, Bytes.toBytes(qualifier), Bytes.toBytes(content));
 
+            // 先写新索引条目再写数据，旧条目在数据写入后删除；查询时回表校验
+            List<HbaseClientIndex> indexes = indexesOn(tableName, family_Name, qualifier);
+            byte[] oldValue = null;
+            if (!indexes.isEmpty()) {
+                Get get = new Get(put.getRow());
+                get.addColumn(familyName, Bytes.toBytes(qualifier));
+                oldValue = table.get(get).getValue(familyName, Bytes.toBytes(qualifier));
+                putIndexEntries(indexes, rowkey, Bytes.toBytes(content));
+            }
+
             table.put(put);
+            invalidateRow(tableName, rowkey);
+
+            if (oldValue != null && !Bytes.equals(oldValue, Bytes.toBytes(content))) {
+                deleteIndexEntries(indexes, rowkey, oldValue);
+            }
 
             LOG.info("Put successfully.");
         } catch (IOException e) {
@@ -257,6 +497,241 @@ public class HbaseUtils {
         LOG.info("Exiting Put data");
     }
 
+    /**
+     * 写入一条类型化记录，加盐表自动加盐
+     * 记录的非key字段按codec编码为二进制单元格(或packed模式下的单个单元格)，不经过String转换
+     *
+     * @param tableName 表名
+     * @param codec     记录编解码
+     * @param record    记录
+     */
+    public <T> void putRecord(String tableName, HbaseRecordCodec<T> codec, T record) throws IOException {
+        putRecords(tableName, codec, Collections.singletonList(record));
+    }
+
+    /**
+     * 批量写入类型化记录，加盐表自动加盐
+     * 经表的共享批量写入器写入(写入器维护客户端索引)，返回前刷写
+     *
+     * @param tableName 表名
+     * @param codec     记录编解码
+     * @param records   记录
+     */
+    public <T> void putRecords(String tableName, HbaseRecordCodec<T> codec, List<T> records) throws IOException {
+        RowKeySalter salter = salters.get(tableName);
+        List<Put> puts = new ArrayList<Put>(records.size());
+        for (T record : records) {
+            byte[] row = codec.toRowKey(record);
+            puts.add(codec.toPut(salter == null ? row : salter.salt(row), record));
+        }
+        HbaseBatchWriter writer = getBatchWriter(tableName);
+        writer.mutate(puts);
+        // 保持同步写入语义，写入失败时抛出异常
+        writer.flush();
+    }
+
+    /**
+     * 按key字段值读取一条类型化记录，不存在时返回null
+     *
+     * @param tableName 表名
+     * @param codec     记录编解码
+     * @param keyValues key字段值，按codec的keyFields顺序
+     */
+    public <T> T getRecord(String tableName, HbaseRecordCodec<T> codec, Object... keyValues) throws IOException {
+        byte[] row = codec.rowKey(keyValues);
+        RowKeySalter salter = salters.get(tableName);
+        Get get = new Get(salter == null ? row : salter.salt(row));
+        get.addFamily(codec.getFamily());
+        Table table = conn.getTable(TableName.valueOf(tableName));
+        try {
+            Result result = table.get(get);
+            return result.isEmpty() ? null : codec.fromResult(row, result);
+        } finally {
+            table.close();
+        }
+    }
+
+    /**
+     * 注册表的加盐策略
+     * 注册后insertData、deleteByRowkey、getDataByRowkey(s)、批量写入自动对rowkey加盐，
+     * scanData(tableName, scan, handler)按桶扇出扫描
+     *
+     * @param tableName 表名
+     * @param salter    加盐策略
+     */
+    public synchronized void registerSalter(String tableName, RowKeySalter salter) {
+        salters.put(tableName, salter);
+        HbaseBatchWriter writer = batchWriters.get(tableName);
+        if (writer != null) {
+            writer.setSalter(salter);
+        }
+    }
+
+    /**
+     * 获取表的加盐策略，未注册返回null
+     * 扫描返回的是物理rowkey，可用salter.unsalt()还原
+     */
+    public RowKeySalter getSalter(String tableName) {
+        return salters.get(tableName);
+    }
+
+    /**
+     * 启用行缓存
+     * getDataByRowkey和整行的getDataByRowkeys先查缓存，通过HbaseUtils的写入和删除会失效对应行
+     *
+     * @param maxBytes     缓存最大字节数
+     * @param defaultTtlMs 默认过期时间(毫秒)
+     */
+    public synchronized void enableRowCache(long maxBytes, long defaultTtlMs) {
+        rowCache = new HbaseRowCache(maxBytes, defaultTtlMs);
+        for (HbaseBatchWriter writer : batchWriters.values()) {
+            writer.setRowCache(rowCache);
+        }
+        LOG.info("Row cache enabled, maxBytes " + maxBytes + ", ttl " + defaultTtlMs + "ms");
+    }
+
+    /**
+     * 关闭行缓存
+     */
+    public synchronized void disableRowCache() {
+        rowCache = null;
+        for (HbaseBatchWriter writer : batchWriters.values()) {
+            writer.setRowCache(null);
+        }
+    }
+
+    /**
+     * 设置表的缓存过期时间，<=0 表示该表不缓存
+     *
+     * @param tableName 表名
+     * @param ttlMs     过期时间(毫秒)
+     */
+    public void setRowCacheTtl(String tableName, long ttlMs) {
+        HbaseRowCache cache = rowCache;
+        if (cache != null) {
+            cache.setTableTtl(tableName, ttlMs);
+        }
+    }
+
+    /**
+     * 获取行缓存，可查看命中率等统计，未启用返回null
+     */
+    public HbaseRowCache getRowCache() {
+        return rowCache;
+    }
+
+    /**
+     * 获取表的共享批量写入器(默认写缓冲和刷写间隔)
+     * 经写入器的Put/Delete同步维护表上的客户端索引，见maintainIndexes
+     *
+     * @param tableName 表名
+     */
+    public HbaseBatchWriter getBatchWriter(String tableName) throws IOException {
+        return getBatchWriter(tableName, HbaseBatchWriter.DEFAULT_WRITE_BUFFER_SIZE,
+                HbaseBatchWriter.DEFAULT_FLUSH_INTERVAL_MS, null);
+    }
+
+    /**
+     * 获取表的共享批量写入器，不存在或已关闭时按参数创建
+     *
+     * @param tableName       表名
+     * @param writeBufferSize 写缓冲大小(字节)
+     * @param flushIntervalMs 定时刷写间隔(毫秒)，<=0 不启用
+     * @param listener        异步写失败回调，可为null
+     */
+    public synchronized HbaseBatchWriter getBatchWriter(String tableName, long writeBufferSize, long flushIntervalMs,
+                                                        BufferedMutator.ExceptionListener listener) throws IOException {
+        HbaseBatchWriter writer = batchWriters.get(tableName);
+        if (writer == null || writer.isClosed()) {
+            writer = new HbaseBatchWriter(conn, tableName, writeBufferSize, flushIntervalMs, listener);
+            writer.setRowCache(rowCache);
+            writer.setSalter(salters.get(tableName));
+            writer.setIndexMaintainer(this);
+            batchWriters.put(tableName, writer);
+            LOG.info("Batch writer created for " + tableName + ", writeBufferSize " + writeBufferSize);
+        }
+        return writer;
+    }
+
+    /**
+     * 批量插入数据
+     * 数据先进入写缓冲，由缓冲大小或刷写间隔触发提交，需要立即可见时调用flushBatchWriter；
+     * 客户端索引由批量写入器维护
+     *
+     * @param tableName   表名
+     * @param family_Name 列簇
+     * @param rows        rowkey -> (列名 -> 内容)
+     */
+    public void batchInsertData(String tableName, String family_Name, Map<String, Map<String, String>> rows) {
+        LOG.info("Entering batchInsertData.");
+        try {
+            getBatchWriter(tableName).put(family_Name, rows);
+        } catch (IOException e) {
+            LOG.error("Batch put failed ", e);
+        }
+        LOG.info("Exiting batchInsertData.");
+    }
+
+    /**
+     * 刷写表的批量写入器
+     *
+     * @param tableName 表名
+     */
+    public void flushBatchWriter(String tableName) {
+        HbaseBatchWriter writer = batchWriters.get(tableName);
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                LOG.error("Flush batch writer failed ", e);
+            }
+        }
+    }
+
+    /**
+     * 关闭所有批量写入器，剩余数据在关闭前提交
+     */
+    public synchronized void closeBatchWriters() {
+        for (HbaseBatchWriter writer : batchWriters.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOG.error("Close batch writer failed ", e);
+            }
+        }
+        batchWriters.clear();
+    }
+
+
+    /**
+     * HFile批量导入
+     * 按Region边界在HDFS临时目录生成HFile后一次性导入，不经过WAL和memstore，适合初始化和回灌数据。
+     * 加盐表需要传入加盐后的rowkey，见getSalter。
+     * HFile不经过客户端，无法维护客户端二级索引，表上注册了客户端索引时拒绝导入
+     *
+     * @param tableName  表名，需已通过createTable创建，且没有客户端索引
+     * @param cells      单元格
+     * @param sorted     单元格是否已按KeyValue.COMPARATOR排序
+     * @param hdfsUtils  HDFS工具类
+     * @param stagingDir HDFS临时目录，必须不存在
+     * @return 导入的单元格数
+     */
+    public long bulkLoad(String tableName, Iterator<KeyValue> cells, boolean sorted, HdfsUtils hdfsUtils,
+                         String stagingDir) throws IOException {
+        LOG.info("Entering bulkLoad.");
+        if (!indexesOn(tableName).isEmpty()) {
+            throw new IOException("Bulk load bypasses client indexes, " + tableName + " has "
+                    + indexesOn(tableName).size() + " registered");
+        }
+        long loaded = new HbaseBulkLoader(conn, conf, hdfsUtils.getFileSystem(), tableName)
+                .load(cells, sorted, stagingDir);
+        HbaseRowCache cache = rowCache;
+        if (cache != null) {
+            cache.invalidateTable(tableName);
+        }
+        LOG.info("Exiting bulkLoad, " + loaded + " cells loaded.");
+        return loaded;
+    }
 
     /**
      * 根据rowkey删除数据
@@ -267,7 +742,7 @@ public class HbaseUtils {
     public void deleteByRowkey(String tableName, String rowkey) {
         LOG.info("Entering deleteByRowkey.");
 
-        byte[] rowKey = Bytes.toBytes(rowkey);
+        byte[] rowKey = toRowKey(tableName, rowkey);
 
         Table table = null;
         try {
@@ -275,7 +750,29 @@ public class HbaseUtils {
 
             Delete delete = new Delete(rowKey);
 
+            // 删除前读取索引列的当前值
+            List<HbaseClientIndex> indexes = indexesOn(tableName);
+            Result indexed = null;
+            if (!indexes.isEmpty()) {
+                Get get = new Get(rowKey);
+                for (HbaseClientIndex index : indexes) {
+                    get.addColumn(Bytes.toBytes(index.getFamilyName()), Bytes.toBytes(index.getQualifier()));
+                }
+                indexed = table.get(get);
+            }
+
             table.delete(delete);
+            invalidateRow(tableName, rowkey);
+
+            if (indexed != null) {
+                for (HbaseClientIndex index : indexes) {
+                    byte[] value = indexed.getValue(Bytes.toBytes(index.getFamilyName()),
+                            Bytes.toBytes(index.getQualifier()));
+                    if (value != null) {
+                        deleteIndexEntries(Collections.singletonList(index), rowkey, value);
+                    }
+                }
+            }
 
             LOG.info("Delete table successfully.");
         } catch (IOException e) {
@@ -302,22 +799,27 @@ public class HbaseUtils {
     public void getDataByRowkey(String tableName, String rowkey) {
         LOG.info("Entering GetDataByRowKey");
 
-        byte[] rowKey = Bytes.toBytes(rowkey);
+        byte[] rowKey = toRowKey(tableName, rowkey);
 
         Table table = null;
         try {
-            table = conn.getTable(TableName.valueOf(tableName));
+            HbaseRowCache cache = rowCache;
+            Result result = cache == null ? null : cache.get(tableName, rowkey);
+            if (result == null) {
+                long stamp = cache == null ? 0 : cache.readStamp(tableName, rowkey);
+                table = conn.getTable(TableName.valueOf(tableName));
 
-            Get get = new Get(rowKey);
+                Get get = new Get(rowKey);
 
-            Result result = table.get(get);
+                result = table.get(get);
+                if (cache != null) {
+                    cache.put(tableName, rowkey, result, stamp);
+                }
+            }
 
             // 打印row
             for (Cell cell : result.rawCells()) {
-                LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":"
-                        + Bytes.toString(CellUtil.cloneFamily(cell)) + ","
-                        + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
-                        + Bytes.toString(CellUtil.cloneValue(cell)));
+                LOG.info(toLogString(cell));
             }
 
             LOG.info("Get data successfully.");
@@ -338,24 +840,137 @@ public class HbaseUtils {
     }
 
     /**
-     * 扫描表
+     * 根据多个rowkey批量获取数据
      *
      * @param tableName 表名
+     * @param rowkeys   rowkey列表
+     * @return rowkey -> 结果，按传入顺序，不存在的行不返回
      */
-    public void scanData(String tableName) {
-        LOG.info("Entering ScanData.");
-
-        Table table = null;
+    public Map<String, Result> getDataByRowkeys(String tableName, List<String> rowkeys) throws IOException {
+        return getDataByRowkeys(tableName, rowkeys, null, null);
+    }
 
-        ResultScanner rScanner = null;
+    /**
+     * 根据多个rowkey批量获取数据
+     * rowkey按所在RegionServer分组，每组一次Table.get(List)，各组在读线程池中并行执行
+     * 启用行缓存时，整行读取(familyName为null)先查缓存，只读取未命中的行
+     *
+     * @param tableName  表名
+     * @param rowkeys    rowkey列表
+     * @param familyName 只取该列簇，为null取全部列簇
+     * @param qualifiers 只取这些列，为null或空取整个列簇
+     * @return rowkey -> 结果，按传入顺序，不存在的行不返回
+     */
+    public Map<String, Result> getDataByRowkeys(final String tableName, List<String> rowkeys, String familyName,
+                                                List<String> qualifiers) throws IOException {
+        LOG.info("Entering getDataByRowkeys.");
+
+        // 只缓存整行
+        HbaseRowCache cache = familyName == null ? rowCache : null;
+        Map<String, Result> fetched = new HashMap<String, Result>();
+        // 未命中的行 -> 读取前的版本号
+        Map<String, Long> missed = new LinkedHashMap<String, Long>();
+
+        // 按RegionServer分组
+        Map<ServerName, List<Get>> getsByServer = new LinkedHashMap<ServerName, List<Get>>();
+        RegionLocator locator = conn.getRegionLocator(TableName.valueOf(tableName));
         try {
+            for (String rowkey : rowkeys) {
+                if (cache != null) {
+                    Result cached = cache.get(tableName, rowkey);
+                    if (cached != null) {
+                        fetched.put(rowkey, cached);
+                        continue;
+                    }
+                    missed.put(rowkey, cache.readStamp(tableName, rowkey));
+                }
+                Get get = new Get(toRowKey(tableName, rowkey));
+                if (familyName != null) {
+                    byte[] family = Bytes.toBytes(familyName);
+                    if (qualifiers == null || qualifiers.isEmpty()) {
+                        get.addFamily(family);
+                    } else {
+                        for (String qualifier : qualifiers) {
+                            get.addColumn(family, Bytes.toBytes(qualifier));
+                        }
+                    }
+                }
+                ServerName server = locator.getRegionLocation(get.getRow()).getServerName();
+                List<Get> gets = getsByServer.get(server);
+                if (gets == null) {
+                    gets = new ArrayList<Get>();
+                    getsByServer.put(server, gets);
+                }
+                gets.add(get);
+            }
+        } finally {
+            locator.close();
+        }
 
-            table = conn.getTable(TableName.valueOf(tableName));
+        // 每个RegionServer一次批量get
+        List<Future<Result[]>> futures = new ArrayList<Future<Result[]>>(getsByServer.size());
+        for (final List<Get> gets : getsByServer.values()) {
+            futures.add(getReadPool().submit(new Callable<Result[]>() {
+                @Override
+                public Result[] call() throws IOException {
+                    Table table = conn.getTable(TableName.valueOf(tableName));
+                    try {
+                        return table.get(gets);
+                    } finally {
+                        table.close();
+                    }
+                }
+            }));
+        }
 
-            Scan scan = new Scan();
-//            scan.addColumn(Bytes.toBytes("info"), Bytes.toBytes("name"));
+        RowKeySalter salter = salters.get(tableName);
+        for (Future<Result[]> future : futures) {
+            for (Result result : await(future)) {
+                if (result != null && !result.isEmpty()) {
+                    byte[] row = salter == null ? result.getRow() : salter.unsalt(result.getRow());
+                    fetched.put(Bytes.toString(row), result);
+                }
+            }
+        }
+        if (cache != null) {
+            // 不存在的行也缓存，空Result表示不存在
+            for (Map.Entry<String, Long> miss : missed.entrySet()) {
+                Result result = fetched.get(miss.getKey());
+                cache.put(tableName, miss.getKey(), result == null ? EMPTY_ROW : result, miss.getValue());
+            }
+        }
 
-            // 设置缓存大小
+        // 按传入顺序返回
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        for (String rowkey : rowkeys) {
+            Result result = fetched.get(rowkey);
+            if (result != null && !result.isEmpty()) {
+                results.put(rowkey, result);
+            }
+        }
+        LOG.info("Exiting getDataByRowkeys, " + results.size() + " of " + rowkeys.size() + " rows found.");
+        return results;
+    }
+
+    /**
+     * 扫描表
+     *
+     * @param tableName 表名
+     */
+    public void scanData(String tableName) {
+        LOG.info("Entering ScanData.");
+
+        Table table = null;
+
+        ResultScanner rScanner = null;
+        try {
+
+            table = conn.getTable(TableName.valueOf(tableName));
+
+            Scan scan = new Scan();
+//            scan.addColumn(Bytes.toBytes("info"), Bytes.toBytes("name"));
+
+            // 设置缓存大小
             scan.setCaching(1000);
 
             rScanner = table.getScanner(scan);
@@ -363,10 +978,7 @@ public class HbaseUtils {
             // 打印结果
             for (Result r = rScanner.next(); r != null; r = rScanner.next()) {
                 for (Cell cell : r.rawCells()) {
-                    LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":"
-                            + Bytes.toString(CellUtil.cloneFamily(cell)) + ","
-                            + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
-                            + Bytes.toString(CellUtil.cloneValue(cell)));
+                    LOG.info(toLogString(cell));
                 }
             }
             LOG.info("Scan data successfully.");
@@ -390,52 +1002,299 @@ public class HbaseUtils {
 
     /**
      * 扫描表
+     * 返回的scanner持有Table，使用完后调用close()一起释放
      *
      * @param tableName 表名
      */
     public ResultScanner getScanData(String tableName) {
         LOG.info("Entering ScanData.");
 
-        Table table = null;
+        Scan scan = new Scan();
+//            scan.addColumn(Bytes.toBytes("info"), Bytes.toBytes("name"));
+
+        // 设置缓存大小
+        scan.setCaching(1000);
 
-        ResultScanner rScanner = null;
         try {
+            ResultScanner rScanner = openScanner(tableName, scan);
+            LOG.info("Scan data successfully.");
+            return rScanner;
+        } catch (IOException e) {
+            LOG.error("Scan data failed ", e);
+        }
+        return null;
+    }
 
-            table = conn.getTable(TableName.valueOf(tableName));
+    /**
+     * 创建扫描条件
+     *
+     * @param caching       每次RPC返回的行数
+     * @param batch         每个Result最多包含的列数，<=0 不限制(宽行分批返回)
+     * @param maxResultSize 每次RPC返回的最大字节数，<=0 使用服务端默认值
+     */
+    public static Scan newScan(int caching, int batch, long maxResultSize) {
+        Scan scan = new Scan();
+        scan.setCaching(caching);
+        if (batch > 0) {
+            scan.setBatch(batch);
+        }
+        if (maxResultSize > 0) {
+            scan.setMaxResultSize(maxResultSize);
+        }
+        return scan;
+    }
 
-            Scan scan = new Scan();
-//            scan.addColumn(Bytes.toBytes("info"), Bytes.toBytes("name"));
+    /**
+     * 打开scanner，返回的scanner持有Table，使用完后调用close()一起释放
+     *
+     * @param tableName 表名
+     * @param scan      扫描条件
+     */
+    public ResultScanner openScanner(String tableName, Scan scan) throws IOException {
+        Table table = conn.getTable(TableName.valueOf(tableName));
+        try {
+            return new HbaseScanner(table, table.getScanner(scan));
+        } catch (IOException e) {
+            table.close();
+            throw e;
+        }
+    }
 
-            // 设置缓存大小
-            scan.setCaching(1000);
+    /**
+     * 分页扫描第一页
+     * 每页在服务端用PageFilter限制行数并以small scan一次取回，不保留scanner；
+     * 下一页用返回的游标调用nextPage，可以在任意时间、任意实例上继续；
+     * 游标带签名，篡改后拒绝，各实例需配置相同的hbase.utils.page.cursor.secret。
+     * 支持反向扫描(scan.setReversed)；不支持setBatch(行内分批)，加盐表按物理rowkey顺序分页。
+     *
+     * @param tableName 表名
+     * @param scan      扫描条件
+     * @param pageSize  每页行数
+     */
+    public HbasePage scanPage(String tableName, Scan scan, int pageSize) throws IOException {
+        return fetchPage(tableName, scan, null, pageSize);
+    }
 
-            LOG.info("Scan data successfully.");
-            return table.getScanner(scan);
-            /*ResultScanner scanner = table.getScanner(scan);
-            // 打印结果
+    /**
+     * 按游标扫描下一页
+     *
+     * @param tableName 表名，必须与生成游标时相同
+     * @param cursor    上一页返回的游标
+     * @param pageSize  每页行数，可以与上一页不同
+     */
+    public HbasePage nextPage(String tableName, String cursor, int pageSize) throws IOException {
+        HbasePage.Cursor c = HbasePage.decode(cursor, getCursorKey());
+        if (!c.tableName.equals(tableName)) {
+            throw new IOException("Cursor was created for table " + c.tableName + ", not " + tableName);
+        }
+        return fetchPage(tableName, c.scan, c.skipRow, pageSize);
+    }
+
+    private HbasePage fetchPage(String tableName, Scan scan, byte[] skipRow, int pageSize) throws IOException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        if (scan.getBatch() > 0) {
+            throw new IllegalArgumentException("Paged scans do not support setBatch");
+        }
+        // 多取一行判断是否还有下一页，反向续扫再多取被跳过的一行
+        int limit = pageSize + 1 + (skipRow == null ? 0 : 1);
+        Scan pageScan = new Scan(scan);
+        Filter page = new PageFilter(limit);
+        pageScan.setFilter(scan.getFilter() == null ? page
+                : new FilterList(FilterList.Operator.MUST_PASS_ALL, scan.getFilter(), page));
+        pageScan.setCaching(limit);
+        pageScan.setSmall(true);
+
+        List<Result> rows = new ArrayList<Result>(limit);
+        Table table = conn.getTable(TableName.valueOf(tableName));
+        ResultScanner scanner = null;
+        try {
+            scanner = table.getScanner(pageScan);
+            for (Result r : scanner.next(limit)) {
+                if (skipRow != null && rows.isEmpty() && Bytes.equals(r.getRow(), skipRow)) {
+                    skipRow = null;
+                    continue;
+                }
+                skipRow = null;
+                rows.add(r);
+            }
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+            table.close();
+        }
+
+        if (rows.size() <= pageSize) {
+            return new HbasePage(rows, null);
+        }
+        rows = rows.subList(0, pageSize);
+        return new HbasePage(rows, HbasePage.encode(tableName, scan, rows.get(pageSize - 1).getRow(),
+                getCursorKey()));
+    }
+
+    private static synchronized byte[] getCursorKey() {
+        if (cursorKey == null) {
+            String secret = conf.get(PAGE_CURSOR_SECRET_KEY);
+            if (secret != null && !secret.isEmpty()) {
+                cursorKey = Bytes.toBytes(secret);
+            } else {
+                LOG.warn(PAGE_CURSOR_SECRET_KEY + " is not set, scan cursors are only valid in this process");
+                cursorKey = new byte[32];
+                new SecureRandom().nextBytes(cursorKey);
+            }
+        }
+        return cursorKey;
+    }
+
+    /**
+     * 流式扫描表，每行回调一次，扫描结束或失败时释放资源
+     * 加盐表的起止行按逻辑rowkey解释，扫描扇出到每个桶并行执行，结果按桶依次回调
+     *
+     * @param tableName 表名
+     * @param scan      扫描条件，caching/batch/maxResultSize由调用方设置
+     * @param handler   行回调
+     * @return 扫描的行数
+     */
+    public long scanData(String tableName, Scan scan, ResultHandler handler) throws IOException {
+        RowKeySalter salter = salters.get(tableName);
+        if (salter != null) {
+            return scanSalted(tableName, scan, salter, handler);
+        }
+
+        long rows = 0;
+        ResultScanner rScanner = openScanner(tableName, scan);
+        try {
+            for (Result r = rScanner.next(); r != null; r = rScanner.next()) {
+                handler.handle(r);
+                rows++;
+            }
+        } finally {
+            rScanner.close();
+        }
+        return rows;
+    }
+
+    // 把逻辑范围扫描扇出到每个桶
+    private long scanSalted(String tableName, Scan scan, RowKeySalter salter, ResultHandler handler)
+            throws IOException {
+        byte[] start = scan.getStartRow();
+        byte[] stop = scan.getStopRow();
+        List<Pair<byte[], byte[]>> ranges = new ArrayList<Pair<byte[], byte[]>>(salter.getBuckets());
+        for (int bucket = 0; bucket < salter.getBuckets(); bucket++) {
+            byte[] prefix = salter.getPrefix(bucket);
+            ranges.add(new Pair<byte[], byte[]>(Bytes.add(prefix, start),
+                    stop.length == 0 ? prefixStop(prefix) : Bytes.add(prefix, stop)));
+        }
+        int parallelism = Math.min(salter.getBuckets(), conf.getInt(READ_THREADS_KEY, DEFAULT_READ_THREADS));
+        return new HbaseParallelScanner(conn, tableName, scan, parallelism).setRanges(ranges).scanOrdered(handler);
+    }
+
+    /**
+     * 流式扫描表，每个单元格回调一次
+     * 单元格直接引用scanner返回的数据，不复制row/family/qualifier/value
+     *
+     * @param tableName 表名
+     * @param scan      扫描条件，caching/batch/maxResultSize由调用方设置
+     * @param handler   单元格回调
+     * @return 扫描的单元格数
+     */
+    public long scanCells(String tableName, Scan scan, CellHandler handler) throws IOException {
+        long cells = 0;
+        ResultScanner rScanner = openScanner(tableName, scan);
+        try {
             for (Result r = rScanner.next(); r != null; r = rScanner.next()) {
                 for (Cell cell : r.rawCells()) {
-                    LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":"
-                            + Bytes.toString(CellUtil.cloneFamily(cell)) + ","
-                            + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
-                            + Bytes.toString(CellUtil.cloneValue(cell)));
+                    handler.handle(cell);
+                    cells++;
                 }
-            }*/
-        } catch (IOException e) {
-            LOG.error("Scan data failed ", e);
-        } finally {
-            if (rScanner != null) {
-                rScanner.close();
             }
-            if (table != null) {
-                try {
-                    table.close();
-                } catch (IOException e) {
-                    LOG.error("Close table failed ", e);
+        } finally {
+            rScanner.close();
+        }
+        return cells;
+    }
+
+    /**
+     * 获取共享的异步客户端
+     * 并发上限由hbase.utils.async.max.inflight指定，默认超时由hbase.utils.async.timeout.ms指定；
+     * 经该客户端的put/delete同步维护客户端索引
+     */
+    public synchronized HbaseAsyncClient getAsyncClient() {
+        if (asyncClient == null) {
+            asyncClient = new HbaseAsyncClient(conn,
+                    conf.getInt(ASYNC_MAX_IN_FLIGHT_KEY, DEFAULT_ASYNC_MAX_IN_FLIGHT),
+                    conf.getLong(ASYNC_TIMEOUT_MS_KEY, DEFAULT_ASYNC_TIMEOUT_MS));
+            asyncClient.setIndexMaintainer(this);
+        }
+        return asyncClient;
+    }
+
+    /**
+     * 并行扫描表
+     * 按Region边界切分扫描范围，每个Region一个scanner并行执行
+     *
+     * @param tableName   表名
+     * @param scan        扫描条件，起止行、过滤器、caching等对每个分片生效
+     * @param parallelism 并行线程数
+     * @param handler     结果回调，无序模式下会被并发调用
+     * @param ordered     是否按rowkey顺序回调
+     * @return 扫描的行数
+     */
+    public long parallelScanData(String tableName, Scan scan, int parallelism, ResultHandler handler,
+                                 boolean ordered) throws IOException {
+        LOG.info("Entering parallelScanData.");
+        HbaseParallelScanner scanner = new HbaseParallelScanner(conn, tableName, scan, parallelism);
+        long rows = ordered ? scanner.scanOrdered(handler) : scanner.scan(handler);
+        LOG.info("Exiting parallelScanData, " + rows + " rows scanned.");
+        return rows;
+    }
+
+    /**
+     * 按查询条件扫描表
+     * rowkey条件和前缀转换为起止行，列条件在服务端过滤，达到limit后停止
+     *
+     * @param tableName 表名
+     * @param query     查询条件
+     * @param handler   行回调
+     * @return 返回的行数
+     */
+    public long query(String tableName, HbaseQuery query, final ResultHandler handler) throws IOException {
+        LOG.info("Entering query.");
+        if (query.isEmpty()) {
+            LOG.info("Exiting query, rowkey bounds do not overlap.");
+            return 0;
+        }
+
+        final int limit = query.getLimit();
+        Scan scan = query.toScan();
+        long rows = 0;
+        if (salters.containsKey(tableName)) {
+            // 加盐表按桶扇出，每个桶的PageFilter已限制返回量，这里再截断
+            final AtomicInteger count = new AtomicInteger();
+            scanData(tableName, scan, new ResultHandler() {
+                @Override
+                public void handle(Result result) throws IOException {
+                    if (limit <= 0 || count.incrementAndGet() <= limit) {
+                        handler.handle(result);
+                    }
+                }
+            });
+            rows = limit <= 0 ? count.get() : Math.min(count.get(), limit);
+        } else {
+            ResultScanner rScanner = openScanner(tableName, scan);
+            try {
+                for (Result r = rScanner.next(); r != null && (limit <= 0 || rows < limit); r = rScanner.next()) {
+                    handler.handle(r);
+                    rows++;
                 }
+            } finally {
+                rScanner.close();
             }
         }
-        return null;
+        LOG.info("Exiting query, " + rows + " rows returned.");
+        return rows;
     }
 
     /**
@@ -463,7 +1322,7 @@ public class HbaseUtils {
 
             // 设置过滤条件
             SingleColumnValueFilter filter = new SingleColumnValueFilter(Bytes.toBytes(familyName),
-                    Bytes.toBytes(qualifier), CompareFilter.CompareOp.EQUAL, Bytes.toBytes(value));
+                    Bytes.toBytes(qualifier), compareOp, Bytes.toBytes(value));
 
             scan.setFilter(filter);
 
@@ -473,10 +1332,7 @@ public class HbaseUtils {
             // 打印
             for (Result r = rScanner.next(); r != null; r = rScanner.next()) {
                 for (Cell cell : r.rawCells()) {
-                    LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":"
-                            + Bytes.toString(CellUtil.cloneFamily(cell)) + ","
-                            + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
-                            + Bytes.toString(CellUtil.cloneValue(cell)));
+                    LOG.info(toLogString(cell));
                 }
             }
             LOG.info("Single column value filter successfully.");
@@ -524,8 +1380,7 @@ public class HbaseUtils {
 
             admin = conn.getAdmin();
 
-            // 指定索引列加密方式
-            admin.disableTable(TableName.valueOf(tableName));
+            // 指定索引列加密方式，表保持在线
             HTableDescriptor htd = admin.getTableDescriptor(TableName.valueOf(tableName));
 
             // 实例化索引列描述
@@ -533,8 +1388,7 @@ public class HbaseUtils {
                     IndexMasterObserver.DEFAULT_INDEX_COL_DESC);
 
             htd.setValue(Constants.INDEX_COL_DESC_BYTES, indexColDesc.toByteArray());
-            admin.modifyTable(TableName.valueOf(tableName), htd);
-            admin.enableTable(TableName.valueOf(tableName));
+            getSchemaChanger().modifyTable(tableName, htd);
 
             LOG.info("Create index successfully.");
 
@@ -588,12 +1442,203 @@ public class HbaseUtils {
         LOG.info("Exiting dropIndex.");
     }
 
+    /**
+     * 创建客户端维护的二级索引
+     * 创建索引表并用表中已有数据初始化，之后通过HbaseUtils写入和删除的数据会同步维护索引，
+     * 等值和范围查询变为索引表范围扫描加数据表批量get，不依赖服务端索引插件
+     *
+     * @param tableName  表名
+     * @param indexName  索引名
+     * @param familyName 需要索引的列族
+     * @param qualifier  索引列名
+     */
+    public void createClientIndex(String tableName, String indexName, String familyName, String qualifier) {
+        LOG.info("Entering createClientIndex.");
+
+        final HbaseClientIndex index = new HbaseClientIndex(tableName, indexName, familyName, qualifier);
+        createTable(index.getIndexTableName(), Bytes.toString(HbaseClientIndex.INDEX_FAMILY));
+        registerClientIndex(index);
+
+        // 用已有数据初始化索引
+        final byte[] family = Bytes.toBytes(familyName);
+        final byte[] column = Bytes.toBytes(qualifier);
+        final RowKeySalter salter = salters.get(tableName);
+        Scan scan = newScan(1000, 0, 0);
+        scan.addColumn(family, column);
+        try {
+            final HbaseBatchWriter writer = getBatchWriter(index.getIndexTableName());
+            long rows = scanData(tableName, scan, new ResultHandler() {
+                @Override
+                public void handle(Result result) throws IOException {
+                    byte[] row = salter == null ? result.getRow() : salter.unsalt(result.getRow());
+                    writer.mutate(index.indexPut(result.getValue(family, column), row));
+                }
+            });
+            writer.flush();
+            LOG.info("Create client index successfully, " + rows + " rows indexed.");
+        } catch (IOException e) {
+            LOG.error("Create client index failed.", e);
+        }
+        LOG.info("Exiting createClientIndex.");
+    }
+
+    /**
+     * 注册已存在的客户端二级索引，进程重启后调用
+     */
+    public void registerClientIndex(HbaseClientIndex index) {
+        List<HbaseClientIndex> indexes = clientIndexes.get(index.getTableName());
+        if (indexes == null) {
+            indexes = new CopyOnWriteArrayList<HbaseClientIndex>();
+            List<HbaseClientIndex> existing = clientIndexes.putIfAbsent(index.getTableName(), indexes);
+            if (existing != null) {
+                indexes = existing;
+            }
+        }
+        for (HbaseClientIndex registered : indexes) {
+            if (registered.getIndexName().equals(index.getIndexName())) {
+                indexes.remove(registered);
+            }
+        }
+        indexes.add(index);
+    }
+
+    /**
+     * 删除客户端二级索引及索引表
+     *
+     * @param tableName 表名
+     * @param indexName 索引名
+     */
+    public void dropClientIndex(String tableName, String indexName) {
+        HbaseClientIndex index = getClientIndex(tableName, indexName);
+        if (index != null) {
+            clientIndexes.get(tableName).remove(index);
+            dropTable(index.getIndexTableName());
+        }
+    }
+
+    /**
+     * 获取已注册的客户端二级索引，不存在返回null
+     */
+    public HbaseClientIndex getClientIndex(String tableName, String indexName) {
+        for (HbaseClientIndex index : indexesOn(tableName)) {
+            if (index.getIndexName().equals(indexName)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 通过客户端二级索引查询
+     * 扫描索引表得到rowkey，按批回表读取，并校验当前值仍满足条件
+     *
+     * @param tableName 表名
+     * @param indexName 索引名
+     * @param compareOp 比较方式
+     * @param value     比较值
+     * @param handler   行回调
+     * @return 返回的行数
+     */
+    public long queryByIndex(String tableName, String indexName, CompareFilter.CompareOp compareOp, String value,
+                             ResultHandler handler) throws IOException {
+        HbaseClientIndex index = getClientIndex(tableName, indexName);
+        if (index == null) {
+            throw new IOException("Client index " + indexName + " is not registered on " + tableName);
+        }
+        byte[] family = Bytes.toBytes(index.getFamilyName());
+        byte[] column = Bytes.toBytes(index.getQualifier());
+
+        long rows = 0;
+        List<byte[]> rowkeys = new ArrayList<byte[]>(INDEX_FETCH_BATCH);
+        for (Pair<byte[], byte[]> range : index.ranges(compareOp, value)) {
+            Scan scan = newScan(INDEX_FETCH_BATCH, 0, 0);
+            scan.setStartRow(range.getFirst());
+            scan.setStopRow(range.getSecond());
+            scan.addColumn(HbaseClientIndex.INDEX_FAMILY, HbaseClientIndex.ROWKEY_QUALIFIER);
+            ResultScanner rScanner = openScanner(index.getIndexTableName(), scan);
+            try {
+                for (Result r = rScanner.next(); r != null; r = rScanner.next()) {
+                    rowkeys.add(r.getValue(HbaseClientIndex.INDEX_FAMILY, HbaseClientIndex.ROWKEY_QUALIFIER));
+                    if (rowkeys.size() >= INDEX_FETCH_BATCH) {
+                        rows += fetchIndexed(tableName, rowkeys, family, column, compareOp, value, handler);
+                        rowkeys.clear();
+                    }
+                }
+            } finally {
+                rScanner.close();
+            }
+        }
+        rows += fetchIndexed(tableName, rowkeys, family, column, compareOp, value, handler);
+        return rows;
+    }
+
+    // 回表读取并校验；rowkey按原始字节读取，二进制rowkey不经过String转换
+    private long fetchIndexed(String tableName, List<byte[]> rowkeys, byte[] family, byte[] column,
+                              CompareFilter.CompareOp compareOp, String value, ResultHandler handler)
+            throws IOException {
+        if (rowkeys.isEmpty()) {
+            return 0;
+        }
+        long rows = 0;
+        for (Result result : getRows(tableName, rowkeys, null, null)) {
+            if (HbaseClientIndex.matches(result.getValue(family, column), compareOp, value)) {
+                handler.handle(result);
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    // 按逻辑rowkey(字节)批量get，加盐表自动加盐，只返回存在的行；family为null时读取整行
+    private List<Result> getRows(String tableName, List<byte[]> rows, byte[] family, byte[] column)
+            throws IOException {
+        RowKeySalter salter = salters.get(tableName);
+        List<Get> gets = new ArrayList<Get>(rows.size());
+        for (byte[] row : rows) {
+            Get get = new Get(salter == null ? row : salter.salt(row));
+            if (family != null) {
+                get.addColumn(family, column);
+            }
+            gets.add(get);
+        }
+        List<Result> found = new ArrayList<Result>(gets.size());
+        Table table = conn.getTable(TableName.valueOf(tableName));
+        try {
+            for (Result result : table.get(gets)) {
+                if (result != null && !result.isEmpty()) {
+                    found.add(result);
+                }
+            }
+        } finally {
+            table.close();
+        }
+        return found;
+    }
+
     /**
      * 根据二级索引扫描数据
      */
     public void scanDataByIndex(String tableName, String familyName, String qualifier, CompareFilter.CompareOp compareOp, String value) {
         LOG.info("Entering ScanDataByIndex.");
 
+        for (HbaseClientIndex index : indexesOn(tableName, familyName, qualifier)) {
+            try {
+                long rows = queryByIndex(tableName, index.getIndexName(), compareOp, value, new ResultHandler() {
+                    @Override
+                    public void handle(Result result) {
+                        for (Cell cell : result.rawCells()) {
+                            LOG.info(toLogString(cell));
+                        }
+                    }
+                });
+                LOG.info("Scan data by client index " + index.getIndexName() + " successfully, " + rows + " rows.");
+            } catch (IOException e) {
+                LOG.error("Scan data by index failed ", e);
+            }
+            LOG.info("Exiting scanDataByIndex.");
+            return;
+        }
+
         Table table = null;
         ResultScanner scanner = null;
         try {
@@ -601,7 +1646,7 @@ public class HbaseUtils {
 
             // 为索引列创建过滤器
             Filter filter = new SingleColumnValueFilter(Bytes.toBytes(familyName), Bytes.toBytes(qualifier),
-                    CompareFilter.CompareOp.EQUAL, value.getBytes());
+                    compareOp, Bytes.toBytes(value));
             Scan scan = new Scan();
             scan.setFilter(filter);
             scanner = table.getScanner(scan);
@@ -609,10 +1654,7 @@ public class HbaseUtils {
 
             for (Result result : scanner) {
                 for (Cell cell : result.rawCells()) {
-                    LOG.info(Bytes.toString(CellUtil.cloneRow(cell)) + ":"
-                            + Bytes.toString(CellUtil.cloneFamily(cell)) + ","
-                            + Bytes.toString(CellUtil.cloneQualifier(cell)) + ","
-                            + Bytes.toString(CellUtil.cloneValue(cell)));
+                    LOG.info(toLogString(cell));
                 }
             }
             LOG.info("Scan data by index successfully.");
@@ -633,4 +1675,270 @@ public class HbaseUtils {
 
         LOG.info("Exiting scanDataByIndex.");
     }
+
+    private static List<HbaseClientIndex> indexesOn(String tableName) {
+        List<HbaseClientIndex> indexes = clientIndexes.get(tableName);
+        return indexes == null ? Collections.<HbaseClientIndex>emptyList() : indexes;
+    }
+
+    private static List<HbaseClientIndex> indexesOn(String tableName, String familyName, String qualifier) {
+        List<HbaseClientIndex> covering = new ArrayList<HbaseClientIndex>(1);
+        for (HbaseClientIndex index : indexesOn(tableName)) {
+            if (index.covers(familyName, qualifier)) {
+                covering.add(index);
+            }
+        }
+        return covering;
+    }
+
+    private void putIndexEntries(List<HbaseClientIndex> indexes, String rowkey, byte[] value) throws IOException {
+        for (HbaseClientIndex index : indexes) {
+            Table indexTable = conn.getTable(TableName.valueOf(index.getIndexTableName()));
+            try {
+                indexTable.put(index.indexPut(value, rowkey));
+            } finally {
+                indexTable.close();
+            }
+        }
+    }
+
+    private void deleteIndexEntries(List<HbaseClientIndex> indexes, String rowkey, byte[] value) throws IOException {
+        for (HbaseClientIndex index : indexes) {
+            Table indexTable = conn.getTable(TableName.valueOf(index.getIndexTableName()));
+            try {
+                indexTable.delete(index.indexDelete(value, rowkey));
+            } finally {
+                indexTable.close();
+            }
+        }
+    }
+
+    /**
+     * 写入数据表前为Put维护客户端索引：写入索引列新值的条目，删除值已改变的旧条目
+     * 批量写入器和异步客户端的写入经过这里
+     *
+     * @param tableName 数据表名
+     * @param mutations 物理rowkey的mutation，非Put忽略
+     * @param flush     是否立即刷写索引表，同步写入时为true
+     */
+    void indexPuts(String tableName, List<? extends Mutation> mutations, boolean flush) throws IOException {
+        RowKeySalter salter = salters.get(tableName);
+        for (HbaseClientIndex index : indexesOn(tableName)) {
+            byte[] family = Bytes.toBytes(index.getFamilyName());
+            byte[] column = Bytes.toBytes(index.getQualifier());
+            // 二进制rowkey不能转成String作key，按字节比较
+            Map<ImmutableBytesWritable, byte[]> values = new LinkedHashMap<ImmutableBytesWritable, byte[]>();
+            for (Mutation mutation : mutations) {
+                if (mutation instanceof Put) {
+                    List<Cell> cells = ((Put) mutation).get(family, column);
+                    if (!cells.isEmpty()) {
+                        byte[] row = salter == null ? mutation.getRow() : salter.unsalt(mutation.getRow());
+                        values.put(new ImmutableBytesWritable(row),
+                                CellUtil.cloneValue(cells.get(cells.size() - 1)));
+                    }
+                }
+            }
+            if (!values.isEmpty()) {
+                updateIndexBatch(index, values);
+                if (flush) {
+                    getBatchWriter(index.getIndexTableName()).flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入数据表前读取Delete将删除的索引列当前值，返回对应的索引条目删除，数据删除成功后用writeIndexEntries写入
+     * 只处理删除整行、整个列簇或整列的Delete；只删除单个版本时不处理，留下的过期条目由查询回表校验过滤
+     *
+     * @param tableName 数据表名
+     * @param mutations 物理rowkey的mutation，非Delete忽略
+     * @return 索引 -> 索引表删除，没有时为空
+     */
+    Map<HbaseClientIndex, List<Mutation>> staleIndexEntries(String tableName, List<? extends Mutation> mutations)
+            throws IOException {
+        Map<HbaseClientIndex, List<Mutation>> entries = new LinkedHashMap<HbaseClientIndex, List<Mutation>>();
+        RowKeySalter salter = salters.get(tableName);
+        for (HbaseClientIndex index : indexesOn(tableName)) {
+            byte[] family = Bytes.toBytes(index.getFamilyName());
+            byte[] column = Bytes.toBytes(index.getQualifier());
+            List<byte[]> rows = new ArrayList<byte[]>();
+            for (Mutation mutation : mutations) {
+                if (mutation instanceof Delete && deletesColumn((Delete) mutation, family, column)) {
+                    rows.add(salter == null ? mutation.getRow() : salter.unsalt(mutation.getRow()));
+                }
+            }
+            if (rows.isEmpty()) {
+                continue;
+            }
+            List<Mutation> deletes = new ArrayList<Mutation>(rows.size());
+            for (Map.Entry<ImmutableBytesWritable, byte[]> old : currentValues(index, rows).entrySet()) {
+                deletes.add(index.indexDelete(old.getValue(), old.getKey().copyBytes()));
+            }
+            if (!deletes.isEmpty()) {
+                entries.put(index, deletes);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 写入staleIndexEntries返回的索引条目删除
+     *
+     * @param entries 索引 -> 索引表删除
+     * @param flush   是否立即刷写索引表，同步写入时为true
+     */
+    void writeIndexEntries(Map<HbaseClientIndex, List<Mutation>> entries, boolean flush) throws IOException {
+        for (Map.Entry<HbaseClientIndex, List<Mutation>> entry : entries.entrySet()) {
+            HbaseBatchWriter writer = getBatchWriter(entry.getKey().getIndexTableName());
+            writer.mutate(entry.getValue());
+            if (flush) {
+                writer.flush();
+            }
+        }
+    }
+
+    // Delete是否删除该列的所有版本：删除整行、整个列簇或整列
+    private static boolean deletesColumn(Delete delete, byte[] family, byte[] column) {
+        if (delete.getFamilyCellMap().isEmpty()) {
+            return true;
+        }
+        List<Cell> cells = delete.getFamilyCellMap().get(family);
+        if (cells == null) {
+            return false;
+        }
+        for (Cell cell : cells) {
+            KeyValue.Type type = KeyValue.Type.codeToType(cell.getTypeByte());
+            if (type == KeyValue.Type.DeleteFamily
+                    || (type == KeyValue.Type.DeleteColumn && CellUtil.matchingQualifier(cell, column))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 批量写入时维护索引：读取旧值，写入新条目，删除值已改变的旧条目；values为 逻辑rowkey -> 索引列新值
+    private void updateIndexBatch(HbaseClientIndex index, Map<ImmutableBytesWritable, byte[]> values)
+            throws IOException {
+        List<byte[]> rows = new ArrayList<byte[]>(values.size());
+        for (ImmutableBytesWritable row : values.keySet()) {
+            rows.add(row.copyBytes());
+        }
+        Map<ImmutableBytesWritable, byte[]> current = currentValues(index, rows);
+
+        List<Mutation> mutations = new ArrayList<Mutation>(rows.size());
+        for (Map.Entry<ImmutableBytesWritable, byte[]> entry : values.entrySet()) {
+            byte[] row = entry.getKey().copyBytes();
+            byte[] newValue = entry.getValue();
+            mutations.add(index.indexPut(newValue, row));
+            byte[] oldValue = current.get(entry.getKey());
+            if (oldValue != null && !Bytes.equals(oldValue, newValue)) {
+                mutations.add(index.indexDelete(oldValue, row));
+            }
+        }
+        getBatchWriter(index.getIndexTableName()).mutate(mutations);
+    }
+
+    // 读取这些行(逻辑rowkey)索引列的当前值，不存在的行不返回
+    private Map<ImmutableBytesWritable, byte[]> currentValues(HbaseClientIndex index, List<byte[]> rows)
+            throws IOException {
+        // 数据表写入器中尚未刷写的写入读不到，先刷写，否则会按过期的旧值维护索引
+        HbaseBatchWriter dataWriter = batchWriters.get(index.getTableName());
+        if (dataWriter != null && !dataWriter.isClosed() && dataWriter.hasUnflushed(rows)) {
+            dataWriter.flush();
+        }
+        byte[] family = Bytes.toBytes(index.getFamilyName());
+        byte[] column = Bytes.toBytes(index.getQualifier());
+        RowKeySalter salter = salters.get(index.getTableName());
+        Map<ImmutableBytesWritable, byte[]> current = new HashMap<ImmutableBytesWritable, byte[]>();
+        for (Result result : getRows(index.getTableName(), rows, family, column)) {
+            byte[] value = result.getValue(family, column);
+            if (value != null) {
+                byte[] row = salter == null ? result.getRow() : salter.unsalt(result.getRow());
+                current.put(new ImmutableBytesWritable(row), value);
+            }
+        }
+        return current;
+    }
+
+    // 逻辑rowkey转物理rowkey
+    static byte[] toRowKey(String tableName, String rowkey) {
+        RowKeySalter salter = salters.get(tableName);
+        byte[] row = Bytes.toBytes(rowkey);
+        return salter == null ? row : salter.salt(row);
+    }
+
+    /**
+     * 前缀扫描的结束行：前缀最后一个非0xFF字节加一并截断，前缀全为0xFF时返回空数组(表尾)
+     */
+    static byte[] prefixStop(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] stop = Arrays.copyOf(prefix, i + 1);
+                stop[i]++;
+                return stop;
+            }
+        }
+        return HConstants.EMPTY_END_ROW;
+    }
+
+    private static void invalidateRow(String tableName, String rowkey) {
+        HbaseRowCache cache = rowCache;
+        if (cache != null) {
+            cache.invalidate(tableName, rowkey);
+        }
+    }
+
+    // 按物理rowkey失效缓存
+    static void invalidateRow(String tableName, byte[] row) {
+        HbaseRowCache cache = rowCache;
+        if (cache != null) {
+            RowKeySalter salter = salters.get(tableName);
+            cache.invalidate(tableName, Bytes.toString(salter == null ? row : salter.unsalt(row)));
+        }
+    }
+
+    // 单元格转日志字符串，直接从cell的数组区间解码，不复制
+    private static String toLogString(Cell cell) {
+        return Bytes.toString(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()) + ":"
+                + Bytes.toString(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength()) + ","
+                + Bytes.toString(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength()) + ","
+                + Bytes.toString(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+    }
+
+    /**
+     * 并行读线程池，线程数由hbase.utils.read.threads指定
+     * 队列满时由提交线程执行，限制排队数量
+     */
+    static synchronized ExecutorService getReadPool() {
+        if (readPool == null) {
+            int threads = conf.getInt(READ_THREADS_KEY, DEFAULT_READ_THREADS);
+            final AtomicInteger seq = new AtomicInteger();
+            readPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * 64), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "hbase-utils-read-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return readPool;
+    }
+
+    // 等待并行任务结果，还原IOException
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for HBase request");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
 }
@@ -0,0 +1,359 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 批量并发的HDFS命名空间操作
+ * delete/mkdirs/rename/setPermission/setReplication都是单次NameNode RPC，逐个串行调用时耗时主要是RPC往返，
+ * 这里用固定大小的线程池并发提交，并发度即同时在途的RPC数。路径可以是普通路径或glob模式(如 /warehouse/t/dt=2019*)，
+ * 每个路径的结果单独记录，一个路径失败不影响其他路径。dryRun时只展开glob并列出将要操作的路径。
+ * 修改通过HdfsMetadataCache执行或在执行后失效对应条目。
+ * 删除时拒绝深度小于minDeleteDepth(默认2，即 /a/b)的路径，防止 /* 或 /user/* 这类glob误删顶层目录。
+ */
+public class HdfsBulkOperations {
+
+    private final static Log LOG = LogFactory.getLog(HdfsBulkOperations.class.getName());
+
+    public static final int DEFAULT_MIN_DELETE_DEPTH = 2;
+
+    /**
+     * 单个路径的执行结果
+     */
+    public enum Status {
+        // 执行成功
+        OK,
+        // 操作没有生效，如路径不存在
+        SKIPPED,
+        // 抛出异常
+        FAILED,
+        // dryRun，未执行
+        DRY_RUN
+    }
+
+    /**
+     * 单个路径的结果
+     */
+    public static class Outcome {
+        private final Path path;
+        private final Status status;
+        private final IOException error;
+
+        Outcome(Path path, Status status, IOException error) {
+            this.path = path;
+            this.status = status;
+            this.error = error;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * FAILED时的异常，其他情况为null；非IOException的异常包装为IOException
+         */
+        public IOException getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return path + " " + status + (error == null ? "" : ": " + error.getMessage());
+        }
+    }
+
+    /**
+     * 一次批量操作的汇总结果，outcomes与输入路径顺序一致
+     */
+    public static class Result {
+        private final String operation;
+        private final List<Outcome> outcomes;
+        private final long elapsedMs;
+
+        Result(String operation, List<Outcome> outcomes, long elapsedMs) {
+            this.operation = operation;
+            this.outcomes = outcomes;
+            this.elapsedMs = elapsedMs;
+        }
+
+        public List<Outcome> getOutcomes() {
+            return outcomes;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        public int count(Status status) {
+            int count = 0;
+            for (Outcome outcome : outcomes) {
+                if (outcome.status == status) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 失败的路径
+         */
+        public List<Outcome> getFailures() {
+            List<Outcome> failures = new ArrayList<Outcome>();
+            for (Outcome outcome : outcomes) {
+                if (outcome.status == Status.FAILED) {
+                    failures.add(outcome);
+                }
+            }
+            return failures;
+        }
+
+        public boolean isSuccess() {
+            return count(Status.FAILED) == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d paths: ok %d, skipped %d, failed %d, dry-run %d, %.1f s", operation,
+                    outcomes.size(), count(Status.OK), count(Status.SKIPPED), count(Status.FAILED),
+                    count(Status.DRY_RUN), elapsedMs / 1000.0);
+        }
+    }
+
+    /**
+     * 对单个路径执行的操作，返回false表示没有生效
+     */
+    private interface PathAction {
+        boolean run(Path path) throws IOException;
+    }
+
+    private final FileSystem fs;
+
+    private final HdfsMetadataCache cache;
+
+    private final int threads;
+
+    private boolean dryRun;
+
+    private int minDeleteDepth = DEFAULT_MIN_DELETE_DEPTH;
+
+    /**
+     * @param fs      文件系统
+     * @param cache   元数据缓存，修改后失效
+     * @param threads 并发度
+     */
+    public HdfsBulkOperations(FileSystem fs, HdfsMetadataCache cache, int threads) {
+        this.fs = fs;
+        this.cache = cache;
+        this.threads = threads;
+    }
+
+    /**
+     * 只展开路径不执行，结果状态为DRY_RUN
+     */
+    public HdfsBulkOperations setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    /**
+     * 允许删除的最小路径深度(/a为1，/a/b为2)，默认2；明确需要删除顶层目录时设为1，根目录总是拒绝
+     */
+    public HdfsBulkOperations setMinDeleteDepth(int minDeleteDepth) {
+        this.minDeleteDepth = minDeleteDepth;
+        return this;
+    }
+
+    /**
+     * 展开路径：含glob字符的按globStatus展开(没有匹配时为空)，其他原样保留，结果去重并保持顺序
+     */
+    public List<Path> resolve(Collection<String> patterns) throws IOException {
+        Map<Path, Boolean> paths = new LinkedHashMap<Path, Boolean>();
+        for (String pattern : patterns) {
+            if (!isGlob(pattern)) {
+                paths.put(new Path(pattern), Boolean.TRUE);
+                continue;
+            }
+            FileStatus[] matched = fs.globStatus(new Path(pattern));
+            if (matched != null) {
+                for (FileStatus status : matched) {
+                    paths.put(status.getPath(), Boolean.TRUE);
+                }
+            }
+        }
+        return new ArrayList<Path>(paths.keySet());
+    }
+
+    /**
+     * 删除文件或目录，不存在的路径为SKIPPED
+     */
+    public Result delete(Collection<String> patterns, final boolean recursive) throws IOException {
+        List<Path> paths = resolve(patterns);
+        for (Path path : paths) {
+            // 防止glob写错时删除根目录或顶层目录，在执行任何删除之前检查；相对路径按工作目录计算深度
+            Path qualified = fs.makeQualified(path);
+            if (qualified.getParent() == null) {
+                throw new IllegalArgumentException("Refuse to delete root directory");
+            }
+            if (qualified.depth() < minDeleteDepth) {
+                throw new IllegalArgumentException("Refuse to delete " + qualified + " with depth "
+                        + qualified.depth() + " < " + minDeleteDepth + ", see setMinDeleteDepth");
+            }
+        }
+        return run("delete", paths, new PathAction() {
+            @Override
+            public boolean run(Path path) throws IOException {
+                return cache.delete(path, recursive);
+            }
+        });
+    }
+
+    /**
+     * 创建目录，已存在的目录也是OK
+     */
+    public Result mkdirs(Collection<String> paths) throws IOException {
+        return run("mkdirs", resolve(paths), new PathAction() {
+            @Override
+            public boolean run(Path path) throws IOException {
+                return cache.mkdirs(path);
+            }
+        });
+    }
+
+    /**
+     * 按 源路径 -> 目标路径 重命名，目标的父目录需要已存在；结果的路径为源路径
+     */
+    public Result rename(final Map<String, String> renames) throws IOException {
+        final Map<Path, Path> targets = new LinkedHashMap<Path, Path>();
+        for (Map.Entry<String, String> entry : renames.entrySet()) {
+            targets.put(new Path(entry.getKey()), new Path(entry.getValue()));
+        }
+        return run("rename", new ArrayList<Path>(targets.keySet()), new PathAction() {
+            @Override
+            public boolean run(Path path) throws IOException {
+                return cache.rename(path, targets.get(path));
+            }
+        });
+    }
+
+    /**
+     * 把匹配的文件或目录移动到目标目录下，保留原名，目标目录不存在时创建
+     */
+    public Result move(Collection<String> patterns, String targetDir) throws IOException {
+        final Path dir = new Path(targetDir);
+        List<Path> paths = resolve(patterns);
+        if (!dryRun && !paths.isEmpty()) {
+            cache.mkdirs(dir);
+        }
+        return run("move", paths, new PathAction() {
+            @Override
+            public boolean run(Path path) throws IOException {
+                return cache.rename(path, new Path(dir, path.getName()));
+            }
+        });
+    }
+
+    /**
+     * 设置权限，不递归
+     */
+    public Result setPermission(Collection<String> patterns, final FsPermission permission) throws IOException {
+        return run("setPermission", resolve(patterns), new PathAction() {
+            @Override
+            public boolean run(Path path) throws IOException {
+                try {
+                    fs.setPermission(path, permission);
+                } finally {
+                    cache.invalidate(path);
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 设置副本数，目录为SKIPPED
+     */
+    public Result setReplication(Collection<String> patterns, final short replication) throws IOException {
+        return run("setReplication", resolve(patterns), new PathAction() {
+            @Override
+            public boolean run(Path path) throws IOException {
+                try {
+                    return fs.setReplication(path, replication);
+                } finally {
+                    cache.invalidate(path);
+                }
+            }
+        });
+    }
+
+    private Result run(String operation, List<Path> paths, final PathAction action) throws IOException {
+        long start = System.currentTimeMillis();
+        final Outcome[] outcomes = new Outcome[paths.size()];
+        if (dryRun) {
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] = new Outcome(paths.get(i), Status.DRY_RUN, null);
+            }
+        } else if (!paths.isEmpty()) {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, paths.size())));
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>(paths.size());
+                for (int i = 0; i < outcomes.length; i++) {
+                    final int index = i;
+                    final Path path = paths.get(i);
+                    futures.add(pool.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                outcomes[index] = new Outcome(path, action.run(path) ? Status.OK : Status.SKIPPED, null);
+                            } catch (IOException e) {
+                                outcomes[index] = new Outcome(path, Status.FAILED, e);
+                            } catch (RuntimeException e) {
+                                outcomes[index] = new Outcome(path, Status.FAILED, new IOException(e));
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    HdfsTransfer.await(future);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        Result result = new Result(operation, Collections.unmodifiableList(Arrays.asList(outcomes)),
+                System.currentTimeMillis() - start);
+        LOG.info(result);
+        for (Outcome failure : result.getFailures()) {
+            LOG.error(operation + " failed: " + failure);
+        }
+        return result;
+    }
+
+    private static boolean isGlob(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{' || c == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
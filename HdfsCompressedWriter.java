@@ -0,0 +1,315 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 压缩并按大小滚动的HDFS写入
+ * Gzip/Snappy/LZ4/Zstd的单个压缩流不能从中间切分，整个大文件只能由一个Spark task读取。
+ * 这里把输出切成多个独立压缩的分片 前缀-part-00000.snappy、前缀-part-00001.snappy ...，
+ * 每个分片的压缩后大小不超过partSize(默认一个HDFS块)，下游按分片并行读取且每个分片都在一个块内。
+ * 只在记录边界滚动：write(byte[])的每次调用视为一条或多条完整记录，writeLines(InputStream)在换行符处滚动。
+ * 覆盖写时新分片先写到同目录下的隐藏前缀 .文件名.tmp-时间戳，close时才删除旧分片并改名为正式分片，
+ * 写入中途失败旧数据保持不变；失败时调用abort删除已写的分片。读取见HdfsCompression.open。
+ */
+public class HdfsCompressedWriter implements Closeable {
+
+    private final static Log LOG = LogFactory.getLog(HdfsCompressedWriter.class.getName());
+
+    public static final String PART_SUFFIX = "-part-";
+
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    private final FileSystem fs;
+
+    private final String prefix;
+
+    // 实际写入的前缀，覆盖写时是临时前缀，追加时等于prefix
+    private final String writePrefix;
+
+    private final HdfsCompression compression;
+
+    private final CompressionCodec codec;
+
+    private final long partSize;
+
+    private final List<Path> parts = new ArrayList<Path>();
+
+    private int nextPart;
+
+    private FSDataOutputStream fileOut;
+
+    private OutputStream out;
+
+    private Compressor compressor;
+
+    private long rawBytes;
+
+    private long compressedBytes;
+
+    private boolean closed;
+
+    /**
+     * @param fs          文件系统
+     * @param prefix      分片路径前缀，如 /landing/2020-01-01/events
+     * @param compression 压缩格式
+     * @param partSize    单个分片压缩后的大小上限，<=0 使用HDFS默认块大小
+     * @param overwrite   true在close时用新分片替换前缀下已有的分片；false在已有分片之后继续编号，相当于追加
+     */
+    public HdfsCompressedWriter(FileSystem fs, String prefix, HdfsCompression compression, long partSize,
+                                boolean overwrite) throws IOException {
+        this.fs = fs;
+        this.prefix = prefix;
+        this.compression = compression;
+        this.codec = compression.newCodec(fs.getConf());
+        this.partSize = partSize > 0 ? partSize : fs.getDefaultBlockSize(new Path(prefix));
+        if (overwrite) {
+            Path path = new Path(prefix);
+            this.writePrefix = new Path(path.getParent(), "." + path.getName() + ".tmp-" + System.currentTimeMillis())
+                    .toString();
+        } else {
+            this.writePrefix = prefix;
+            for (FileStatus status : existingParts()) {
+                nextPart = Math.max(nextPart, partNumber(status.getPath()) + 1);
+            }
+        }
+    }
+
+    /**
+     * 写入完整的记录，写完后达到partSize则滚动到下一个分片
+     */
+    public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        writeRaw(bytes, offset, length);
+        if (shouldRoll()) {
+            closePart();
+        }
+    }
+
+    /**
+     * 写完文本输入流，不关闭输入流；达到partSize后在下一个换行符之后滚动
+     *
+     * @return 写入的未压缩字节数
+     */
+    public long writeLines(InputStream in) throws IOException {
+        byte[] buf = new byte[COPY_BUFFER];
+        long total = 0;
+        int count;
+        while ((count = in.read(buf)) != -1) {
+            int offset = 0;
+            while (offset < count && shouldRoll()) {
+                int newline = indexOf(buf, (byte) '\n', offset, count);
+                if (newline < 0) {
+                    break;
+                }
+                writeRaw(buf, offset, newline + 1 - offset);
+                closePart();
+                offset = newline + 1;
+            }
+            if (offset < count) {
+                writeRaw(buf, offset, count - offset);
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * 关闭当前分片，之后的写入进入新分片
+     */
+    public void roll() throws IOException {
+        closePart();
+    }
+
+    /**
+     * 已写出的分片，覆盖写时close之后才是正式路径
+     */
+    public List<Path> getParts() {
+        return parts;
+    }
+
+    /**
+     * 未压缩字节数
+     */
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * 已关闭分片的压缩后字节数
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            closePart();
+        } catch (IOException e) {
+            deleteParts();
+            throw e;
+        }
+        if (!writePrefix.equals(prefix)) {
+            commit();
+        }
+        LOG.info("Wrote " + rawBytes + " bytes as " + compressedBytes + " " + compression + " bytes in "
+                + parts.size() + " parts to " + prefix);
+    }
+
+    /**
+     * 放弃本次写入，删除已写的分片；覆盖写时原有分片保持不变
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to close part of " + prefix + " on abort", e);
+        } finally {
+            if (compressor != null) {
+                CodecPool.returnCompressor(compressor);
+                compressor = null;
+            }
+            out = null;
+            fileOut = null;
+        }
+        deleteParts();
+    }
+
+    private void deleteParts() {
+        for (Path part : parts) {
+            try {
+                fs.delete(part, false);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete " + part, e);
+            }
+        }
+        parts.clear();
+    }
+
+    /**
+     * 新分片全部写完后替换旧分片：先删除旧分片，再把临时分片改名为正式名
+     * 两步之间失败时新数据仍在隐藏的临时分片中
+     */
+    private void commit() throws IOException {
+        for (FileStatus status : existingParts()) {
+            fs.delete(status.getPath(), false);
+        }
+        List<Path> committed = new ArrayList<Path>(parts.size());
+        for (Path part : parts) {
+            Path target = new Path(prefix + part.getName().substring(new Path(writePrefix).getName().length()));
+            if (!fs.rename(part, target)) {
+                throw new IOException("Failed to rename " + part + " to " + target);
+            }
+            committed.add(target);
+        }
+        parts.clear();
+        parts.addAll(committed);
+    }
+
+    private FileStatus[] existingParts() throws IOException {
+        FileStatus[] existing = fs.globStatus(new Path(prefix + PART_SUFFIX + "*"));
+        return existing == null ? new FileStatus[0] : existing;
+    }
+
+    private void writeRaw(byte[] bytes, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Writer for " + prefix + " is closed");
+        }
+        if (out == null) {
+            openPart();
+        }
+        out.write(bytes, offset, length);
+        rawBytes += length;
+    }
+
+    private boolean shouldRoll() throws IOException {
+        // getPos是已交给HDFS的压缩字节数，压缩器内部缓冲的部分不计入，分片会略大于partSize但不会跨很多
+        return fileOut != null && fileOut.getPos() >= partSize;
+    }
+
+    private void openPart() throws IOException {
+        Path path = new Path(String.format("%s%s%05d%s", writePrefix, PART_SUFFIX, nextPart++, compression.getExtension()));
+        fileOut = fs.create(path, false);
+        parts.add(path);
+        if (codec == null) {
+            out = fileOut;
+            return;
+        }
+        compressor = CodecPool.getCompressor(codec);
+        try {
+            out = codec.createOutputStream(fileOut, compressor);
+        } catch (IOException | RuntimeException e) {
+            CodecPool.returnCompressor(compressor);
+            compressor = null;
+            fileOut.close();
+            throw e;
+        }
+    }
+
+    private void closePart() throws IOException {
+        if (out == null) {
+            return;
+        }
+        try {
+            if (out instanceof CompressionOutputStream) {
+                ((CompressionOutputStream) out).finish();
+            }
+            compressedBytes += fileOut.getPos();
+            out.close();
+        } finally {
+            if (compressor != null) {
+                CodecPool.returnCompressor(compressor);
+                compressor = null;
+            }
+            out = null;
+            fileOut = null;
+        }
+    }
+
+    private static int partNumber(Path path) {
+        String name = path.getName();
+        int start = name.lastIndexOf(PART_SUFFIX) + PART_SUFFIX.length();
+        int end = start;
+        while (end < name.length() && Character.isDigit(name.charAt(end))) {
+            end++;
+        }
+        return end > start ? Integer.parseInt(name.substring(start, end)) : -1;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
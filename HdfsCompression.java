@@ -0,0 +1,169 @@
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * HDFS文本落地的压缩格式
+ * 编解码器按类名反射加载，Hadoop版本或native库不提供的编解码器(如2.9之前没有ZStandardCodec)在使用时抛出IOException。
+ * 读取时按扩展名识别压缩格式并透明解压，也能读取HdfsCompressedWriter滚动写出的分片。
+ */
+public enum HdfsCompression {
+
+    NONE(null, ""),
+    GZIP("org.apache.hadoop.io.compress.GzipCodec", ".gz"),
+    SNAPPY("org.apache.hadoop.io.compress.SnappyCodec", ".snappy"),
+    LZ4("org.apache.hadoop.io.compress.Lz4Codec", ".lz4"),
+    ZSTD("org.apache.hadoop.io.compress.ZStandardCodec", ".zst");
+
+    private final String codecClass;
+
+    private final String extension;
+
+    HdfsCompression(String codecClass, String extension) {
+        this.codecClass = codecClass;
+        this.extension = extension;
+    }
+
+    public String getCodecClass() {
+        return codecClass;
+    }
+
+    /**
+     * 文件扩展名(含点)，NONE为空串
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * 创建编解码器，NONE返回null
+     */
+    public CompressionCodec newCodec(Configuration conf) throws IOException {
+        if (codecClass == null) {
+            return null;
+        }
+        try {
+            Class<?> clazz = conf.getClassByName(codecClass);
+            return (CompressionCodec) ReflectionUtils.newInstance(clazz, conf);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Codec " + codecClass + " is not available in this Hadoop version", e);
+        }
+    }
+
+    /**
+     * 按名称(NONE/GZIP/SNAPPY/LZ4/ZSTD，不区分大小写)或扩展名查找
+     */
+    public static HdfsCompression forName(String name) {
+        for (HdfsCompression compression : values()) {
+            if (compression.name().equalsIgnoreCase(name)
+                    || (!compression.extension.isEmpty() && compression.extension.equalsIgnoreCase(name))) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression: " + name);
+    }
+
+    /**
+     * 按文件扩展名识别，不是已知压缩格式时返回NONE
+     */
+    public static HdfsCompression forPath(Path path) {
+        String name = path.getName();
+        for (HdfsCompression compression : values()) {
+            if (!compression.extension.isEmpty() && name.endsWith(compression.extension)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * 打开文件并按扩展名透明解压
+     * path不存在时依次尝试HdfsCompressedWriter写出的分片 path-part-*，按分片序号顺序拼接成一个流；
+     * 都不存在时抛出FileNotFoundException
+     */
+    public static InputStream open(final FileSystem fs, final Path path, final int bufferSize) throws IOException {
+        try {
+            return decompress(fs, path, bufferSize);
+        } catch (FileNotFoundException e) {
+            final FileStatus[] parts = fs.globStatus(new Path(path.toString() + HdfsCompressedWriter.PART_SUFFIX + "*"));
+            if (parts == null || parts.length == 0) {
+                throw e;
+            }
+            // 分片名的序号定长补零，按名字排序即按写入顺序
+            Arrays.sort(parts);
+            // 分片按需打开，同一时刻只持有一个流
+            return new SequenceInputStream(new Enumeration<InputStream>() {
+                private int next;
+
+                @Override
+                public boolean hasMoreElements() {
+                    return next < parts.length;
+                }
+
+                @Override
+                public InputStream nextElement() {
+                    if (next >= parts.length) {
+                        throw new NoSuchElementException();
+                    }
+                    try {
+                        return decompress(fs, parts[next++].getPath(), bufferSize);
+                    } catch (IOException ex) {
+                        throw new IllegalStateException("Failed to open " + parts[next - 1].getPath(), ex);
+                    }
+                }
+            });
+        }
+    }
+
+    private static InputStream decompress(FileSystem fs, Path path, int bufferSize) throws IOException {
+        Configuration conf = fs.getConf();
+        HdfsCompression compression = forPath(path);
+        CompressionCodec codec = compression != NONE ? compression.newCodec(conf)
+                : new CompressionCodecFactory(conf).getCodec(path);
+        InputStream in = fs.open(path, bufferSize);
+        if (codec == null) {
+            return in;
+        }
+        final Decompressor decompressor = CodecPool.getDecompressor(codec);
+        InputStream decoded;
+        try {
+            decoded = codec.createInputStream(in, decompressor);
+        } catch (IOException | RuntimeException e) {
+            CodecPool.returnDecompressor(decompressor);
+            in.close();
+            throw e;
+        }
+        return new FilterInputStream(decoded) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    CodecPool.returnDecompressor(decompressor);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,417 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 长期持有输出流的组提交追加写
+ * 每个目标(文件前缀)保持一个打开的HDFS输出流，多个线程并发追加的记录进入该目标的队列，
+ * 由写线程一次取出一批顺序写入，整批只做一次hflush/hsync，然后唤醒这一批的所有调用方，
+ * 多次小追加的开销摊到一次管道写上，不再每条记录都append/exists/close。
+ * 文件按大小、记录数或打开时间滚动，文件名为 前缀-打开时间戳-序号，滚动后的文件不再修改。
+ * 批次写入失败时这一批的调用方都收到异常，出错的流被放弃(不刷写)，下一批写新文件。
+ */
+public class HdfsGroupAppender implements Closeable {
+
+    private final static Log LOG = LogFactory.getLog(HdfsGroupAppender.class.getName());
+
+    // 时间滚动的检查间隔
+    private static final long ROLL_CHECK_MS = 1000L;
+
+    /**
+     * 追加参数
+     */
+    public static class Options {
+        private HdfsStreamWriter.SyncPolicy syncPolicy = HdfsStreamWriter.SyncPolicy.HFLUSH;
+        private long rollBytes = 128L * 1024 * 1024;
+        private long rollRecords = 0;
+        private long rollIntervalMs = 60 * 60 * 1000L;
+        private int maxBatchRecords = 4096;
+        private int writerThreads = 4;
+
+        /**
+         * 每批提交时的持久化策略，NONE表示写入客户端缓冲即返回
+         */
+        public Options syncPolicy(HdfsStreamWriter.SyncPolicy syncPolicy) {
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
+        /**
+         * 文件达到该大小后滚动，<=0 不按大小滚动
+         */
+        public Options rollBytes(long rollBytes) {
+            this.rollBytes = rollBytes;
+            return this;
+        }
+
+        /**
+         * 文件达到该记录数后滚动，<=0 不按记录数滚动
+         */
+        public Options rollRecords(long rollRecords) {
+            this.rollRecords = rollRecords;
+            return this;
+        }
+
+        /**
+         * 文件打开该时间后滚动，<=0 不按时间滚动
+         */
+        public Options rollIntervalMs(long rollIntervalMs) {
+            this.rollIntervalMs = rollIntervalMs;
+            return this;
+        }
+
+        /**
+         * 一次组提交最多包含的记录数
+         */
+        public Options maxBatchRecords(int maxBatchRecords) {
+            this.maxBatchRecords = maxBatchRecords;
+            return this;
+        }
+
+        /**
+         * 写线程数，同一目标同一时刻只有一个线程在写
+         */
+        public Options writerThreads(int writerThreads) {
+            this.writerThreads = writerThreads;
+            return this;
+        }
+    }
+
+    private final FileSystem fs;
+
+    private final Options options;
+
+    private final ExecutorService writers;
+
+    private final ScheduledExecutorService roller;
+
+    private final Map<String, Target> targets = new ConcurrentHashMap<String, Target>();
+
+    private volatile boolean closed;
+
+    // 入队持有读锁，close持有写锁：close之前入队的记录都排在关闭标记之前，之后的入队直接失败
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    public HdfsGroupAppender(FileSystem fs, Options options) {
+        this.fs = fs;
+        this.options = options;
+        this.writers = Executors.newFixedThreadPool(options.writerThreads, daemonThreads("hdfs-appender-"));
+        this.roller = Executors.newSingleThreadScheduledExecutor(daemonThreads("hdfs-appender-roll-"));
+        if (options.rollIntervalMs > 0) {
+            roller.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (Target target : targets.values()) {
+                        target.requestTimeRoll();
+                    }
+                }
+            }, ROLL_CHECK_MS, ROLL_CHECK_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 追加一条记录，按持久化策略提交后返回
+     *
+     * @param target 目标文件前缀，如 /data/logs/app
+     * @param record 记录内容，原样写入
+     */
+    public void append(String target, byte[] record) throws IOException {
+        try {
+            appendAsync(target, record).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for group commit");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 追加一行文本(UTF-8，自动补换行)
+     */
+    public void appendLine(String target, String line) throws IOException {
+        append(target, (line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 异步追加，所在批次提交后future完成
+     */
+    public CompletableFuture<Void> appendAsync(String target, byte[] record) {
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                future.completeExceptionally(new IOException("Appender is closed"));
+                return future;
+            }
+            Target t = targets.get(target);
+            if (t == null) {
+                Target created = new Target(target);
+                t = targets.putIfAbsent(target, created);
+                if (t == null) {
+                    t = created;
+                }
+            }
+            t.enqueue(new Pending(record, future));
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return future;
+    }
+
+    /**
+     * 立即滚动目标的当前文件
+     */
+    public void roll(String target) {
+        Target t = targets.get(target);
+        if (t != null) {
+            t.enqueue(Pending.ROLL);
+        }
+    }
+
+    /**
+     * 提交所有排队的记录并关闭所有文件
+     */
+    @Override
+    public void close() throws IOException {
+        List<CompletableFuture<Void>> closing = new ArrayList<CompletableFuture<Void>>();
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Target target : targets.values()) {
+                CompletableFuture<Void> done = new CompletableFuture<Void>();
+                target.enqueue(new Pending(null, done));
+                closing.add(done);
+            }
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        roller.shutdownNow();
+        try {
+            for (CompletableFuture<Void> done : closing) {
+                done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing appender");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            writers.shutdown();
+        }
+    }
+
+    /**
+     * 排队的记录；record为null表示关闭，ROLL表示滚动
+     */
+    private static class Pending {
+        static final Pending ROLL = new Pending(new byte[0], null);
+
+        final byte[] record;
+        final CompletableFuture<Void> future;
+
+        Pending(byte[] record, CompletableFuture<Void> future) {
+            this.record = record;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 一个追加目标，队列由至多一个写线程消费
+     */
+    private class Target implements Runnable {
+        private final String prefix;
+        private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicInteger seq = new AtomicInteger();
+
+        // 以下字段只由持有scheduled的写线程访问
+        private HdfsStreamWriter writer;
+        private long records;
+        private volatile long openedAt;
+
+        Target(String prefix) {
+            this.prefix = prefix;
+        }
+
+        void enqueue(Pending pending) {
+            queue.add(pending);
+            schedule();
+        }
+
+        void requestTimeRoll() {
+            long opened = openedAt;
+            if (opened > 0 && System.currentTimeMillis() - opened >= options.rollIntervalMs) {
+                enqueue(Pending.ROLL);
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this);
+                } catch (RuntimeException e) {
+                    scheduled.set(false);
+                    failAll(new IOException("Appender is closed", e));
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<Pending> batch = new ArrayList<Pending>();
+                while (true) {
+                    batch.clear();
+                    queue.drainTo(batch, options.maxBatchRecords);
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    commit(batch);
+                }
+            } finally {
+                scheduled.set(false);
+                // 释放后又有新记录入队时重新调度
+                if (!queue.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+
+        private void commit(List<Pending> batch) {
+            List<CompletableFuture<Void>> waiting = new ArrayList<CompletableFuture<Void>>(batch.size());
+            try {
+                for (Pending pending : batch) {
+                    if (pending == Pending.ROLL) {
+                        flushAndComplete(waiting);
+                        closeWriter();
+                    } else if (pending.record == null) {
+                        flushAndComplete(waiting);
+                        closeWriter();
+                        pending.future.complete(null);
+                    } else {
+                        if (writer == null) {
+                            openWriter();
+                        }
+                        writer.write(pending.record);
+                        records++;
+                        waiting.add(pending.future);
+                        if (shouldRoll()) {
+                            flushAndComplete(waiting);
+                            closeWriter();
+                        }
+                    }
+                }
+                flushAndComplete(waiting);
+            } catch (IOException e) {
+                LOG.error("Group commit to " + prefix + " failed", e);
+                for (CompletableFuture<Void> future : waiting) {
+                    future.completeExceptionally(e);
+                }
+                for (Pending pending : batch) {
+                    if (pending.future != null) {
+                        pending.future.completeExceptionally(e);
+                    }
+                }
+                // 丢弃出错的流，下一批写新文件
+                abortWriter();
+            }
+        }
+
+        private boolean shouldRoll() {
+            return (options.rollBytes > 0 && writer.getWritten() >= options.rollBytes)
+                    || (options.rollRecords > 0 && records >= options.rollRecords);
+        }
+
+        private void flushAndComplete(List<CompletableFuture<Void>> waiting) throws IOException {
+            if (waiting.isEmpty()) {
+                return;
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+            for (CompletableFuture<Void> future : waiting) {
+                future.complete(null);
+            }
+            waiting.clear();
+        }
+
+        private void openWriter() throws IOException {
+            long now = System.currentTimeMillis();
+            Path path = new Path(prefix + "-" + now + "-" + seq.incrementAndGet());
+            writer = new HdfsStreamWriter(fs, path, new HdfsStreamWriter.Options()
+                    .overwrite(false).syncPolicy(options.syncPolicy));
+            records = 0;
+            openedAt = now;
+        }
+
+        private void closeWriter() throws IOException {
+            if (writer != null) {
+                HdfsStreamWriter current = writer;
+                writer = null;
+                openedAt = 0;
+                current.close();
+            }
+        }
+
+        // 出错的批次已经通知调用方失败，丢弃流时不能再把缓冲中的这些记录写出，否则调用方重试会产生重复
+        private void abortWriter() {
+            if (writer != null) {
+                HdfsStreamWriter current = writer;
+                writer = null;
+                openedAt = 0;
+                current.abort();
+            }
+        }
+
+        private void failAll(IOException e) {
+            Pending pending;
+            while ((pending = queue.poll()) != null) {
+                if (pending.future != null) {
+                    pending.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger seq = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
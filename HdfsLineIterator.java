@@ -0,0 +1,84 @@
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * HDFS文件的惰性行/记录迭代器
+ * 每次next只读取一条记录，内存占用与文件大小无关。记录按字节切分(Hadoop LineReader)，再按指定字符集解码，
+ * 默认分隔符为\n、\r或\r\n，也可以指定任意字节序列作为记录分隔符。
+ * 读取失败时next/hasNext抛出UncheckedIOException；用完需要close，读到末尾时自动关闭。
+ */
+public class HdfsLineIterator implements Iterator<String>, Closeable {
+
+    private final LineReader reader;
+
+    private final Charset charset;
+
+    private final Text line = new Text();
+
+    private String next;
+
+    private boolean closed;
+
+    /**
+     * @param in         输入流，由迭代器负责关闭
+     * @param charset    字符集
+     * @param delimiter  记录分隔符，为null时按行切分
+     * @param bufferSize 读缓冲区大小
+     */
+    public HdfsLineIterator(InputStream in, Charset charset, byte[] delimiter, int bufferSize) {
+        this.charset = charset;
+        this.reader = delimiter == null ? new LineReader(in, bufferSize) : new LineReader(in, bufferSize, delimiter);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            if (reader.readLine(line) == 0) {
+                close();
+                return false;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        next = new String(line.getBytes(), 0, line.getLength(), charset);
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HDFS元数据缓存，减少NameNode RPC
+ * FileStatus(包括"不存在")按短TTL缓存，通过本类或HdfsUtils做的修改会立即失效对应路径及其父目录，
+ * 其他客户端的修改最多在TTL之后可见。条目按路径字符串排序保存，失效目录树时只访问该目录下的条目。
+ * 目录列表分页迭代(HDFS每次RPC取dfs.ls.limit条)，不会一次性持有整个目录的数组，迭代到的条目顺带写入缓存：
+ * listStatus在HDFS上直接用DFSClient.listPaths分页且不取块位置(Hadoop 2.7之前没有listStatusIterator)，
+ * listFiles需要块位置，仍用listFiles。
+ */
+public class HdfsMetadataCache {
+
+    private final FileSystem fs;
+
+    private final long ttlMs;
+
+    private final int maxEntries;
+
+    // 限定路径字符串 -> 条目，有序以便按前缀失效子树
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<String, Entry>();
+
+    // 条目数，ConcurrentSkipListMap.size()需要遍历
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param fs         文件系统
+     * @param ttlMs      缓存有效期，<=0 不缓存
+     * @param maxEntries 最多缓存的路径数，超过时先清理过期条目，仍然超过则清空
+     */
+    public HdfsMetadataCache(FileSystem fs, long ttlMs, int maxEntries) {
+        this.fs = fs;
+        this.ttlMs = ttlMs;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 获取FileStatus，不存在返回null
+     */
+    public FileStatus getFileStatus(Path path) throws IOException {
+        Path key = qualify(path);
+        Entry entry = entries.get(key.toString());
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            hits.incrementAndGet();
+            return entry.status;
+        }
+        misses.incrementAndGet();
+        FileStatus status;
+        try {
+            status = fs.getFileStatus(key);
+        } catch (FileNotFoundException e) {
+            status = null;
+        }
+        put(key, status);
+        return status;
+    }
+
+    public boolean exists(Path path) throws IOException {
+        return getFileStatus(path) != null;
+    }
+
+    public boolean isDirectory(Path path) throws IOException {
+        FileStatus status = getFileStatus(path);
+        return status != null && status.isDirectory();
+    }
+
+    /**
+     * 分页列出目录下的直接子项，不含块位置
+     */
+    public RemoteIterator<FileStatus> listStatus(Path dir) throws IOException {
+        final Path qualified = qualify(dir);
+        if (!(fs instanceof DistributedFileSystem)) {
+            final FileStatus[] statuses = fs.listStatus(qualified);
+            return caching(new RemoteIterator<FileStatus>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < statuses.length;
+                }
+
+                @Override
+                public FileStatus next() {
+                    if (next >= statuses.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return statuses[next++];
+                }
+            });
+        }
+        final DFSClient client = ((DistributedFileSystem) fs).getClient();
+        final String src = qualified.toUri().getPath();
+        final DirectoryListing first = listPaths(client, src, HdfsFileStatus.EMPTY_NAME);
+        return caching(new RemoteIterator<FileStatus>() {
+            private DirectoryListing listing = first;
+            private int next;
+
+            @Override
+            public boolean hasNext() throws IOException {
+                while (next >= listing.getPartialListing().length) {
+                    if (!listing.hasMore()) {
+                        return false;
+                    }
+                    listing = listPaths(client, src, listing.getLastName());
+                    next = 0;
+                }
+                return true;
+            }
+
+            @Override
+            public FileStatus next() throws IOException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return listing.getPartialListing()[next++].makeQualified(fs.getUri(), qualified);
+            }
+        });
+    }
+
+    /**
+     * 分页列出目录下的文件(不含目录)，recursive为true时包括所有子目录
+     */
+    public RemoteIterator<LocatedFileStatus> listFiles(Path dir, boolean recursive) throws IOException {
+        return caching(fs.listFiles(dir, recursive));
+    }
+
+    /**
+     * 创建目录(已存在也返回true)
+     */
+    public boolean mkdirs(Path path) throws IOException {
+        try {
+            return fs.mkdirs(path);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    /**
+     * 删除文件或目录，不存在时返回false
+     */
+    public boolean delete(Path path, boolean recursive) throws IOException {
+        try {
+            return fs.delete(path, recursive);
+        } finally {
+            invalidateTree(path);
+        }
+    }
+
+    public boolean rename(Path src, Path dst) throws IOException {
+        try {
+            return fs.rename(src, dst);
+        } finally {
+            invalidateTree(src);
+            invalidateTree(dst);
+        }
+    }
+
+    /**
+     * 失效路径及其父目录
+     */
+    public void invalidate(Path path) {
+        Path key = qualify(path);
+        remove(key.toString());
+        if (key.getParent() != null) {
+            remove(key.getParent().toString());
+        }
+    }
+
+    /**
+     * 失效路径、父目录及路径下的所有子项，用于目录删除、重命名等
+     * 子项的键都以 路径/ 开头，在有序map中是一个连续区间
+     */
+    public void invalidateTree(Path path) {
+        Path key = qualify(path);
+        invalidate(key);
+        String prefix = key.toString();
+        if (!prefix.endsWith(Path.SEPARATOR)) {
+            prefix += Path.SEPARATOR;
+        }
+        String end = prefix.substring(0, prefix.length() - 1) + (char) (Path.SEPARATOR_CHAR + 1);
+        for (String child : entries.subMap(prefix, true, end, false).keySet()) {
+            remove(child);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        size.set(0);
+    }
+
+    /**
+     * 缓存命中次数
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * 未命中(访问NameNode)次数
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static DirectoryListing listPaths(DFSClient client, String src, byte[] startAfter) throws IOException {
+        DirectoryListing listing = client.listPaths(src, startAfter, false);
+        if (listing == null) {
+            throw new FileNotFoundException("File " + src + " does not exist.");
+        }
+        return listing;
+    }
+
+    private <T extends FileStatus> RemoteIterator<T> caching(final RemoteIterator<T> it) {
+        return new RemoteIterator<T>() {
+            @Override
+            public boolean hasNext() throws IOException {
+                return it.hasNext();
+            }
+
+            @Override
+            public T next() throws IOException {
+                T status = it.next();
+                put(status.getPath(), status);
+                return status;
+            }
+        };
+    }
+
+    private void put(Path key, FileStatus status) {
+        if (ttlMs <= 0) {
+            return;
+        }
+        if (size.get() >= maxEntries) {
+            evict();
+        }
+        if (entries.put(key.toString(), new Entry(status, System.currentTimeMillis() + ttlMs)) == null) {
+            size.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        if (entries.remove(key) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().expiresAt <= now && entries.remove(entry.getKey(), entry.getValue())) {
+                size.decrementAndGet();
+            }
+        }
+        if (size.get() >= maxEntries) {
+            clear();
+        }
+    }
+
+    private Path qualify(Path path) {
+        return fs.makeQualified(path);
+    }
+
+    /**
+     * 缓存条目，status为null表示路径不存在
+     */
+    private static class Entry {
+        final FileStatus status;
+        final long expiresAt;
+
+        Entry(FileStatus status, long expiresAt) {
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * HDFS文件的随机/区间读取
+ * 打开一次文件后可以多次按偏移读取，readFully(offset, ...)使用positional read(pread)，不移动流位置，
+ * 可以被多个线程同时调用；直接内存ByteBuffer走seek+read，在锁内完成后恢复原位置，同样不影响顺序读。ByteBuffer读取在流支持ByteBufferReadable(HDFS的DFSInputStream支持)时
+ * 直接读入buffer，否则经一个临时数组拷贝。
+ */
+public class HdfsRangeReader implements Closeable {
+
+    private static final int COPY_CHUNK = 64 * 1024;
+
+    private final FSDataInputStream in;
+
+    private final Path path;
+
+    private final long length;
+
+    // 流不支持ByteBufferReadable时置为false，之后直接走数组拷贝
+    private volatile boolean byteBufferReadable = true;
+
+    public HdfsRangeReader(FileSystem fs, Path path) throws IOException {
+        this.path = path;
+        this.length = fs.getFileStatus(path).getLen();
+        this.in = fs.open(path);
+    }
+
+    /**
+     * 文件长度
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 读取 [offset, offset + len) 区间
+     */
+    public byte[] readFully(long offset, int len) throws IOException {
+        byte[] bytes = new byte[len];
+        in.readFully(offset, bytes, 0, len);
+        return bytes;
+    }
+
+    /**
+     * 从offset开始读满dst的剩余空间，完成后dst的position移到limit
+     */
+    public void readFully(long offset, ByteBuffer dst) throws IOException {
+        if (offset + dst.remaining() > length) {
+            throw new EOFException("Range [" + offset + ", " + (offset + dst.remaining()) + ") exceeds length "
+                    + length + " of " + path);
+        }
+        if (dst.hasArray()) {
+            in.readFully(offset, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.limit());
+            return;
+        }
+        if (byteBufferReadable) {
+            // ByteBufferReadable只有顺序读接口，需要seek，与其他顺序读互斥；读完恢复顺序读的位置
+            synchronized (in) {
+                long saved = in.getPos();
+                try {
+                    in.seek(offset);
+                    while (dst.hasRemaining()) {
+                        if (in.read(dst) < 0) {
+                            throw new EOFException("Unexpected end of " + path);
+                        }
+                    }
+                    return;
+                } catch (UnsupportedOperationException e) {
+                    byteBufferReadable = false;
+                } finally {
+                    in.seek(saved);
+                }
+            }
+        }
+        byte[] chunk = new byte[Math.min(COPY_CHUNK, dst.remaining())];
+        long position = offset;
+        while (dst.hasRemaining()) {
+            int len = Math.min(chunk.length, dst.remaining());
+            in.readFully(position, chunk, 0, len);
+            dst.put(chunk, 0, len);
+            position += len;
+        }
+    }
+
+    /**
+     * 从当前位置顺序读入dst，返回读取的字节数，文件末尾返回-1
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        synchronized (in) {
+            if (byteBufferReadable) {
+                try {
+                    return in.read(dst);
+                } catch (UnsupportedOperationException e) {
+                    byteBufferReadable = false;
+                }
+            }
+            byte[] chunk = new byte[Math.min(COPY_CHUNK, dst.remaining())];
+            int count = in.read(chunk, 0, chunk.length);
+            if (count > 0) {
+                dst.put(chunk, 0, count);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 移动顺序读的位置
+     */
+    public void seek(long position) throws IOException {
+        synchronized (in) {
+            in.seek(position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
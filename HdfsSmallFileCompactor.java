@@ -0,0 +1,541 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HDFS小文件合并
+ * 把目录下的小文件顺序写入块大小的容器文件(.pack)，每个容器带一个偏移索引文件(.idx)，
+ * 索引记录 文件名 -> (偏移, 长度, 修改时间)，按文件名读取时查哈希表后一次pread，与文件数无关。
+ * 容器写在每个目录的_packs子目录下，先写.pack再写.idx，.idx存在即表示容器完整；
+ * 只有容器提交后、且源文件的长度和修改时间与打包时一致才删除源文件，中途失败重跑不会丢数据，
+ * 已打包但未删除的源文件在下次运行时直接删除，不会重复打包；
+ * 提交前失败留下的孤立.pack和临时索引在超过minAgeMs后由下次运行删除。
+ * 目录的扫描和每个容器的写入都作为独立任务并行，大目录的多个容器由多个线程同时写；
+ * 修改时间在minAgeMs之内的文件可能仍在写入，留到下次。
+ * 读取使用按目录合并的索引(文件名 -> 最新容器中的位置)，按_packs目录的修改时间校验，
+ * 有新容器提交时只增量加载新的索引文件；实例应长期复用，见HdfsUtils.getCompactor。
+ */
+public class HdfsSmallFileCompactor {
+
+    private final static Log LOG = LogFactory.getLog(HdfsSmallFileCompactor.class.getName());
+
+    public static final String PACK_DIR = "_packs";
+
+    private static final String PACK_SUFFIX = ".pack";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final int INDEX_MAGIC = 0x50414b31; // "PAK1"
+
+    private static final int COPY_BUFFER = 128 * 1024;
+
+    private final FileSystem fs;
+
+    private final int threads;
+
+    private long smallFileThreshold = 16L * 1024 * 1024;
+
+    private long minAgeMs = 10 * 60 * 1000L;
+
+    private long targetSize = -1;
+
+    private boolean deleteSources = true;
+
+    public static final int DEFAULT_INDEX_CACHE_DIRS = 1024;
+
+    // _packs目录 -> 合并索引，按访问顺序淘汰
+    private final Map<Path, DirIndex> dirIndexes = new LinkedHashMap<Path, DirIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, DirIndex> eldest) {
+            return size() > indexCacheDirs;
+        }
+    };
+
+    private volatile int indexCacheDirs = DEFAULT_INDEX_CACHE_DIRS;
+
+    private final AtomicInteger packSeq = new AtomicInteger();
+
+    /**
+     * 合并结果统计
+     */
+    public static class Report {
+        private final AtomicLong directories = new AtomicLong();
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong packs = new AtomicLong();
+        private final AtomicLong deleted = new AtomicLong();
+
+        public long getDirectories() {
+            return directories.get();
+        }
+
+        public long getFiles() {
+            return files.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getPacks() {
+            return packs.get();
+        }
+
+        public long getDeleted() {
+            return deleted.get();
+        }
+
+        @Override
+        public String toString() {
+            return "packed " + files.get() + " files (" + bytes.get() + " bytes) from " + directories.get()
+                    + " directories into " + packs.get() + " packs, deleted " + deleted.get() + " sources";
+        }
+    }
+
+    /**
+     * 容器中一个原文件的位置
+     */
+    private static class PackedFile {
+        final Path pack;
+        final long offset;
+        final long length;
+        final long modificationTime;
+
+        PackedFile(Path pack, long[] entry) {
+            this.pack = pack;
+            this.offset = entry[0];
+            this.length = entry[1];
+            this.modificationTime = entry[2];
+        }
+    }
+
+    /**
+     * 一个_packs目录的合并索引，提交后不再修改，刷新时生成新实例
+     */
+    private static class DirIndex {
+        static final DirIndex EMPTY = new DirIndex(-1, Collections.<String, PackedFile>emptyMap(), 0, null);
+
+        // 构建时_packs目录的修改时间，提交新容器(索引改名)会改变它
+        final long modificationTime;
+        // 文件名 -> 最新容器中的位置
+        final Map<String, PackedFile> files;
+        // 已加载的容器数和其中最后一个(按名字排序)
+        final int packCount;
+        final Path lastPack;
+
+        DirIndex(long modificationTime, Map<String, PackedFile> files, int packCount, Path lastPack) {
+            this.modificationTime = modificationTime;
+            this.files = files;
+            this.packCount = packCount;
+            this.lastPack = lastPack;
+        }
+    }
+
+    /**
+     * @param fs      HDFS
+     * @param threads 并行线程数，目录扫描和容器写入共用
+     */
+    public HdfsSmallFileCompactor(FileSystem fs, int threads) {
+        this.fs = fs;
+        this.threads = threads;
+    }
+
+    /**
+     * 小于该大小的文件才合并，默认16MB
+     */
+    public HdfsSmallFileCompactor setSmallFileThreshold(long smallFileThreshold) {
+        this.smallFileThreshold = smallFileThreshold;
+        return this;
+    }
+
+    /**
+     * 最近minAgeMs内修改过的文件不合并，默认10分钟
+     */
+    public HdfsSmallFileCompactor setMinAgeMs(long minAgeMs) {
+        this.minAgeMs = minAgeMs;
+        return this;
+    }
+
+    /**
+     * 单个容器的目标大小，<=0 使用块大小
+     */
+    public HdfsSmallFileCompactor setTargetSize(long targetSize) {
+        this.targetSize = targetSize;
+        return this;
+    }
+
+    /**
+     * 合并后是否删除源文件，默认删除
+     */
+    public HdfsSmallFileCompactor setDeleteSources(boolean deleteSources) {
+        this.deleteSources = deleteSources;
+        return this;
+    }
+
+    /**
+     * 最多缓存合并索引的目录数，默认1024
+     */
+    public HdfsSmallFileCompactor setIndexCacheDirs(int indexCacheDirs) {
+        this.indexCacheDirs = indexCacheDirs;
+        return this;
+    }
+
+    /**
+     * 合并root及其子目录下的小文件
+     *
+     * @param root 根目录
+     */
+    public Report compact(String root) throws IOException {
+        List<Path> dirs = new ArrayList<Path>();
+        listDirs(new Path(root), dirs);
+
+        final Report report = new Report();
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            // 扫描任务把目录切成若干容器，每个容器再作为独立任务提交
+            List<Future<List<Future<?>>>> scans = new ArrayList<Future<List<Future<?>>>>(dirs.size());
+            for (final Path dir : dirs) {
+                scans.add(pool.submit(new Callable<List<Future<?>>>() {
+                    @Override
+                    public List<Future<?>> call() throws IOException {
+                        return compactDir(pool, dir, report);
+                    }
+                }));
+            }
+            for (Future<List<Future<?>>> scan : scans) {
+                for (Future<?> future : HdfsTransfer.await(scan)) {
+                    HdfsTransfer.await(future);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        LOG.info("Compacted " + root + ": " + report);
+        return report;
+    }
+
+    /**
+     * 按原文件名读取已合并的文件，不存在时返回null
+     * 同名文件被多次打包时返回最新的容器中的版本
+     *
+     * @param dir  原文件所在目录
+     * @param name 原文件名
+     */
+    public byte[] read(String dir, String name) throws IOException {
+        PackedFile file = loadDirIndex(new Path(dir, PACK_DIR)).files.get(name);
+        if (file == null) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) file.length];
+        FSDataInputStream in = fs.open(file.pack);
+        try {
+            in.readFully(file.offset, bytes, 0, bytes.length);
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * 目录下已合并的原文件名
+     */
+    public List<String> list(String dir) throws IOException {
+        return new ArrayList<String>(new TreeSet<String>(loadDirIndex(new Path(dir, PACK_DIR)).files.keySet()));
+    }
+
+    // 扫描目录并提交容器写入任务，返回这些任务
+    private List<Future<?>> compactDir(ExecutorService pool, Path dir, final Report report) throws IOException {
+        final Path packDir = new Path(dir, PACK_DIR);
+        long now = System.currentTimeMillis();
+        deleteIncomplete(packDir, now);
+        // 已在容器中的文件
+        Map<String, PackedFile> packed = loadDirIndex(packDir).files;
+
+        List<FileStatus> candidates = new ArrayList<FileStatus>();
+        for (FileStatus status : fs.listStatus(dir)) {
+            String name = status.getPath().getName();
+            if (!status.isFile() || name.startsWith(".") || name.startsWith("_")
+                    || status.getLen() >= smallFileThreshold || now - status.getModificationTime() < minAgeMs) {
+                continue;
+            }
+            PackedFile previous = packed.get(name);
+            if (previous != null && previous.length == status.getLen()
+                    && previous.modificationTime == status.getModificationTime()) {
+                // 上次打包后没来得及删除
+                if (deleteSources && fs.delete(status.getPath(), false)) {
+                    report.deleted.incrementAndGet();
+                }
+                continue;
+            }
+            candidates.add(status);
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        if (candidates.isEmpty()) {
+            return futures;
+        }
+        report.directories.incrementAndGet();
+        fs.mkdirs(packDir);
+
+        final long blockSize = fs.getDefaultBlockSize(packDir);
+        long limit = targetSize > 0 ? targetSize : blockSize;
+        int from = 0;
+        while (from < candidates.size()) {
+            int to = from;
+            long size = 0;
+            while (to < candidates.size() && (to == from || size + candidates.get(to).getLen() <= limit)) {
+                size += candidates.get(to).getLen();
+                to++;
+            }
+            final List<FileStatus> batch = candidates.subList(from, to);
+            final long packBlockSize = Math.max(blockSize, size);
+            futures.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    writePack(packDir, batch, packBlockSize, report);
+                    if (deleteSources) {
+                        deleteUnchanged(batch, report);
+                    }
+                    return null;
+                }
+            }));
+            from = to;
+        }
+        return futures;
+    }
+
+    private void writePack(Path packDir, List<FileStatus> files, long blockSize, Report report) throws IOException {
+        String name = String.format("pack-%013d-%05d", System.currentTimeMillis(), packSeq.incrementAndGet() % 100000);
+        Path pack = new Path(packDir, name + PACK_SUFFIX);
+        Path index = new Path(packDir, name + INDEX_SUFFIX);
+        Path tmpIndex = new Path(packDir, "." + name + INDEX_SUFFIX);
+
+        // 块大小需为512的整数倍
+        long packBlockSize = (blockSize + 511) / 512 * 512;
+        List<long[]> entries = new ArrayList<long[]>(files.size());
+        FSDataOutputStream out = fs.create(pack, false, COPY_BUFFER, fs.getDefaultReplication(pack), packBlockSize);
+        try {
+            byte[] buf = new byte[COPY_BUFFER];
+            for (FileStatus file : files) {
+                long offset = out.getPos();
+                FSDataInputStream in = fs.open(file.getPath(), COPY_BUFFER);
+                try {
+                    int count;
+                    while ((count = in.read(buf)) != -1) {
+                        out.write(buf, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
+                long length = out.getPos() - offset;
+                if (length != file.getLen()) {
+                    throw new IOException(file.getPath() + " changed while packing: expected " + file.getLen()
+                            + " bytes, read " + length);
+                }
+                entries.add(new long[]{offset, length, file.getModificationTime()});
+            }
+            out.hsync();
+        } catch (IOException e) {
+            out.close();
+            fs.delete(pack, false);
+            throw e;
+        }
+        out.close();
+
+        // 索引写临时文件后改名，改名成功即提交
+        FSDataOutputStream idx = fs.create(tmpIndex, true);
+        try {
+            idx.writeInt(INDEX_MAGIC);
+            idx.writeInt(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                idx.writeUTF(files.get(i).getPath().getName());
+                idx.writeLong(entries.get(i)[0]);
+                idx.writeLong(entries.get(i)[1]);
+                idx.writeLong(entries.get(i)[2]);
+            }
+            idx.hsync();
+        } finally {
+            idx.close();
+        }
+        if (!fs.rename(tmpIndex, index)) {
+            fs.delete(tmpIndex, false);
+            fs.delete(pack, false);
+            throw new IOException("Failed to commit pack index " + index);
+        }
+        synchronized (dirIndexes) {
+            dirIndexes.remove(packDir);
+        }
+
+        report.packs.incrementAndGet();
+        report.files.addAndGet(files.size());
+        for (long[] entry : entries) {
+            report.bytes.addAndGet(entry[1]);
+        }
+        LOG.info("Packed " + files.size() + " files into " + pack);
+    }
+
+    // 只删除打包后没有再被修改的源文件
+    private void deleteUnchanged(List<FileStatus> files, Report report) throws IOException {
+        for (FileStatus file : files) {
+            FileStatus current;
+            try {
+                current = fs.getFileStatus(file.getPath());
+            } catch (FileNotFoundException e) {
+                continue;
+            }
+            if (current.getLen() == file.getLen() && current.getModificationTime() == file.getModificationTime()) {
+                if (fs.delete(file.getPath(), false)) {
+                    report.deleted.incrementAndGet();
+                }
+            } else {
+                LOG.warn(file.getPath() + " was modified after packing, keeping it");
+            }
+        }
+    }
+
+    // 删除未提交的容器：没有对应.idx的.pack(容器写完、索引改名前失败)和未改名的临时索引.pack-*.idx
+    // 只删除minAgeMs之前的，较新的可能正由另一次运行写入
+    private void deleteIncomplete(Path packDir, long now) throws IOException {
+        FileStatus[] statuses;
+        try {
+            statuses = fs.listStatus(packDir);
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        Set<String> committed = new HashSet<String>();
+        for (FileStatus status : statuses) {
+            String name = status.getPath().getName();
+            if (name.endsWith(INDEX_SUFFIX) && !name.startsWith(".")) {
+                committed.add(name.substring(0, name.length() - INDEX_SUFFIX.length()));
+            }
+        }
+        for (FileStatus status : statuses) {
+            String name = status.getPath().getName();
+            if (now - status.getModificationTime() < minAgeMs) {
+                continue;
+            }
+            boolean orphanPack = name.endsWith(PACK_SUFFIX)
+                    && !committed.contains(name.substring(0, name.length() - PACK_SUFFIX.length()));
+            boolean tmpIndex = name.startsWith(".") && name.endsWith(INDEX_SUFFIX);
+            if ((orphanPack || tmpIndex) && fs.delete(status.getPath(), false)) {
+                LOG.info("Deleted uncommitted " + status.getPath());
+            }
+        }
+    }
+
+    // 已提交的容器，按名字(即创建时间)排序
+    private List<Path> listPacks(Path packDir) throws IOException {
+        List<Path> packs = new ArrayList<Path>();
+        FileStatus[] statuses;
+        try {
+            statuses = fs.listStatus(packDir);
+        } catch (FileNotFoundException e) {
+            return packs;
+        }
+        for (FileStatus status : statuses) {
+            String name = status.getPath().getName();
+            if (name.endsWith(INDEX_SUFFIX) && !name.startsWith(".")) {
+                packs.add(new Path(packDir, name.substring(0, name.length() - INDEX_SUFFIX.length()) + PACK_SUFFIX));
+            }
+        }
+        Collections.sort(packs);
+        return packs;
+    }
+
+    /**
+     * 目录的合并索引
+     * 先取_packs目录的修改时间(一次RPC)，与缓存一致时直接使用；否则列出容器，
+     * 新增的容器都排在已加载的容器之后时只加载新容器的索引并合并，其他情况(如容器被删除)全部重建
+     */
+    private DirIndex loadDirIndex(Path packDir) throws IOException {
+        long modificationTime;
+        try {
+            modificationTime = fs.getFileStatus(packDir).getModificationTime();
+        } catch (FileNotFoundException e) {
+            return DirIndex.EMPTY;
+        }
+        DirIndex cached;
+        synchronized (dirIndexes) {
+            cached = dirIndexes.get(packDir);
+        }
+        if (cached != null && cached.modificationTime == modificationTime) {
+            return cached;
+        }
+
+        List<Path> packs = listPacks(packDir);
+        Map<String, PackedFile> files;
+        int from = 0;
+        // 已加载的容器仍是列表的前缀时增量合并
+        if (cached != null && cached.packCount > 0 && packs.size() >= cached.packCount
+                && packs.get(cached.packCount - 1).equals(cached.lastPack)) {
+            files = new HashMap<String, PackedFile>(cached.files);
+            from = cached.packCount;
+        } else {
+            files = new HashMap<String, PackedFile>();
+        }
+        for (Path pack : packs.subList(from, packs.size())) {
+            for (Map.Entry<String, long[]> e : readIndex(pack).entrySet()) {
+                files.put(e.getKey(), new PackedFile(pack, e.getValue()));
+            }
+        }
+        DirIndex index = new DirIndex(modificationTime, files, packs.size(),
+                packs.isEmpty() ? null : packs.get(packs.size() - 1));
+        synchronized (dirIndexes) {
+            dirIndexes.put(packDir, index);
+        }
+        return index;
+    }
+
+    // 容器索引: 文件名 -> (偏移, 长度, 修改时间)
+    private Map<String, long[]> readIndex(Path pack) throws IOException {
+        String name = pack.getName();
+        Path indexPath = new Path(pack.getParent(), name.substring(0, name.length() - PACK_SUFFIX.length())
+                + INDEX_SUFFIX);
+        DataInputStream in = fs.open(indexPath);
+        try {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Not a pack index: " + indexPath);
+            }
+            int count = in.readInt();
+            Map<String, long[]> index = new HashMap<String, long[]>(count * 2);
+            for (int i = 0; i < count; i++) {
+                index.put(in.readUTF(), new long[]{in.readLong(), in.readLong(), in.readLong()});
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void listDirs(Path dir, List<Path> dirs) throws IOException {
+        dirs.add(dir);
+        for (FileStatus status : fs.listStatus(dir)) {
+            if (status.isDirectory() && !status.getPath().getName().equals(PACK_DIR)) {
+                listDirs(status.getPath(), dirs);
+            }
+        }
+    }
+}
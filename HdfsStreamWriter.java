@@ -0,0 +1,277 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * HDFS流式写入
+ * 数据直接写入FSDataOutputStream(DFSOutputStream内部按packet缓冲)，不再经过String和BufferedOutputStream，
+ * 内存占用与文件大小无关。byte[]和堆内ByteBuffer不复制，直接内存ByteBuffer和InputStream经一个复用的缓冲区拷贝一次。
+ * 持久化策略见SyncPolicy：每写syncBytes字节或调用flush时执行一次hflush/hsync，关闭时总会执行一次。
+ */
+public class HdfsStreamWriter implements Closeable {
+
+    private final static Log LOG = LogFactory.getLog(HdfsStreamWriter.class.getName());
+
+    /**
+     * 持久化策略
+     */
+    public enum SyncPolicy {
+        // 只在关闭时落盘，吞吐最高
+        NONE,
+        // 数据推到所有DataNode内存，新读者可见，DataNode断电可能丢失
+        HFLUSH,
+        // 数据写入所有DataNode磁盘，最安全也最慢
+        HSYNC
+    }
+
+    /**
+     * 写入参数
+     */
+    public static class Options {
+        private int bufferSize = 64 * 1024;
+        private long blockSize = -1;
+        private short replication = -1;
+        private boolean overwrite = true;
+        private boolean append = false;
+        private SyncPolicy syncPolicy = SyncPolicy.HFLUSH;
+        private long syncBytes = 0;
+
+        /**
+         * 客户端缓冲区大小，也是InputStream/直接内存拷贝的块大小
+         */
+        public Options bufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * HDFS块大小，<=0 使用集群默认值
+         */
+        public Options blockSize(long blockSize) {
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * 副本数，<=0 使用集群默认值
+         */
+        public Options replication(short replication) {
+            this.replication = replication;
+            return this;
+        }
+
+        /**
+         * 文件已存在时是否覆盖，默认覆盖
+         */
+        public Options overwrite(boolean overwrite) {
+            this.overwrite = overwrite;
+            return this;
+        }
+
+        /**
+         * 追加到已有文件，忽略blockSize和replication
+         */
+        public Options append(boolean append) {
+            this.append = append;
+            return this;
+        }
+
+        public Options syncPolicy(SyncPolicy syncPolicy) {
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
+        /**
+         * 每写入多少字节按syncPolicy落盘一次，<=0 只在flush和close时落盘
+         */
+        public Options syncBytes(long syncBytes) {
+            this.syncBytes = syncBytes;
+            return this;
+        }
+    }
+
+    private final FSDataOutputStream out;
+
+    private final Path path;
+
+    private final Options options;
+
+    // 直接内存ByteBuffer和InputStream的拷贝缓冲区，按需创建
+    private byte[] scratch;
+
+    private long unsyncedBytes;
+
+    private long written;
+
+    private boolean closed;
+
+    /**
+     * @param fs      文件系统
+     * @param path    文件路径
+     * @param options 写入参数
+     */
+    public HdfsStreamWriter(FileSystem fs, Path path, Options options) throws IOException {
+        this.path = path;
+        this.options = options;
+        if (options.append) {
+            this.out = fs.append(path, options.bufferSize);
+        } else {
+            short replication = options.replication > 0 ? options.replication : fs.getDefaultReplication(path);
+            long blockSize = options.blockSize > 0 ? options.blockSize : fs.getDefaultBlockSize(path);
+            this.out = fs.create(path, options.overwrite, options.bufferSize, replication, blockSize);
+        }
+    }
+
+    public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        wrote(length);
+    }
+
+    /**
+     * 写入buffer的剩余字节，写完后buffer的position移到limit
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            int length = buffer.remaining();
+            write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.limit());
+            return;
+        }
+        byte[] buf = scratch();
+        while (buffer.hasRemaining()) {
+            int length = Math.min(buf.length, buffer.remaining());
+            buffer.get(buf, 0, length);
+            write(buf, 0, length);
+        }
+    }
+
+    /**
+     * 把输入流写完，不关闭输入流
+     *
+     * @return 写入的字节数
+     */
+    public long write(InputStream in) throws IOException {
+        byte[] buf = scratch();
+        long total = 0;
+        int count;
+        while ((count = in.read(buf)) != -1) {
+            write(buf, 0, count);
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * 按syncPolicy落盘已写入的数据
+     */
+    public void flush() throws IOException {
+        switch (options.syncPolicy) {
+            case HFLUSH:
+                out.hflush();
+                break;
+            case HSYNC:
+                out.hsync();
+                break;
+            default:
+                out.flush();
+        }
+        unsyncedBytes = 0;
+    }
+
+    /**
+     * 不论syncPolicy，强制写入DataNode磁盘
+     */
+    public void hsync() throws IOException {
+        out.hsync();
+        unsyncedBytes = 0;
+    }
+
+    /**
+     * 已写入的字节数
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (options.syncPolicy != SyncPolicy.NONE && unsyncedBytes > 0) {
+                flush();
+            }
+        } finally {
+            out.close();
+        }
+        LOG.info("Wrote " + written + " bytes to " + path);
+    }
+
+    /**
+     * 放弃写入，不再推送客户端缓冲中尚未hflush/hsync的数据，用于写入出错后丢弃流
+     * HDFS的DFSOutputStream.abort不是公开方法，通过反射调用，租约由NameNode在软限制到期后恢复，
+     * 文件保留已落盘的部分；不支持时(非HDFS)退回到close，这时缓冲中的数据仍会写出
+     */
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        OutputStream wrapped = out.getWrappedStream();
+        for (Class<?> clazz = wrapped.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+            try {
+                Method abort = clazz.getDeclaredMethod("abort");
+                abort.setAccessible(true);
+                abort.invoke(wrapped);
+                LOG.warn("Aborted " + path + " after " + written + " bytes, " + unsyncedBytes + " unsynced bytes dropped");
+                return;
+            } catch (NoSuchMethodException e) {
+                // 继续查找父类
+            } catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+                LOG.warn("Failed to abort " + path + ", closing it instead", e);
+                break;
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close " + path + " on abort", e);
+        }
+    }
+
+    private void wrote(int length) throws IOException {
+        written += length;
+        unsyncedBytes += length;
+        if (options.syncBytes > 0 && unsyncedBytes >= options.syncBytes) {
+            flush();
+        }
+    }
+
+    private byte[] scratch() {
+        if (scratch == null) {
+            scratch = new byte[options.bufferSize];
+        }
+        return scratch;
+    }
+}
@@ -0,0 +1,645 @@
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.util.DataChecksum;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地目录与HDFS目录之间的并行传输
+ * 遍历源目录，所有文件在固定大小的线程池中并发复制；超过partSize的大文件切成若干段并行传输：
+ * 上传时每段写成目标目录下的临时文件(段大小是块大小的整数倍)，全部完成后用HDFS concat合并，只改元数据不搬数据；
+ * 下载时每段用pread读取后写入本地临时文件的对应偏移。小文件也先写临时文件，完成后才改名为目标文件。
+ * 目标文件长度和修改时间与源一致时跳过(传输完成后会把目标的修改时间设为源的修改时间)，跳过判断在工作线程中进行；
+ * 开启校验时改为比较内容，HDFS一侧使用getFileChecksum，只需读取本地文件；不覆盖模式下目标存在即跳过。
+ * 任何文件失败时停止其余传输并清理未完成的分段临时文件。
+ */
+public class HdfsTransfer {
+
+    private final static Log LOG = LogFactory.getLog(HdfsTransfer.class.getName());
+
+    public static final long DEFAULT_PART_SIZE = 1024L * 1024 * 1024;
+
+    private static final int COPY_BUFFER = 128 * 1024;
+
+    private static final int MD5_LENGTH = 16;
+
+    // 失败时等待正在运行的分段退出的时间
+    private static final long ABORT_WAIT_SECONDS = 60;
+
+    private final FileSystem fs;
+
+    private final int threads;
+
+    private long partSize = DEFAULT_PART_SIZE;
+
+    private boolean verifyChecksum = false;
+
+    private boolean overwrite = true;
+
+    /**
+     * 传输结果统计
+     */
+    public static class Report {
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private long elapsedMs;
+
+        public long getFiles() {
+            return files.get();
+        }
+
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        /**
+         * 吞吐量(MB/s)
+         */
+        public double getThroughputMBps() {
+            return elapsedMs == 0 ? 0 : bytes.get() / 1048576.0 / (elapsedMs / 1000.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("copied %d files (%d bytes), skipped %d, %.1f s, %.1f MB/s", files.get(),
+                    bytes.get(), skipped.get(), elapsedMs / 1000.0, getThroughputMBps());
+        }
+    }
+
+    /**
+     * @param fs      HDFS
+     * @param threads 并行传输线程数
+     */
+    public HdfsTransfer(FileSystem fs, int threads) {
+        this.fs = fs;
+        this.threads = threads;
+    }
+
+    /**
+     * 大文件分段大小，上传时向上取整为块大小的整数倍
+     */
+    public HdfsTransfer setPartSize(long partSize) {
+        this.partSize = partSize;
+        return this;
+    }
+
+    /**
+     * 是否比较内容校验和判断目标文件是否相同，默认只比较长度和修改时间
+     */
+    public HdfsTransfer setVerifyChecksum(boolean verifyChecksum) {
+        this.verifyChecksum = verifyChecksum;
+        return this;
+    }
+
+    /**
+     * 目标文件存在且不同时是否覆盖，不覆盖时跳过
+     */
+    public HdfsTransfer setOverwrite(boolean overwrite) {
+        this.overwrite = overwrite;
+        return this;
+    }
+
+    /**
+     * 上传本地文件或目录
+     *
+     * @param localPath 本地文件或目录
+     * @param destPath  HDFS目标文件或目录
+     */
+    public Report upload(String localPath, String destPath) throws IOException {
+        final File source = new File(localPath);
+        if (!source.exists()) {
+            throw new IOException("Local path does not exist: " + localPath);
+        }
+        List<File> files = new ArrayList<File>();
+        listLocal(source, files);
+
+        final Report report = new Report();
+        long start = System.currentTimeMillis();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Set<Path> parents = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        try {
+            // 跳过判断和创建父目录都是NameNode RPC，放到工作线程中与其他文件的传输并发
+            List<Future<Transfer>> transfers = new ArrayList<Future<Transfer>>(files.size());
+            for (final File file : files) {
+                final Path target = source.isDirectory()
+                        ? new Path(destPath, source.toURI().relativize(file.toURI()).getPath())
+                        : new Path(destPath);
+                transfers.add(pool.submit(new Callable<Transfer>() {
+                    @Override
+                    public Transfer call() throws IOException {
+                        if (sameAsRemote(file, target)) {
+                            return null;
+                        }
+                        Path parent = target.getParent();
+                        if (parent != null && parents.add(parent)) {
+                            fs.mkdirs(parent);
+                        }
+                        return submitUpload(pool, file, target, report);
+                    }
+                }));
+            }
+            finishAll(pool, transfers, report);
+        } finally {
+            pool.shutdownNow();
+        }
+        report.elapsedMs = System.currentTimeMillis() - start;
+        LOG.info("Upload " + localPath + " -> " + destPath + ": " + report);
+        return report;
+    }
+
+    /**
+     * 下载HDFS文件或目录
+     *
+     * @param srcPath   HDFS文件或目录
+     * @param localPath 本地目标文件或目录
+     */
+    public Report download(String srcPath, String localPath) throws IOException {
+        Path source = new Path(srcPath);
+        final FileStatus sourceStatus = fs.getFileStatus(source);
+        List<FileStatus> files = new ArrayList<FileStatus>();
+        if (sourceStatus.isDirectory()) {
+            RemoteIterator<LocatedFileStatus> it = fs.listFiles(source, true);
+            while (it.hasNext()) {
+                files.add(it.next());
+            }
+        } else {
+            files.add(sourceStatus);
+        }
+
+        final Report report = new Report();
+        long start = System.currentTimeMillis();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            String prefix = sourceStatus.getPath().toUri().getPath();
+            List<Future<Transfer>> transfers = new ArrayList<Future<Transfer>>(files.size());
+            for (final FileStatus status : files) {
+                final File target = sourceStatus.isDirectory()
+                        ? new File(localPath, status.getPath().toUri().getPath().substring(prefix.length()))
+                        : new File(localPath);
+                transfers.add(pool.submit(new Callable<Transfer>() {
+                    @Override
+                    public Transfer call() throws IOException {
+                        if (sameAsLocal(status, target)) {
+                            return null;
+                        }
+                        return submitDownload(pool, status, target, report);
+                    }
+                }));
+            }
+            finishAll(pool, transfers, report);
+        } finally {
+            pool.shutdownNow();
+        }
+        report.elapsedMs = System.currentTimeMillis() - start;
+        LOG.info("Download " + srcPath + " -> " + localPath + ": " + report);
+        return report;
+    }
+
+    /**
+     * 一个文件的传输，finish等待所有分段完成并收尾，cleanup删除未完成传输留下的文件
+     */
+    private interface Transfer {
+        void finish() throws IOException;
+
+        void cleanup();
+    }
+
+    /**
+     * 按提交顺序等待每个文件完成(null表示跳过)
+     * 任何一个失败时停止线程池，等正在运行的分段退出后再清理所有未完成的文件，避免清理之后又被分段写出
+     */
+    private void finishAll(ExecutorService pool, List<Future<Transfer>> transfers, Report report)
+            throws IOException {
+        int finished = 0;
+        try {
+            for (Future<Transfer> future : transfers) {
+                Transfer transfer = await(future);
+                if (transfer == null) {
+                    report.skipped.incrementAndGet();
+                } else {
+                    transfer.finish();
+                    report.files.incrementAndGet();
+                }
+                finished++;
+            }
+        } catch (IOException | RuntimeException e) {
+            pool.shutdownNow();
+            try {
+                if (!pool.awaitTermination(ABORT_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                    LOG.warn("Transfer threads still running after " + ABORT_WAIT_SECONDS + "s, cleaning up anyway");
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            for (Future<Transfer> future : transfers.subList(finished, transfers.size())) {
+                if (!future.isDone()) {
+                    future.cancel(false);
+                    continue;
+                }
+                try {
+                    Transfer transfer = future.get();
+                    if (transfer != null) {
+                        transfer.cleanup();
+                    }
+                } catch (ExecutionException | InterruptedException | CancellationException ignored) {
+                    // 准备阶段失败，没有写出文件
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 一个文件的上传任务，所有分段完成后在调用线程合并
+     */
+    private class Upload implements Transfer {
+        final File file;
+        final Path target;
+        final Path[] parts;
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        Upload(File file, Path target, Path[] parts) {
+            this.file = file;
+            this.target = target;
+            this.parts = parts;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            for (Future<?> future : futures) {
+                await(future);
+            }
+            if (parts.length > 1) {
+                fs.concat(parts[0], Arrays.copyOfRange(parts, 1, parts.length));
+            }
+            // 写完才改名为目标文件，未完成的上传不会留下被误判为已传输的目标
+            fs.delete(target, false);
+            if (!fs.rename(parts[0], target)) {
+                throw new IOException("Failed to rename " + parts[0] + " to " + target);
+            }
+            fs.setTimes(target, file.lastModified(), -1);
+        }
+
+        // 删除所有分段临时文件 .文件名.part-N，concat后已不存在的分段删除时返回false
+        @Override
+        public void cleanup() {
+            for (Path part : parts) {
+                try {
+                    fs.delete(part, false);
+                } catch (IOException e) {
+                    LOG.warn("Failed to delete " + part, e);
+                }
+            }
+        }
+    }
+
+    private Upload submitUpload(ExecutorService pool, final File file, final Path target, final Report report)
+            throws IOException {
+        final long length = file.length();
+        // 不超过partSize的文件只有一段；多段时concat要求除最后一段外每段都是整块
+        final long blockSize = fs.getDefaultBlockSize(target);
+        final long size = length <= partSize ? Math.max(1, length) : (partSize + blockSize - 1) / blockSize * blockSize;
+        int count = Math.max(1, (int) ((length + size - 1) / size));
+        Path[] parts = new Path[count];
+        for (int i = 0; i < count; i++) {
+            parts[i] = new Path(target.getParent(), "." + target.getName() + ".part-" + i);
+        }
+        Upload upload = new Upload(file, target, parts);
+        for (int i = 0; i < count; i++) {
+            final long offset = i * size;
+            final long len = Math.min(size, length - offset);
+            final Path part = parts[i];
+            upload.futures.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    report.bytes.addAndGet(uploadRange(file, offset, len, part, blockSize));
+                    return null;
+                }
+            }));
+        }
+        return upload;
+    }
+
+    private long uploadRange(File file, long offset, long length, Path dest, long blockSize) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        FSDataOutputStream out = null;
+        try {
+            in.seek(offset);
+            out = fs.create(dest, true, COPY_BUFFER, fs.getDefaultReplication(dest), blockSize);
+            byte[] buf = new byte[COPY_BUFFER];
+            long remaining = length;
+            while (remaining > 0) {
+                int count = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (count < 0) {
+                    throw new IOException("Unexpected end of " + file + " at " + (offset + length - remaining));
+                }
+                out.write(buf, 0, count);
+                remaining -= count;
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+            in.close();
+        }
+        return length;
+    }
+
+    /**
+     * 一个文件的下载任务，各段写入同目录的临时文件 .文件名.part，全部完成后改名为目标文件
+     */
+    private class Download implements Transfer {
+        final FileStatus status;
+        final File target;
+        final File temp;
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        Download(FileStatus status, File target, File temp) {
+            this.status = status;
+            this.target = target;
+            this.temp = temp;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            for (Future<?> future : futures) {
+                await(future);
+            }
+            if (!temp.setLastModified(status.getModificationTime())) {
+                LOG.warn("Failed to set modification time of " + temp);
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void cleanup() {
+            if (temp.exists() && !temp.delete()) {
+                LOG.warn("Failed to delete partial download " + temp);
+            }
+        }
+    }
+
+    private Download submitDownload(ExecutorService pool, final FileStatus status, final File target,
+                                    final Report report) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create local directory " + parent);
+        }
+        // 先确定临时文件长度，各段按偏移并发写入
+        final File temp = new File(parent, "." + target.getName() + ".part");
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try {
+            raf.setLength(status.getLen());
+        } finally {
+            raf.close();
+        }
+        Download download = new Download(status, target, temp);
+        long length = status.getLen();
+        long size = Math.max(1, partSize);
+        for (long offset = 0; offset < length; offset += size) {
+            final long start = offset;
+            final long len = Math.min(size, length - offset);
+            download.futures.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    report.bytes.addAndGet(downloadRange(status.getPath(), start, len, temp));
+                    return null;
+                }
+            }));
+        }
+        return download;
+    }
+
+    private long downloadRange(Path src, long offset, long length, File target) throws IOException {
+        FSDataInputStream in = fs.open(src, COPY_BUFFER);
+        RandomAccessFile out = new RandomAccessFile(target, "rw");
+        try {
+            out.seek(offset);
+            byte[] buf = new byte[COPY_BUFFER];
+            long position = offset;
+            long remaining = length;
+            while (remaining > 0) {
+                int count = (int) Math.min(buf.length, remaining);
+                in.readFully(position, buf, 0, count);
+                out.write(buf, 0, count);
+                position += count;
+                remaining -= count;
+            }
+        } finally {
+            out.close();
+            in.close();
+        }
+        return length;
+    }
+
+    private boolean sameAsRemote(File file, Path target) throws IOException {
+        FileStatus status;
+        try {
+            status = fs.getFileStatus(target);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        if (!overwrite) {
+            return true;
+        }
+        if (status.isDirectory() || status.getLen() != file.length()) {
+            return false;
+        }
+        if (verifyChecksum) {
+            return sameContent(file, status);
+        }
+        return status.getModificationTime() == file.lastModified();
+    }
+
+    private boolean sameAsLocal(FileStatus status, File target) throws IOException {
+        if (!target.exists()) {
+            return false;
+        }
+        if (!overwrite) {
+            return true;
+        }
+        if (!target.isFile() || target.length() != status.getLen()) {
+            return false;
+        }
+        if (verifyChecksum) {
+            return sameContent(target, status);
+        }
+        return target.lastModified() == status.getModificationTime();
+    }
+
+    /**
+     * 比较本地文件与HDFS文件的内容
+     * HDFS一侧用getFileChecksum，由DataNode对各块已存储的CRC做MD5，不传输文件数据；本地按相同参数计算后比较。
+     * 文件系统不提供MD5MD5CRC32校验和时退回到两端完整读取比较MD5。
+     */
+    private boolean sameContent(File local, FileStatus remote) throws IOException {
+        FileChecksum checksum = fs.getFileChecksum(remote.getPath());
+        if (checksum instanceof MD5MD5CRC32FileChecksum) {
+            // getBytes的格式: bytesPerCRC(int) crcPerBlock(long) md5(16字节)
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(checksum.getBytes()));
+            int bytesPerCrc = in.readInt();
+            in.readLong();
+            byte[] md5 = new byte[MD5_LENGTH];
+            in.readFully(md5);
+            DataChecksum.Type crcType = ((MD5MD5CRC32FileChecksum) checksum).getCrcType();
+            return Arrays.equals(md5, md5md5crc(local, remote.getBlockSize(), bytesPerCrc, crcType));
+        }
+        InputStream localIn = new FileInputStream(local);
+        try {
+            InputStream remoteIn = fs.open(remote.getPath());
+            try {
+                return Arrays.equals(md5(localIn), md5(remoteIn));
+            } finally {
+                remoteIn.close();
+            }
+        } finally {
+            localIn.close();
+        }
+    }
+
+    /**
+     * 按HDFS的MD5MD5CRC32算法计算本地文件的校验和：每bytesPerCrc字节一个CRC(大端4字节)，
+     * 每块的CRC序列做MD5，再对各块MD5的拼接做MD5。
+     * DFSClient对拼接结果取的是DataOutputBuffer的整个底层数组(初始32字节，按2倍扩容)，尾部的0也参与计算，这里同样补齐。
+     */
+    private static byte[] md5md5crc(File file, long blockSize, int bytesPerCrc, DataChecksum.Type crcType)
+            throws IOException {
+        MessageDigest blockDigest = newMd5();
+        ByteArrayOutputStream blockMd5s = new ByteArrayOutputStream();
+        DataChecksum crc = DataChecksum.newDataChecksum(crcType, bytesPerCrc);
+        byte[] chunk = new byte[bytesPerCrc];
+        InputStream in = new BufferedInputStream(new FileInputStream(file), COPY_BUFFER);
+        try {
+            long inBlock = 0;
+            int count;
+            while ((count = readChunk(in, chunk)) > 0) {
+                crc.reset();
+                crc.update(chunk, 0, count);
+                int value = (int) crc.getValue();
+                blockDigest.update(new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8),
+                        (byte) value});
+                inBlock += count;
+                if (inBlock >= blockSize) {
+                    blockMd5s.write(blockDigest.digest());
+                    inBlock = 0;
+                }
+            }
+            if (inBlock > 0) {
+                blockMd5s.write(blockDigest.digest());
+            }
+        } finally {
+            in.close();
+        }
+        int capacity = 32;
+        while (capacity < blockMd5s.size()) {
+            capacity <<= 1;
+        }
+        return newMd5().digest(Arrays.copyOf(blockMd5s.toByteArray(), capacity));
+    }
+
+    // 读满chunk，文件末尾时返回实际读到的字节数
+    private static int readChunk(InputStream in, byte[] chunk) throws IOException {
+        int total = 0;
+        while (total < chunk.length) {
+            int count = in.read(chunk, total, chunk.length - total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for transfer");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static byte[] md5(InputStream in) throws IOException {
+        MessageDigest digest = newMd5();
+        byte[] buf = new byte[COPY_BUFFER];
+        int count;
+        while ((count = in.read(buf)) != -1) {
+            digest.update(buf, 0, count);
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newMd5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void listLocal(File file, List<File> files) {
+        if (file.isFile()) {
+            files.add(file);
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                listLocal(child, files);
+            }
+        }
+    }
+}
@@ -6,10 +6,16 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.util.ShutdownHookManager;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Collection;
 
 
 public class HdfsUtils {
@@ -20,6 +26,10 @@ public class HdfsUtils {
 
     private static FileSystem fSystem; /* HDFS file system */
     private static Configuration conf;
+    private static volatile HdfsGroupAppender groupAppender;
+    private static boolean appenderHookAdded;
+    private static volatile HdfsSmallFileCompactor compactor;
+    private static HdfsMetadataCache metadataCache;
 
     private static String PRNCIPAL_NAME;
     private static String PATH_TO_KEYTAB = PathCons.PATH_TO_KEYTAB;
@@ -83,6 +93,67 @@ public class HdfsUtils {
     private static void instanceBuild() throws IOException {
         // get filesystem
         fSystem = FileSystem.get(conf);
+        metadataCache = new HdfsMetadataCache(fSystem, conf.getLong("hdfs.utils.metadata.ttl.ms", 1000),
+                conf.getInt("hdfs.utils.metadata.max.entries", 100000));
+    }
+
+    /**
+     * 获取FileSystem实例，供其他工具类直接操作HDFS
+     */
+    public FileSystem getFileSystem() {
+        return fSystem;
+    }
+
+    /**
+     * 获取HDFS配置
+     */
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * 元数据缓存，TTL由hdfs.utils.metadata.ttl.ms指定，通过HdfsUtils的修改会自动失效
+     */
+    public HdfsMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * 获取文件或目录状态(短TTL缓存)
+     * @param filePath 路径
+     * @return 不存在时返回null
+     * @throws IOException
+     */
+    public FileStatus getFileStatus(String filePath) throws IOException {
+        return metadataCache.getFileStatus(new Path(filePath));
+    }
+
+    /**
+     * 判断路径是否存在(短TTL缓存)
+     */
+    public boolean exists(String filePath) throws IOException {
+        return metadataCache.exists(new Path(filePath));
+    }
+
+    /**
+     * 分页列出目录下的直接子项，大目录不会一次性加载到内存，不含块位置
+     * @param dirPath 目录
+     * @return 子项迭代器
+     * @throws IOException
+     */
+    public RemoteIterator<FileStatus> listStatus(String dirPath) throws IOException {
+        return metadataCache.listStatus(new Path(dirPath));
+    }
+
+    /**
+     * 分页列出目录下的文件，包含块位置信息
+     * @param dirPath 目录
+     * @param recursive 是否包括子目录
+     * @return 文件迭代器
+     * @throws IOException
+     */
+    public RemoteIterator<LocatedFileStatus> listFiles(String dirPath, boolean recursive) throws IOException {
+        return metadataCache.listFiles(new Path(dirPath), recursive);
     }
 
     /**
@@ -91,12 +162,37 @@ public class HdfsUtils {
      * @throws IOException
      */
     public void mkdir(String filePath) throws IOException {
-        Path destPath = new Path(filePath);
-        if (fSystem.exists(destPath)) {
-            LOG.error("failed to create destPath the path is already existed: " + filePath);
-        } else {
-            fSystem.mkdirs(destPath);
+        // mkdirs对已存在的目录也返回true，不需要先exists
+        if (metadataCache.mkdirs(new Path(filePath))) {
             LOG.info("success to create destPath " + filePath);
+        } else {
+            LOG.error("failed to create destPath " + filePath);
+        }
+    }
+
+    /**
+     * 打开流式写入，按默认参数覆盖写
+     * @param filePath 文件路径
+     * @return 写入句柄，用完需要close
+     * @throws IOException
+     */
+    public HdfsStreamWriter openWriter(String filePath) throws IOException {
+        return openWriter(filePath, new HdfsStreamWriter.Options());
+    }
+
+    /**
+     * 打开流式写入，可指定缓冲区、块大小、副本数和hflush/hsync策略
+     * @param filePath 文件路径
+     * @param options 写入参数
+     * @return 写入句柄，用完需要close
+     * @throws IOException
+     */
+    public HdfsStreamWriter openWriter(String filePath, HdfsStreamWriter.Options options) throws IOException {
+        Path path = new Path(filePath);
+        try {
+            return new HdfsStreamWriter(fSystem, path, options);
+        } finally {
+            metadataCache.invalidate(path);
         }
     }
 
@@ -108,14 +204,55 @@ public class HdfsUtils {
      * @throws IOException
      */
     public void write(final String content, String destPath, String fileName) throws IOException, ParameterException {
-        InputStream in = (InputStream) new ByteArrayInputStream(content.getBytes());
+        HdfsStreamWriter writer = openWriter(destPath + File.separator + fileName);
         try {
-            HdfsWriter writer = new HdfsWriter(fSystem, destPath + File.separator + fileName);
-            writer.doWrite(in);
-            LOG.info("success to write.");
+            writer.write(content.getBytes());
         } finally {
-            in.close();
+            writer.close();
         }
+        LOG.info("success to write.");
+    }
+
+    /**
+     * 压缩写入HDFS，输出为独立压缩的分片 fileName-part-00000.gz 等，每个分片不超过hdfs.utils.compress.part.size
+     * (默认HDFS块大小)，下游可以按分片并行读取，read/readLines透明解压
+     * @param content 内容
+     * @param destPath 目标目录
+     * @param fileName 分片文件名前缀
+     * @param compression 压缩格式，NONE时等同write(content, destPath, fileName)
+     * @throws IOException 编解码器不可用时抛出
+     */
+    public void write(final String content, String destPath, String fileName, HdfsCompression compression)
+            throws IOException, ParameterException {
+        if (compression == HdfsCompression.NONE) {
+            write(content, destPath, fileName);
+            return;
+        }
+        HdfsCompressedWriter writer = openCompressedWriter(destPath + File.separator + fileName, compression);
+        try {
+            // 按行写入，分片在换行处滚动；write(byte[])会把整个内容当作一条记录，只能写成一个分片
+            writer.writeLines(new ByteArrayInputStream(content.getBytes()));
+            writer.close();
+        } catch (IOException | RuntimeException e) {
+            writer.abort();
+            throw e;
+        } finally {
+            metadataCache.invalidateTree(new Path(destPath));
+        }
+        LOG.info("success to write " + writer.getParts().size() + " " + compression + " parts.");
+    }
+
+    /**
+     * 打开压缩写入，覆盖前缀下已有的分片
+     * @param prefix 分片路径前缀
+     * @param compression 压缩格式
+     * @return 写入句柄，用完需要close
+     * @throws IOException
+     */
+    public HdfsCompressedWriter openCompressedWriter(String prefix, HdfsCompression compression) throws IOException {
+        metadataCache.invalidateTree(new Path(prefix).getParent());
+        return new HdfsCompressedWriter(fSystem, prefix, compression,
+                conf.getLong("hdfs.utils.compress.part.size", 0), true);
     }
 
     /**
@@ -126,56 +263,111 @@ public class HdfsUtils {
      * @throws Exception
      */
     public void append(final String content, String destPath, String fileName) throws Exception {
-        //校验路径是否存在
-        if (!fSystem.exists(new Path(destPath+"/"+fileName))) {
+        HdfsStreamWriter writer;
+        try {
+            writer = openWriter(destPath + File.separator + fileName, new HdfsStreamWriter.Options().append(true));
+        } catch (FileNotFoundException e) {
             LOG.error("the Path or File doesn't exists " + destPath+"/"+fileName);
-        } else {
-            InputStream in = (InputStream) new ByteArrayInputStream(content.getBytes());
-            try {
-                HdfsWriter writer = new HdfsWriter(fSystem, destPath + File.separator + fileName);
-                writer.doAppend(in);
-                LOG.info("success to append.");
-            } finally {
-                close(in);
-            }
+            return;
+        }
+        try {
+            writer.write(content.getBytes());
+        } finally {
+            writer.close();
         }
+        LOG.info("success to append.");
     }
 
     /**
-     * 读取HDFS文件
+     * 读取HDFS文件，.gz/.snappy/.lz4/.zst文件和压缩写入的分片透明解压
      * @param destPath HDFS目录
-     * @param fileName 文件名(eg test.txt)
+     * @param fileName 文件名(eg test.txt)，压缩分片传分片前缀
      * @return
      * @throws IOException
      */
     public String read(String destPath, String fileName) throws IOException {
-        if (!fSystem.exists(new Path(destPath+"/"+fileName))) {
+        String strPath = destPath + File.separator + fileName;
+        InputStream in;
+        try {
+            in = HdfsCompression.open(fSystem, new Path(strPath), conf.getInt("io.file.buffer.size", 64 * 1024));
+        } catch (FileNotFoundException e) {
             LOG.error("the Path or File doesn't exists " + destPath+"/"+fileName);
-        } else {
-            String strPath = destPath + File.separator + fileName;
-            Path path = new Path(strPath);
-            FSDataInputStream in = null;
-            BufferedReader reader = null;
-            StringBuffer strBuffer = new StringBuffer();
+            return null;
+        }
+        BufferedReader reader = null;
+        StringBuilder strBuilder = new StringBuilder();
 
-            try {
-                in = fSystem.open(path);
-                reader = new BufferedReader(new InputStreamReader(in));
-                String sTempOneLine;
+        try {
+            reader = new BufferedReader(new InputStreamReader(in));
+            String sTempOneLine;
 
-                while ((sTempOneLine = reader.readLine()) != null) {
-                    strBuffer.append(sTempOneLine + "\n");
-                }
+            while ((sTempOneLine = reader.readLine()) != null) {
+                strBuilder.append(sTempOneLine).append('\n');
+            }
 
-                LOG.info("success to read ");
-                return strBuffer.toString();
+            LOG.info("success to read ");
+            return strBuilder.toString();
 
-            } finally {
+        } finally {
+            if (reader != null) {
                 close(reader);
-                close(in);
             }
+            close(in);
+        }
+    }
+
+    /**
+     * 按行惰性读取HDFS文件，适合大于内存的文件，压缩文件和压缩分片透明解压
+     * @param filePath 文件路径
+     * @param charset 字符集
+     * @return 行迭代器，用完需要close
+     * @throws IOException
+     */
+    public HdfsLineIterator readLines(String filePath, Charset charset) throws IOException {
+        return readLines(filePath, charset, null);
+    }
+
+    /**
+     * 按指定分隔符惰性读取记录
+     * @param filePath 文件路径
+     * @param charset 字符集，也用于编码分隔符
+     * @param delimiter 记录分隔符，为null时按行(\n、\r、\r\n)切分
+     * @return 记录迭代器，用完需要close
+     * @throws IOException
+     */
+    public HdfsLineIterator readLines(String filePath, Charset charset, String delimiter) throws IOException {
+        int bufferSize = conf.getInt("io.file.buffer.size", 64 * 1024);
+        return new HdfsLineIterator(HdfsCompression.open(fSystem, new Path(filePath), bufferSize), charset,
+                delimiter == null ? null : delimiter.getBytes(charset), bufferSize);
+    }
+
+    /**
+     * 打开文件用于随机/区间读取，可多次按偏移读取
+     * @param filePath 文件路径
+     * @return 区间读取句柄，用完需要close
+     * @throws IOException
+     */
+    public HdfsRangeReader openReader(String filePath) throws IOException {
+        return new HdfsRangeReader(fSystem, new Path(filePath));
+    }
+
+    /**
+     * 读取文件的 [offset, offset + len) 区间
+     * @param filePath 文件路径
+     * @param offset 起始偏移
+     * @param len 长度
+     * @return 区间内容
+     * @throws IOException 区间超出文件长度时抛出EOFException
+     */
+    public byte[] readFully(String filePath, long offset, int len) throws IOException {
+        FSDataInputStream in = fSystem.open(new Path(filePath));
+        try {
+            byte[] bytes = new byte[len];
+            in.readFully(offset, bytes, 0, len);
+            return bytes;
+        } finally {
+            close(in);
         }
-        return null;
     }
 
     /**
@@ -186,7 +378,7 @@ public class HdfsUtils {
      */
     public void deleteFile(String destPath, String fileName) throws IOException {
         Path beDeletedPath = new Path(destPath + File.separator + fileName);
-        if (fSystem.delete(beDeletedPath, true)) {
+        if (metadataCache.delete(beDeletedPath, true)) {
             LOG.info("success to delete the file " + destPath + File.separator + fileName);
         } else {
             LOG.error("failed to delete the file, the file doesn't exists" + destPath + File.separator + fileName);
@@ -199,9 +391,7 @@ public class HdfsUtils {
      * @throws IOException
      */
     public void rmdir(String destPath) throws IOException {
-        Path path = new Path(destPath);
-        if (fSystem.exists(path)) {
-            fSystem.delete(path, true);
+        if (metadataCache.delete(new Path(destPath), true)) {
             LOG.info("success to delete path " + destPath);
         } else {
             LOG.error("failed to delete destPath, the directory doesn't exists " + destPath);
@@ -217,6 +407,7 @@ public class HdfsUtils {
         try {
             // 从本地将文件拷贝到HDFS中，如果目标文件已存在则进行覆盖
             fSystem.copyFromLocalFile(new Path(localPath), new Path(destPath));
+            metadataCache.invalidateTree(new Path(destPath));
             LOG.info("file has been uploaded to HDFS");
         } catch (IOException e) {
             LOG.error("uploading failed");
@@ -232,12 +423,10 @@ public class HdfsUtils {
      */
     public void getFile(String destPath, String localPath) {
         try {
-            if (!fSystem.exists(new Path(destPath))) {
-                LOG.error("文件不存在！");
-            } else {
-                fSystem.copyToLocalFile(new Path(destPath), new Path(localPath));
-                LOG.info("download succeed");
-            }
+            fSystem.copyToLocalFile(new Path(destPath), new Path(localPath));
+            LOG.info("download succeed");
+        } catch (FileNotFoundException e) {
+            LOG.error("文件不存在！");
         } catch (IOException e) {
             LOG.error("downloading failed");
             e.printStackTrace();
@@ -245,6 +434,148 @@ public class HdfsUtils {
     }
 
 
+    /**
+     * 并行上传本地文件或目录，长度和修改时间相同的文件跳过
+     * 线程数和大文件分段大小由hdfs.utils.transfer.threads、hdfs.utils.transfer.part.size指定
+     * @param localPath 本地文件或目录
+     * @param destPath HDFS目标文件或目录
+     * @param verifyChecksum 是否用MD5判断文件是否相同
+     * @return 传输统计
+     * @throws IOException
+     */
+    public HdfsTransfer.Report uploadParallel(String localPath, String destPath, boolean verifyChecksum)
+            throws IOException {
+        try {
+            return newTransfer().setVerifyChecksum(verifyChecksum).upload(localPath, destPath);
+        } finally {
+            metadataCache.invalidateTree(new Path(destPath));
+        }
+    }
+
+    /**
+     * 并行下载HDFS文件或目录，长度和修改时间相同的文件跳过
+     * @param destPath HDFS文件或目录
+     * @param localPath 本地目标文件或目录
+     * @param verifyChecksum 是否用MD5判断文件是否相同
+     * @return 传输统计
+     * @throws IOException
+     */
+    public HdfsTransfer.Report downloadParallel(String destPath, String localPath, boolean verifyChecksum)
+            throws IOException {
+        return newTransfer().setVerifyChecksum(verifyChecksum).download(destPath, localPath);
+    }
+
+    /**
+     * 合并目录及子目录下的小文件，每个目录的小文件写入_packs下带索引的容器文件，提交后删除源文件
+     * 并行度由hdfs.utils.compact.threads指定
+     * @param rootPath 根目录
+     * @return 合并统计
+     * @throws IOException
+     */
+    public HdfsSmallFileCompactor.Report compactSmallFiles(String rootPath) throws IOException {
+        try {
+            return getCompactor().compact(rootPath);
+        } finally {
+            metadataCache.invalidateTree(new Path(rootPath));
+        }
+    }
+
+    /**
+     * 共享的小文件合并器，可设置小文件阈值、容器大小等参数，也用于按原文件名读取已合并的文件
+     * 按目录缓存合并后的容器索引，重复读取不再列出和加载容器索引；缓存目录数由hdfs.utils.compact.index.dirs指定
+     */
+    public HdfsSmallFileCompactor getCompactor() {
+        if (compactor == null) {
+            synchronized (HdfsUtils.class) {
+                if (compactor == null) {
+                    compactor = new HdfsSmallFileCompactor(fSystem, conf.getInt("hdfs.utils.compact.threads", 8))
+                            .setIndexCacheDirs(conf.getInt("hdfs.utils.compact.index.dirs",
+                                    HdfsSmallFileCompactor.DEFAULT_INDEX_CACHE_DIRS));
+                }
+            }
+        }
+        return compactor;
+    }
+
+    /**
+     * 共享的组提交追加写服务，流按目标长期保持打开，并发追加合并为一次hflush/hsync
+     * 参数由hdfs.utils.appender.sync(NONE/HFLUSH/HSYNC)、hdfs.utils.appender.roll.bytes、
+     * hdfs.utils.appender.roll.records、hdfs.utils.appender.roll.interval.ms、
+     * hdfs.utils.appender.batch.records、hdfs.utils.appender.threads指定
+     */
+    public HdfsGroupAppender getGroupAppender() {
+        if (groupAppender == null) {
+            synchronized (HdfsUtils.class) {
+                if (groupAppender == null) {
+                    groupAppender = new HdfsGroupAppender(fSystem, new HdfsGroupAppender.Options()
+                            .syncPolicy(HdfsStreamWriter.SyncPolicy.valueOf(
+                                    conf.get("hdfs.utils.appender.sync", "HFLUSH").toUpperCase()))
+                            .rollBytes(conf.getLong("hdfs.utils.appender.roll.bytes", 128L * 1024 * 1024))
+                            .rollRecords(conf.getLong("hdfs.utils.appender.roll.records", 0))
+                            .rollIntervalMs(conf.getLong("hdfs.utils.appender.roll.interval.ms", 60 * 60 * 1000L))
+                            .maxBatchRecords(conf.getInt("hdfs.utils.appender.batch.records", 4096))
+                            .writerThreads(conf.getInt("hdfs.utils.appender.threads", 4)));
+                    if (!appenderHookAdded) {
+                        // 先于FileSystem缓存的关闭钩子执行，进程退出前提交排队的记录并关闭文件
+                        ShutdownHookManager.get().addShutdownHook(new Runnable() {
+                            @Override
+                            public void run() {
+                                closeGroupAppender();
+                            }
+                        }, FileSystem.SHUTDOWN_HOOK_PRIORITY + 1);
+                        appenderHookAdded = true;
+                    }
+                }
+            }
+        }
+        return groupAppender;
+    }
+
+    /**
+     * 提交排队的记录并关闭共享的追加写服务，之后getGroupAppender会创建新的实例
+     * 进程退出时由关闭钩子自动调用
+     */
+    public static void closeGroupAppender() {
+        HdfsGroupAppender appender;
+        synchronized (HdfsUtils.class) {
+            appender = groupAppender;
+            groupAppender = null;
+        }
+        if (appender != null) {
+            try {
+                appender.close();
+            } catch (IOException e) {
+                LOG.error("Close group appender failed ", e);
+            }
+        }
+    }
+
+    /**
+     * 批量并发的delete/mkdirs/rename/setPermission/setReplication，路径支持glob，可dryRun
+     * 并发度由hdfs.utils.bulk.threads指定，允许删除的最小路径深度由hdfs.utils.bulk.delete.min.depth指定(默认2)
+     */
+    public HdfsBulkOperations getBulkOperations() {
+        return new HdfsBulkOperations(fSystem, metadataCache, conf.getInt("hdfs.utils.bulk.threads", 16))
+                .setMinDeleteDepth(conf.getInt("hdfs.utils.bulk.delete.min.depth",
+                        HdfsBulkOperations.DEFAULT_MIN_DELETE_DEPTH));
+    }
+
+    /**
+     * 批量删除路径或glob匹配的文件和目录，如过期分区 /warehouse/t/dt=2019*
+     * @param patterns 路径或glob模式
+     * @param dryRun 为true时只返回将要删除的路径
+     * @return 每个路径的结果
+     * @throws IOException glob展开失败时抛出，单个路径的删除失败记录在结果中
+     */
+    public HdfsBulkOperations.Result deleteAll(Collection<String> patterns, boolean dryRun) throws IOException {
+        return getBulkOperations().setDryRun(dryRun).delete(patterns, true);
+    }
+
+    private HdfsTransfer newTransfer() {
+        return new HdfsTransfer(fSystem, conf.getInt("hdfs.utils.transfer.threads", 8))
+                .setPartSize(conf.getLong("hdfs.utils.transfer.part.size", HdfsTransfer.DEFAULT_PART_SIZE));
+    }
+
     //关闭流
     private void close(Closeable stream) throws IOException {
         stream.close();
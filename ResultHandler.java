@@ -0,0 +1,15 @@
+
+import org.apache.hadoop.hbase.client.Result;
+
+import java.io.IOException;
+
+/**
+ * 扫描结果回调，每行调用一次
+ */
+public interface ResultHandler {
+
+    /**
+     * @param result 一行数据
+     */
+    void handle(Result result) throws IOException;
+}
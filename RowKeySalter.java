@@ -0,0 +1,38 @@
+
+/**
+ * rowkey加盐策略
+ * 在逻辑rowkey前加分桶前缀，把单调递增的rowkey(时间戳、手机号等)打散到多个Region。
+ * 前缀必须按桶号递增排序，建表时以桶前缀作为预分区点。
+ */
+public interface RowKeySalter {
+
+    /**
+     * 分桶数
+     */
+    int getBuckets();
+
+    /**
+     * 逻辑rowkey所在的桶
+     */
+    int getBucket(byte[] rowkey);
+
+    /**
+     * 桶前缀
+     */
+    byte[] getPrefix(int bucket);
+
+    /**
+     * 加盐，返回物理rowkey
+     */
+    byte[] salt(byte[] rowkey);
+
+    /**
+     * 去盐，返回逻辑rowkey
+     */
+    byte[] unsalt(byte[] saltedRowkey);
+
+    /**
+     * 预分区点，每个桶一个Region
+     */
+    byte[][] getSplitKeys();
+}
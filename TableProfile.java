@@ -0,0 +1,106 @@
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+
+/**
+ * 按负载类型预设的列簇配置
+ * POINT_LOOKUP: 按rowkey随机读，小数据块 + ROW布隆过滤器，数据常驻缓存
+ * SCAN_HEAVY:   大范围扫描，大数据块，不用布隆过滤器，扫描不挤占块缓存
+ * TIME_SERIES:  按时间追加、按时间范围读，默认保留30天，新写入的块直接进缓存
+ * WRITE_HEAVY:  写多读少，不做块编码以减少flush和compaction的CPU开销，写入时不缓存
+ */
+public enum TableProfile {
+
+    POINT_LOOKUP(BloomType.ROW, 8 * 1024, true, true, true,
+            HConstants.FOREVER, 1, DataBlockEncoding.FAST_DIFF, Compression.Algorithm.SNAPPY),
+
+    SCAN_HEAVY(BloomType.NONE, 256 * 1024, false, false, false,
+            HConstants.FOREVER, 1, DataBlockEncoding.FAST_DIFF, Compression.Algorithm.SNAPPY),
+
+    TIME_SERIES(BloomType.NONE, 64 * 1024, true, false, true,
+            30 * 24 * 3600, 1, DataBlockEncoding.DIFF, Compression.Algorithm.SNAPPY),
+
+    WRITE_HEAVY(BloomType.ROW, 64 * 1024, true, false, false,
+            HConstants.FOREVER, 1, DataBlockEncoding.NONE, Compression.Algorithm.SNAPPY);
+
+    private final BloomType bloomType;
+    private final int blockSize;
+    private final boolean blockCacheEnabled;
+    private final boolean inMemory;
+    private final boolean cacheDataOnWrite;
+    private final int ttlSeconds;
+    private final int maxVersions;
+    private final DataBlockEncoding encoding;
+    private final Compression.Algorithm compression;
+
+    TableProfile(BloomType bloomType, int blockSize, boolean blockCacheEnabled, boolean inMemory,
+                 boolean cacheDataOnWrite, int ttlSeconds, int maxVersions, DataBlockEncoding encoding,
+                 Compression.Algorithm compression) {
+        this.bloomType = bloomType;
+        this.blockSize = blockSize;
+        this.blockCacheEnabled = blockCacheEnabled;
+        this.inMemory = inMemory;
+        this.cacheDataOnWrite = cacheDataOnWrite;
+        this.ttlSeconds = ttlSeconds;
+        this.maxVersions = maxVersions;
+        this.encoding = encoding;
+        this.compression = compression;
+    }
+
+    /**
+     * 按该配置创建列簇
+     */
+    public HColumnDescriptor newFamily(String familyName) {
+        return applyTo(new HColumnDescriptor(familyName));
+    }
+
+    /**
+     * 按该配置创建列簇，覆盖默认TTL
+     *
+     * @param ttlSeconds 数据保留时间(秒)，HConstants.FOREVER表示永久保留
+     */
+    public HColumnDescriptor newFamily(String familyName, int ttlSeconds) {
+        HColumnDescriptor hcd = newFamily(familyName);
+        hcd.setTimeToLive(ttlSeconds);
+        return hcd;
+    }
+
+    /**
+     * 把该配置应用到已有列簇
+     */
+    public HColumnDescriptor applyTo(HColumnDescriptor hcd) {
+        hcd.setBloomFilterType(bloomType);
+        hcd.setBlocksize(blockSize);
+        hcd.setBlockCacheEnabled(blockCacheEnabled);
+        hcd.setInMemory(inMemory);
+        hcd.setCacheDataOnWrite(cacheDataOnWrite);
+        hcd.setTimeToLive(ttlSeconds);
+        hcd.setMaxVersions(maxVersions);
+        hcd.setDataBlockEncoding(encoding);
+        hcd.setCompressionType(compression);
+        return hcd;
+    }
+
+    public BloomType getBloomType() {
+        return bloomType;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public DataBlockEncoding getEncoding() {
+        return encoding;
+    }
+
+    public Compression.Algorithm getCompression() {
+        return compression;
+    }
+}
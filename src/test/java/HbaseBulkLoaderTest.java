@@ -0,0 +1,179 @@
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CompressionTest;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * HbaseBulkLoader测试
+ * 在本地mini-cluster上用createTable建预分区表，有序和无序单元格跨Region边界导入后读回校验。
+ * 本机没有Snappy本地库时改为不压缩建表，其余步骤不变。
+ */
+public class HbaseBulkLoaderTest extends TestCase {
+
+    private static final String FAMILY = "f";
+    private static final byte[] QUALIFIER = Bytes.toBytes("q");
+    private static final int ROWS = 1000;
+    private static final byte[][] SPLITS = {rowKey(250), rowKey(500), rowKey(750)};
+
+    private static HBaseTestingUtility util;
+    private static Connection conn;
+    private static HbaseUtils hbaseUtils;
+
+    // 整个类共用一个mini-cluster
+    public static Test suite() {
+        return new TestSetup(new TestSuite(HbaseBulkLoaderTest.class)) {
+            @Override
+            protected void setUp() throws Exception {
+                util = new HBaseTestingUtility();
+                // 非安全集群上临时文件的属组改为当前用户的组
+                String[] groups = UserGroupInformation.getCurrentUser().getGroupNames();
+                util.getConfiguration().set(HbaseBulkLoader.BULKLOAD_GROUP_KEY,
+                        groups.length > 0 ? groups[0] : "supergroup");
+                util.startMiniCluster();
+                conn = ConnectionFactory.createConnection(util.getConfiguration());
+                hbaseUtils = HbaseUtils.getInstance(util.getConfiguration(), conn);
+            }
+
+            @Override
+            protected void tearDown() throws Exception {
+                hbaseUtils.closeBatchWriters();
+                conn.close();
+                util.shutdownMiniCluster();
+            }
+        };
+    }
+
+    public void testCreateTablePreSplit() throws IOException {
+        String tableName = createTable("bulk_schema");
+        RegionLocator locator = conn.getRegionLocator(TableName.valueOf(tableName));
+        Admin admin = conn.getAdmin();
+        try {
+            assertEquals(SPLITS.length + 1, locator.getStartKeys().length);
+            HColumnDescriptor hcd = admin.getTableDescriptor(TableName.valueOf(tableName))
+                    .getFamily(Bytes.toBytes(FAMILY));
+            assertEquals(DataBlockEncoding.FAST_DIFF, hcd.getDataBlockEncoding());
+            if (snappyAvailable()) {
+                assertEquals(Compression.Algorithm.SNAPPY, hcd.getCompressionType());
+            }
+        } finally {
+            admin.close();
+            locator.close();
+        }
+    }
+
+    public void testSortedLoad() throws IOException {
+        String tableName = createTable("bulk_sorted");
+        List<KeyValue> cells = cells();
+        // 相同key的LATEST_TIMESTAMP单元格相邻出现，不能被判为无序
+        cells.add(501, new KeyValue(rowKey(500), Bytes.toBytes(FAMILY), QUALIFIER, HConstants.LATEST_TIMESTAMP,
+                value(500)));
+        long loaded = newLoader(tableName).load(cells.iterator(), true, stagingDir(tableName));
+        assertEquals(ROWS + 1, loaded);
+        assertRows(tableName);
+    }
+
+    public void testUnsortedLoad() throws IOException {
+        String tableName = createTable("bulk_unsorted");
+        List<KeyValue> cells = cells();
+        Collections.shuffle(cells, new Random(42));
+        // 分多块排序，每块各自跨越所有Region
+        long loaded = newLoader(tableName).setMaxSortCells(300)
+                .load(cells.iterator(), false, stagingDir(tableName));
+        assertEquals(ROWS, loaded);
+        assertRows(tableName);
+    }
+
+    public void testUnsortedCellsRejectedAsSorted() throws IOException {
+        String tableName = createTable("bulk_rejected");
+        List<KeyValue> cells = cells();
+        Collections.reverse(cells);
+        try {
+            newLoader(tableName).load(cells.iterator(), true, stagingDir(tableName));
+            fail("Unsorted cells should be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Cells are not sorted"));
+        }
+    }
+
+    private static String createTable(String tableName) {
+        if (snappyAvailable()) {
+            hbaseUtils.createTable(tableName, FAMILY, SPLITS);
+        } else {
+            HColumnDescriptor hcd = new HColumnDescriptor(FAMILY);
+            hcd.setDataBlockEncoding(DataBlockEncoding.FAST_DIFF);
+            hbaseUtils.createTable(tableName, hcd, SPLITS);
+        }
+        return tableName;
+    }
+
+    private static HbaseBulkLoader newLoader(String tableName) throws IOException {
+        return new HbaseBulkLoader(conn, util.getConfiguration(), util.getTestFileSystem(), tableName);
+    }
+
+    private static String stagingDir(String tableName) throws IOException {
+        return new Path(util.getDataTestDirOnTestFS(), "staging-" + tableName).toString();
+    }
+
+    // 按rowkey升序，时间戳由导入时填入
+    private static List<KeyValue> cells() {
+        List<KeyValue> cells = new ArrayList<KeyValue>(ROWS + 1);
+        for (int i = 0; i < ROWS; i++) {
+            cells.add(new KeyValue(rowKey(i), Bytes.toBytes(FAMILY), QUALIFIER, HConstants.LATEST_TIMESTAMP,
+                    value(i)));
+        }
+        return cells;
+    }
+
+    private static void assertRows(String tableName) throws IOException {
+        List<String> rowkeys = new ArrayList<String>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            rowkeys.add(Bytes.toString(rowKey(i)));
+        }
+        Map<String, Result> results = hbaseUtils.getDataByRowkeys(tableName, rowkeys);
+        assertEquals(ROWS, results.size());
+        for (int i = 0; i < ROWS; i++) {
+            Result result = results.get(rowkeys.get(i));
+            assertTrue(rowkeys.get(i), Bytes.equals(value(i), result.getValue(Bytes.toBytes(FAMILY), QUALIFIER)));
+        }
+    }
+
+    private static boolean snappyAvailable() {
+        try {
+            CompressionTest.testCompression(Compression.Algorithm.SNAPPY);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] rowKey(int i) {
+        return Bytes.toBytes(String.format("row%04d", i));
+    }
+
+    private static byte[] value(int i) {
+        return Bytes.toBytes("value-" + i);
+    }
+}
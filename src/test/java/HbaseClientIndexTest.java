@@ -0,0 +1,198 @@
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CompressionTest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HbaseClientIndex测试
+ * 在本地mini-cluster上通过HbaseUtils的各写入路径写数据，检查索引表条目和queryByIndex的结果。
+ */
+public class HbaseClientIndexTest extends TestCase {
+
+    private static final String FAMILY = "f";
+    private static final String QUALIFIER = "city";
+    private static final String INDEX = "by_city";
+
+    private static HBaseTestingUtility util;
+    private static Connection conn;
+    private static HbaseUtils hbaseUtils;
+
+    // 整个类共用一个mini-cluster
+    public static Test suite() {
+        return new TestSetup(new TestSuite(HbaseClientIndexTest.class)) {
+            @Override
+            protected void setUp() throws Exception {
+                util = new HBaseTestingUtility();
+                util.startMiniCluster();
+                conn = ConnectionFactory.createConnection(util.getConfiguration());
+                hbaseUtils = HbaseUtils.getInstance(util.getConfiguration(), conn);
+            }
+
+            @Override
+            protected void tearDown() throws Exception {
+                hbaseUtils.closeBatchWriters();
+                conn.close();
+                util.shutdownMiniCluster();
+            }
+        };
+    }
+
+    public void testOverwriteRemovesStaleEntry() throws IOException {
+        String tableName = createIndexedTable("idx_overwrite");
+        hbaseUtils.insertData(tableName, "u1", FAMILY, QUALIFIER, "beijing");
+        hbaseUtils.insertData(tableName, "u1", FAMILY, QUALIFIER, "shanghai");
+
+        assertEquals(Collections.singletonList("shanghai/u1"), indexEntries(tableName));
+        assertEquals(Collections.<String>emptyList(), query(tableName, CompareFilter.CompareOp.EQUAL, "beijing"));
+        assertEquals(Collections.singletonList("u1"), query(tableName, CompareFilter.CompareOp.EQUAL, "shanghai"));
+    }
+
+    public void testDeleteRemovesEntry() throws IOException {
+        String tableName = createIndexedTable("idx_delete");
+        hbaseUtils.insertData(tableName, "u1", FAMILY, QUALIFIER, "beijing");
+        hbaseUtils.insertData(tableName, "u2", FAMILY, QUALIFIER, "beijing");
+        hbaseUtils.deleteByRowkey(tableName, "u1");
+
+        assertEquals(Collections.singletonList("beijing/u2"), indexEntries(tableName));
+        assertEquals(Collections.singletonList("u2"), query(tableName, CompareFilter.CompareOp.EQUAL, "beijing"));
+    }
+
+    public void testEqualityAndRangeQuery() throws IOException {
+        String tableName = createIndexedTable("idx_range");
+        hbaseUtils.insertData(tableName, "u1", FAMILY, QUALIFIER, "10");
+        hbaseUtils.insertData(tableName, "u2", FAMILY, QUALIFIER, "20");
+        hbaseUtils.insertData(tableName, "u3", FAMILY, QUALIFIER, "30");
+
+        assertEquals(Collections.singletonList("u2"), query(tableName, CompareFilter.CompareOp.EQUAL, "20"));
+        assertEquals(Arrays.asList("u1", "u3"), query(tableName, CompareFilter.CompareOp.NOT_EQUAL, "20"));
+        assertEquals(Collections.singletonList("u1"), query(tableName, CompareFilter.CompareOp.LESS, "20"));
+        assertEquals(Arrays.asList("u1", "u2"), query(tableName, CompareFilter.CompareOp.LESS_OR_EQUAL, "20"));
+        assertEquals(Collections.singletonList("u3"), query(tableName, CompareFilter.CompareOp.GREATER, "20"));
+        assertEquals(Arrays.asList("u2", "u3"), query(tableName, CompareFilter.CompareOp.GREATER_OR_EQUAL, "20"));
+    }
+
+    public void testCreateIndexOnExistingData() throws IOException {
+        String tableName = "idx_existing";
+        createTable(tableName);
+        hbaseUtils.insertData(tableName, "u1", FAMILY, QUALIFIER, "beijing");
+        createIndex(tableName);
+
+        assertEquals(Collections.singletonList("beijing/u1"), indexEntries(tableName));
+    }
+
+    public void testBatchInsertWithUnflushedRows() throws IOException {
+        String tableName = createIndexedTable("idx_batch");
+        Map<String, Map<String, String>> rows = new LinkedHashMap<String, Map<String, String>>();
+        rows.put("u1", Collections.singletonMap(QUALIFIER, "beijing"));
+        rows.put("u2", Collections.singletonMap(QUALIFIER, "beijing"));
+        rows.put("u3", Collections.singletonMap(QUALIFIER, "shenzhen"));
+        hbaseUtils.batchInsertData(tableName, FAMILY, rows);
+        // u1的第一次写入还在批量写入器的缓冲中，覆盖时必须按它维护索引
+        hbaseUtils.batchInsertData(tableName, FAMILY,
+                Collections.singletonMap("u1", Collections.singletonMap(QUALIFIER, "shanghai")));
+        flush(tableName);
+
+        assertEquals(Arrays.asList("beijing/u2", "shanghai/u1", "shenzhen/u3"), indexEntries(tableName));
+        assertEquals(Collections.singletonList("u2"), query(tableName, CompareFilter.CompareOp.EQUAL, "beijing"));
+        assertEquals(Collections.singletonList("u1"), query(tableName, CompareFilter.CompareOp.EQUAL, "shanghai"));
+    }
+
+    public void testAsyncClientMaintainsIndex() throws Exception {
+        String tableName = createIndexedTable("idx_async");
+        HbaseAsyncClient client = hbaseUtils.getAsyncClient();
+        client.put(tableName, "u1", FAMILY, QUALIFIER, "beijing").get();
+        client.put(tableName, "u1", FAMILY, QUALIFIER, "shanghai").get();
+        assertEquals(Collections.singletonList("shanghai/u1"), indexEntries(tableName));
+
+        client.delete(tableName, "u1").get();
+        assertEquals(Collections.<String>emptyList(), indexEntries(tableName));
+    }
+
+    private static String createIndexedTable(String tableName) {
+        createTable(tableName);
+        createIndex(tableName);
+        return tableName;
+    }
+
+    // createTable默认SNAPPY压缩，本机没有Snappy本地库时改为不压缩
+    private static void createTable(String tableName) {
+        hbaseUtils.createTable(tableName, new HColumnDescriptor(FAMILY), null);
+    }
+
+    // 索引表已存在时createClientIndex不再建表，没有Snappy本地库时预先建不压缩的索引表
+    private static void createIndex(String tableName) {
+        if (!snappyAvailable()) {
+            String indexTableName = new HbaseClientIndex(tableName, INDEX, FAMILY, QUALIFIER).getIndexTableName();
+            hbaseUtils.createTable(indexTableName, new HColumnDescriptor(HbaseClientIndex.INDEX_FAMILY), null);
+        }
+        hbaseUtils.createClientIndex(tableName, INDEX, FAMILY, QUALIFIER);
+    }
+
+    private static void flush(String tableName) {
+        hbaseUtils.flushBatchWriter(tableName);
+        hbaseUtils.flushBatchWriter(hbaseUtils.getClientIndex(tableName, INDEX).getIndexTableName());
+    }
+
+    // 索引表的全部条目，格式为 索引值/rowkey
+    private static List<String> indexEntries(String tableName) throws IOException {
+        List<String> entries = new ArrayList<String>();
+        Table table = conn.getTable(TableName.valueOf(
+                hbaseUtils.getClientIndex(tableName, INDEX).getIndexTableName()));
+        ResultScanner scanner = table.getScanner(new Scan());
+        try {
+            for (Result result : scanner) {
+                byte[] row = result.getRow();
+                int separator = Bytes.indexOf(row, (byte) 0x00);
+                entries.add(Bytes.toString(row, 0, separator) + "/"
+                        + Bytes.toString(row, separator + 1, row.length - separator - 1));
+            }
+        } finally {
+            scanner.close();
+            table.close();
+        }
+        return entries;
+    }
+
+    private static List<String> query(String tableName, CompareFilter.CompareOp compareOp, String value)
+            throws IOException {
+        final List<String> rowkeys = new ArrayList<String>();
+        long rows = hbaseUtils.queryByIndex(tableName, INDEX, compareOp, value, new ResultHandler() {
+            @Override
+            public void handle(Result result) {
+                rowkeys.add(Bytes.toString(result.getRow()));
+            }
+        });
+        assertEquals(rowkeys.size(), rows);
+        return rowkeys;
+    }
+
+    private static boolean snappyAvailable() {
+        try {
+            CompressionTest.testCompression(Compression.Algorithm.SNAPPY);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * HbaseRecordCodec往返基准测试，不需要集群
+ * 同一批记录分别按String路径(每个字段String.valueOf后一个单元格)、类型化单元格、packed单元格编码成Put，
+ * 再转成Result解码回对象，输出每条记录的单元格字节数(含row/family/qualifier/timestamp等key开销)和往返耗时。
+ * 不打进allinone包，用test classpath运行:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=HbaseRecordCodecBenchmark
+ *     -Dexec.args="[记录数=100000] [轮数=5]"
+ */
+public class HbaseRecordCodecBenchmark {
+
+    private static final String FAMILY = "f";
+
+    /**
+     * 样例记录
+     */
+    public static class Order {
+        long orderId;
+        String userId;
+        int quantity;
+        double price;
+        long createTime;
+        String status;
+        boolean paid;
+        String city;
+        int channel;
+        short priority;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<Order> orders = sample(count);
+        HbaseRecordCodec<Order> typed = new HbaseRecordCodec<Order>(Order.class, FAMILY, "userId", "orderId");
+        HbaseRecordCodec<Order> packed = new HbaseRecordCodec<Order>(Order.class, FAMILY, "userId", "orderId").packed();
+
+        System.out.println(String.format("%-8s %14s %14s", "path", "bytes/record", "ns/round-trip"));
+        for (int r = 0; r < rounds; r++) {
+            // 第一轮作为预热，只输出最后一轮
+            boolean report = r == rounds - 1;
+            measure("string", orders, null, report);
+            measure("typed", orders, typed, report);
+            measure("packed", orders, packed, report);
+        }
+    }
+
+    private static void measure(String name, List<Order> orders, HbaseRecordCodec<Order> codec, boolean report)
+            throws IOException {
+        long bytes = 0;
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (Order order : orders) {
+            Put put = codec == null ? toStringPut(order) : codec.toPut(order);
+            List<Cell> cells = new ArrayList<Cell>();
+            for (List<Cell> familyCells : put.getFamilyCellMap().values()) {
+                cells.addAll(familyCells);
+            }
+            Collections.sort(cells, KeyValue.COMPARATOR);
+            for (Cell cell : cells) {
+                bytes += KeyValueUtil.length(cell);
+            }
+            Result result = Result.create(cells);
+            Order decoded = codec == null ? fromStringResult(result) : codec.fromResult(result);
+            checksum += decoded.orderId + decoded.quantity;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (report) {
+            System.out.println(String.format("%-8s %14d %14d   (checksum %d)", name, bytes / orders.size(),
+                    elapsed / orders.size(), checksum));
+        }
+    }
+
+    // 现有HbaseUtils的写法：rowkey和每个值都是字符串
+    private static Put toStringPut(Order o) {
+        byte[] f = Bytes.toBytes(FAMILY);
+        Put put = new Put(Bytes.toBytes(o.userId + "_" + o.orderId));
+        put.addColumn(f, Bytes.toBytes("channel"), Bytes.toBytes(String.valueOf(o.channel)));
+        put.addColumn(f, Bytes.toBytes("city"), Bytes.toBytes(o.city));
+        put.addColumn(f, Bytes.toBytes("createTime"), Bytes.toBytes(String.valueOf(o.createTime)));
+        put.addColumn(f, Bytes.toBytes("paid"), Bytes.toBytes(String.valueOf(o.paid)));
+        put.addColumn(f, Bytes.toBytes("price"), Bytes.toBytes(String.valueOf(o.price)));
+        put.addColumn(f, Bytes.toBytes("priority"), Bytes.toBytes(String.valueOf(o.priority)));
+        put.addColumn(f, Bytes.toBytes("quantity"), Bytes.toBytes(String.valueOf(o.quantity)));
+        put.addColumn(f, Bytes.toBytes("status"), Bytes.toBytes(o.status));
+        return put;
+    }
+
+    private static Order fromStringResult(Result r) {
+        byte[] f = Bytes.toBytes(FAMILY);
+        Order o = new Order();
+        String row = Bytes.toString(r.getRow());
+        int sep = row.lastIndexOf('_');
+        o.userId = row.substring(0, sep);
+        o.orderId = Long.parseLong(row.substring(sep + 1));
+        o.channel = Integer.parseInt(Bytes.toString(CellUtil.cloneValue(r.getColumnLatestCell(f, Bytes.toBytes("channel")))));
+        o.city = Bytes.toString(CellUtil.cloneValue(r.getColumnLatestCell(f, Bytes.toBytes("city"))));
+        o.createTime = Long.parseLong(Bytes.toString(CellUtil.cloneValue(r.getColumnLatestCell(f, Bytes.toBytes("createTime")))));
+        o.paid = Boolean.parseBoolean(Bytes.toString(CellUtil.cloneValue(r.getColumnLatestCell(f, Bytes.toBytes("paid")))));
+        o.price = Double.parseDouble(Bytes.toString(CellUtil.cloneValue(r.getColumnLatestCell(f, Bytes.toBytes("price")))));
+        o.priority = Short.parseShort(Bytes.toString(CellUtil.cloneValue(r.getColumnLatestCell(f, Bytes.toBytes("priority")))));
+        o.quantity = Integer.parseInt(Bytes.toString(CellUtil.cloneValue(r.getColumnLatestCell(f, Bytes.toBytes("quantity")))));
+        o.status = Bytes.toString(CellUtil.cloneValue(r.getColumnLatestCell(f, Bytes.toBytes("status"))));
+        return o;
+    }
+
+    private static List<Order> sample(int count) {
+        String[] cities = {"shenzhen", "beijing", "shanghai", "hangzhou", "chengdu"};
+        String[] statuses = {"CREATED", "PAID", "SHIPPED", "DONE"};
+        Random random = new Random(42);
+        List<Order> orders = new ArrayList<Order>(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Order o = new Order();
+            o.orderId = 100000000L + i;
+            o.userId = "u" + random.nextInt(1000000);
+            o.quantity = 1 + random.nextInt(20);
+            o.price = random.nextInt(100000) / 100.0;
+            o.createTime = now - random.nextInt(86400000);
+            o.status = statuses[random.nextInt(statuses.length)];
+            o.paid = random.nextBoolean();
+            o.city = cities[random.nextInt(cities.length)];
+            o.channel = random.nextInt(8);
+            o.priority = (short) random.nextInt(3);
+            orders.add(o);
+        }
+        return orders;
+    }
+}
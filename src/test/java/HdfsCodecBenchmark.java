@@ -0,0 +1,108 @@
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * HdfsCompression各编解码器的压缩率和吞吐基准测试，不需要集群
+ * 默认用生成的日志行(时间戳、级别、用户、URL、耗时)作为样本，也可以传入本地文件作为真实样本，
+ * 在内存中压缩、解压若干轮，输出压缩率和压缩/解压MB/s。没有native库的编解码器输出unavailable。
+ * 不打进allinone包，用test classpath运行:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=HdfsCodecBenchmark
+ *     -Dexec.args="[样本文件] [轮数=5]"
+ */
+public class HdfsCodecBenchmark {
+
+    private static final int SAMPLE_BYTES = 64 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        byte[] sample = args.length > 0 && !args[0].isEmpty()
+                ? Files.readAllBytes(Paths.get(args[0])) : sampleLogs(SAMPLE_BYTES);
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Configuration conf = new Configuration();
+
+        System.out.println("sample " + sample.length + " bytes, " + rounds + " rounds");
+        System.out.println(String.format("%-8s %10s %14s %16s", "codec", "ratio", "compress MB/s", "decompress MB/s"));
+        for (HdfsCompression compression : HdfsCompression.values()) {
+            if (compression == HdfsCompression.NONE) {
+                continue;
+            }
+            try {
+                measure(compression, compression.newCodec(conf), sample, rounds);
+            } catch (IOException | RuntimeException | LinkageError e) {
+                System.out.println(String.format("%-8s unavailable: %s", compression, e.getMessage()));
+            }
+        }
+    }
+
+    private static void measure(HdfsCompression compression, CompressionCodec codec, byte[] sample, int rounds)
+            throws IOException {
+        byte[] compressed = null;
+        long compressNanos = 0;
+        long decompressNanos = 0;
+        byte[] buf = new byte[64 * 1024];
+        for (int r = 0; r < rounds; r++) {
+            // 第一轮作为预热，不计时
+            boolean report = r > 0 || rounds == 1;
+
+            long start = System.nanoTime();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(sample.length / 2);
+            CompressionOutputStream out = codec.createOutputStream(bytes);
+            out.write(sample);
+            out.finish();
+            out.close();
+            compressed = bytes.toByteArray();
+            if (report) {
+                compressNanos += System.nanoTime() - start;
+            }
+
+            start = System.nanoTime();
+            CompressionInputStream in = codec.createInputStream(new ByteArrayInputStream(compressed));
+            long total = 0;
+            int count;
+            while ((count = in.read(buf)) != -1) {
+                total += count;
+            }
+            in.close();
+            if (report) {
+                decompressNanos += System.nanoTime() - start;
+            }
+            if (total != sample.length) {
+                throw new IOException("Round trip returned " + total + " of " + sample.length + " bytes");
+            }
+        }
+        int measured = rounds == 1 ? 1 : rounds - 1;
+        double mb = (double) sample.length * measured / (1024 * 1024);
+        System.out.println(String.format("%-8s %10.2f %14.1f %16.1f", compression,
+                (double) sample.length / compressed.length,
+                mb / (compressNanos / 1e9), mb / (decompressNanos / 1e9)));
+    }
+
+    private static byte[] sampleLogs(int size) {
+        String[] levels = {"INFO", "INFO", "INFO", "WARN", "ERROR", "DEBUG"};
+        String[] paths = {"/api/order/create", "/api/order/query", "/api/user/login", "/api/item/detail",
+                "/api/cart/add", "/static/js/app.js"};
+        Random random = new Random(42);
+        long ts = 1577836800000L;
+        StringBuilder builder = new StringBuilder(size + 256);
+        while (builder.length() < size) {
+            ts += random.nextInt(50);
+            builder.append(ts).append('\t')
+                    .append(levels[random.nextInt(levels.length)]).append('\t')
+                    .append("user_").append(random.nextInt(100000)).append('\t')
+                    .append("10.").append(random.nextInt(256)).append('.').append(random.nextInt(256)).append(".1\t")
+                    .append(paths[random.nextInt(paths.length)]).append("?id=").append(random.nextInt(1000000))
+                    .append('\t').append(random.nextInt(2000)).append("ms\n");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,173 @@
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CompressionTest;
+import org.apache.hadoop.hbase.util.FSUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * TableProfile基准测试
+ * 在本地mini-cluster上为每种负载类型建一张表，逐条写入同一批样本数据，flush后随机读和全表扫描，
+ * 输出写/读延迟分位数、扫描耗时和HDFS上的表目录大小。
+ * 依赖test scope的hbase-testing-util，不打进allinone包，用test classpath运行:
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=TableProfileBenchmark
+ *     -Dexec.args="[行数=20000] [每行列数=5] [值长度=100] [随机读次数=10000]"
+ * 本机没有Snappy本地库时自动改为不压缩，此时各配置的磁盘占用只反映块编码和块大小的差异。
+ */
+public class TableProfileBenchmark {
+
+    private static final byte[] FAMILY = Bytes.toBytes("f");
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int valueSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int reads = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+
+        HBaseTestingUtility util = new HBaseTestingUtility();
+        util.startMiniCluster();
+        Connection conn = ConnectionFactory.createConnection(util.getConfiguration());
+        try {
+            System.out.println(String.format("%-14s %10s %10s %10s %10s %10s %12s",
+                    "profile", "put p50us", "put p99us", "get p50us", "get p99us", "scan ms", "disk bytes"));
+            for (TableProfile profile : TableProfile.values()) {
+                run(util, conn, profile, rows, columns, valueSize, reads);
+            }
+        } finally {
+            conn.close();
+            util.shutdownMiniCluster();
+        }
+    }
+
+    private static void run(HBaseTestingUtility util, Connection conn, TableProfile profile, int rows, int columns,
+                            int valueSize, int reads) throws IOException {
+        TableName tableName = TableName.valueOf("bench_" + profile.name().toLowerCase());
+        HColumnDescriptor hcd = profile.newFamily(Bytes.toString(FAMILY));
+        if (!compressionAvailable(profile.getCompression())) {
+            hcd.setCompressionType(Compression.Algorithm.NONE);
+        }
+        HTableDescriptor htd = new HTableDescriptor(tableName);
+        htd.addFamily(hcd);
+        Admin admin = conn.getAdmin();
+        Table table = conn.getTable(tableName);
+        try {
+            admin.createTable(htd);
+
+            // 样本数据对所有配置相同
+            Random random = new Random(42);
+            int[] order = shuffled(rows, random);
+            long[] putLatency = new long[rows];
+            for (int i = 0; i < rows; i++) {
+                Put put = new Put(rowKey(order[i]));
+                for (int c = 0; c < columns; c++) {
+                    put.addColumn(FAMILY, Bytes.toBytes("c" + c), value(random, valueSize));
+                }
+                long start = System.nanoTime();
+                table.put(put);
+                putLatency[i] = System.nanoTime() - start;
+            }
+            admin.flush(tableName);
+
+            long[] getLatency = new long[reads];
+            for (int i = 0; i < reads; i++) {
+                Get get = new Get(rowKey(random.nextInt(rows)));
+                long start = System.nanoTime();
+                table.get(get);
+                getLatency[i] = System.nanoTime() - start;
+            }
+
+            Scan scan = new Scan();
+            scan.setCaching(1000);
+            long scanStart = System.nanoTime();
+            ResultScanner scanner = table.getScanner(scan);
+            try {
+                for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                    // 只计时
+                }
+            } finally {
+                scanner.close();
+            }
+            long scanMs = (System.nanoTime() - scanStart) / 1000000;
+
+            FileSystem fs = util.getTestFileSystem();
+            Path tableDir = FSUtils.getTableDir(FSUtils.getRootDir(util.getConfiguration()), tableName);
+            long diskBytes = fs.getContentSummary(tableDir).getLength();
+
+            System.out.println(String.format("%-14s %10d %10d %10d %10d %10d %12d", profile.name(),
+                    percentileMicros(putLatency, 50), percentileMicros(putLatency, 99),
+                    percentileMicros(getLatency, 50), percentileMicros(getLatency, 99), scanMs, diskBytes));
+        } finally {
+            table.close();
+            if (admin.tableExists(tableName)) {
+                admin.disableTable(tableName);
+                admin.deleteTable(tableName);
+            }
+            admin.close();
+        }
+    }
+
+    private static boolean compressionAvailable(Compression.Algorithm algorithm) {
+        try {
+            CompressionTest.testCompression(algorithm);
+            return true;
+        } catch (IOException e) {
+            System.out.println(algorithm + " not available, falling back to NONE: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static byte[] rowKey(int i) {
+        return Bytes.toBytes(String.format("row%010d", i));
+    }
+
+    // 小字母表的随机文本，压缩率接近真实业务数据
+    private static byte[] value(Random random, int size) {
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) {
+            value[i] = (byte) ('a' + random.nextInt(16));
+        }
+        return value;
+    }
+
+    private static int[] shuffled(int n, Random random) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        return order;
+    }
+
+    private static long percentileMicros(long[] nanos, int percentile) {
+        if (nanos.length == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(nanos, nanos.length);
+        Arrays.sort(sorted);
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percentile / 100.0) - 1);
+        return sorted[Math.max(0, index)] / 1000;
+    }
+}